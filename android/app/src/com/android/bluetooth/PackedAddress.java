@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth;
+
+/**
+ * Bluetooth device addresses packed in the lower 48 bits of a {@code long}, most significant byte
+ * first.
+ *
+ * <p>Packed addresses are compared with {@code ==} and used as keys of {@link
+ * android.util.LongSparseArray}s. Parsing them doesn't allocate, and formatting them only allocates
+ * the resulting string. {@link #INVALID} is returned for malformed input and is never a valid
+ * address.
+ *
+ * @hide
+ */
+public final class PackedAddress {
+    public static final long INVALID = -1;
+
+    private static final int LENGTH = 6;
+    private static final int STRING_LENGTH = 17;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private PackedAddress() {}
+
+    /** Packs a 6 byte address, most significant byte first. */
+    public static long fromBytes(byte[] address) {
+        if (address == null || address.length != LENGTH) {
+            return INVALID;
+        }
+        long packed = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            packed = (packed << 8) | (address[i] & 0xFF);
+        }
+        return packed;
+    }
+
+    /** Packs the 6 byte address at {@code offset}, least significant byte first. */
+    public static long fromReversedBytes(byte[] data, int offset) {
+        long packed = 0;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            packed = (packed << 8) | (data[offset + i] & 0xFF);
+        }
+        return packed;
+    }
+
+    /** Packs a "XX:XX:XX:XX:XX:XX" address, in upper or lower case. */
+    public static long fromString(String address) {
+        if (address == null || address.length() != STRING_LENGTH) {
+            return INVALID;
+        }
+        long packed = 0;
+        for (int i = 0; i < STRING_LENGTH; i += 3) {
+            int high = Character.digit(address.charAt(i), 16);
+            int low = Character.digit(address.charAt(i + 1), 16);
+            if (high < 0 || low < 0 || (i + 2 < STRING_LENGTH && address.charAt(i + 2) != ':')) {
+                return INVALID;
+            }
+            packed = (packed << 8) | (high << 4) | low;
+        }
+        return packed;
+    }
+
+    /** Formats a packed address as a "XX:XX:XX:XX:XX:XX" string, or returns null if invalid. */
+    public static String toString(long address) {
+        if (!isValid(address)) {
+            return null;
+        }
+        char[] chars = new char[STRING_LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            int b = byteAt(address, i);
+            int pos = i * 3;
+            chars[pos] = HEX_DIGITS[b >>> 4];
+            chars[pos + 1] = HEX_DIGITS[b & 0x0F];
+            if (i < LENGTH - 1) {
+                chars[pos + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    /** Unpacks an address into 6 bytes, most significant byte first, or returns null if invalid. */
+    public static byte[] toBytes(long address) {
+        if (!isValid(address)) {
+            return null;
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = (byte) byteAt(address, i);
+        }
+        return bytes;
+    }
+
+    public static boolean isValid(long address) {
+        return (address >>> (8 * LENGTH)) == 0;
+    }
+
+    // Byte i of the address, 0 being the most significant one.
+    private static int byteAt(long address, int i) {
+        return (int) (address >>> (8 * (LENGTH - 1 - i))) & 0xFF;
+    }
+}
@@ -173,12 +173,7 @@ public final class Utils {
     }
 
     public static String getAddressStringFromByte(byte[] address) {
-        if (address == null || address.length != BD_ADDR_LEN) {
-            return null;
-        }
-
-        return String.format("%02X:%02X:%02X:%02X:%02X:%02X", address[0], address[1], address[2],
-                address[3], address[4], address[5]);
+        return PackedAddress.toString(PackedAddress.fromBytes(address));
     }
 
     public static String getRedactedAddressStringFromByte(byte[] address) {
@@ -211,6 +206,11 @@ public final class Utils {
     }
 
     public static byte[] getBytesFromAddress(String address) {
+        long packed = PackedAddress.fromString(address);
+        if (packed != PackedAddress.INVALID) {
+            return PackedAddress.toBytes(packed);
+        }
+
         int i, j = 0;
         byte[] output = new byte[BD_ADDR_LEN];
 
@@ -7557,6 +7557,7 @@ public class AdapterService extends Service {
             profile.dump(sb);
         }
         mSilenceDeviceManager.dump(fd, writer, args);
+        mRemoteDevices.dump(writer);
         mDatabaseManager.dump(writer);
 
         writer.write(sb.toString());
@@ -7705,6 +7706,9 @@ public class AdapterService extends Service {
     @GuardedBy("mDeviceConfigLock")
     private String mLeAudioAllowList;
 
+    @GuardedBy("mDeviceConfigLock")
+    private int mRemoteDeviceCacheSize = DeviceConfigListener.DEFAULT_REMOTE_DEVICE_CACHE_SIZE;
+
     public @NonNull Predicate<String> getLocationDenylistName() {
         synchronized (mDeviceConfigLock) {
             return mLocationDenylistName;
@@ -7723,6 +7727,13 @@ public class AdapterService extends Service {
         }
     }
 
+    /** Returns the number of remote devices to remember, besides bonded and connected ones. */
+    public int getRemoteDeviceCacheSize() {
+        synchronized (mDeviceConfigLock) {
+            return mRemoteDeviceCacheSize;
+        }
+    }
+
     /** Returns scan quota count. */
     public int getScanQuotaCount() {
         synchronized (mDeviceConfigLock) {
@@ -7808,6 +7819,7 @@ public class AdapterService extends Service {
         private static final String SCREEN_OFF_BALANCED_INTERVAL_MILLIS =
                 "screen_off_balanced_interval_millis";
         private static final String LE_AUDIO_ALLOW_LIST = "le_audio_allow_list";
+        private static final String REMOTE_DEVICE_CACHE_SIZE = "remote_device_cache_size";
 
         /** Default denylist which matches Eddystone and iBeacon payloads. */
         private static final String DEFAULT_LOCATION_DENYLIST_ADVERTISING_DATA =
@@ -7819,6 +7831,8 @@ public class AdapterService extends Service {
         private static final int DEFAULT_SCAN_UPGRADE_DURATION_MILLIS = (int) SECOND_IN_MILLIS * 6;
         private static final int DEFAULT_SCAN_DOWNGRADE_DURATION_BT_CONNECTING_MILLIS =
                 (int) SECOND_IN_MILLIS * 6;
+        private static final int DEFAULT_REMOTE_DEVICE_CACHE_SIZE =
+                RemoteDeviceRegistry.DEFAULT_CAPACITY;
 
         @RequiresPermission(android.Manifest.permission.READ_DEVICE_CONFIG)
         public void start() {
@@ -7871,6 +7885,9 @@ public class AdapterService extends Service {
                         properties.getInt(
                                 SCREEN_OFF_BALANCED_INTERVAL_MILLIS,
                                 ScanManager.SCAN_MODE_SCREEN_OFF_BALANCED_INTERVAL_MS);
+                mRemoteDeviceCacheSize =
+                        properties.getInt(
+                                REMOTE_DEVICE_CACHE_SIZE, DEFAULT_REMOTE_DEVICE_CACHE_SIZE);
                 mLeAudioAllowList = properties.getString(LE_AUDIO_ALLOW_LIST, "");
 
                 if (!mLeAudioAllowList.isEmpty()) {
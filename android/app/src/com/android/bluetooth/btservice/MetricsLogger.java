@@ -43,6 +43,8 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Class of Bluetooth Metrics
@@ -62,6 +64,8 @@ public class MetricsLogger {
     private static final HashMap<ProfileId, Integer> sProfileConnectionCounts = new HashMap<>();
 
     HashMap<Integer, Long> mCounters = new HashMap<>();
+    // Run before each drain, to add the counts their callers buffer on their own.
+    private final Set<Runnable> mCounterFlushers = new CopyOnWriteArraySet<>();
     private static volatile MetricsLogger sInstance = null;
     private Context mContext = null;
     private AlarmManager mAlarmManager = null;
@@ -239,8 +243,23 @@ public class MetricsLogger {
         return true;
     }
 
+    /**
+     * Registers a task that adds buffered counts with {@link #cacheCount} before each drain of the
+     * counters. Registering it again has no effect.
+     */
+    public void addCounterFlusher(Runnable flusher) {
+        mCounterFlushers.add(flusher);
+    }
+
+    public void removeCounterFlusher(Runnable flusher) {
+        mCounterFlushers.remove(flusher);
+    }
+
     protected void drainBufferedCounters() {
         Log.i(TAG, "drainBufferedCounters().");
+        for (Runnable flusher : mCounterFlushers) {
+            flusher.run();
+        }
         synchronized (mLock) {
             // send mCounters to statsd
             for (int key : mCounters.keySet()) {
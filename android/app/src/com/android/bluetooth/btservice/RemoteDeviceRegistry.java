@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice;
+
+import com.android.bluetooth.PackedAddress;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Registry of remote device properties by address, bounded to the most recently used devices.
+ *
+ * <p>Devices are keyed by {@link PackedAddress}. Lookups don't lock, they only mark the
+ * device as used. Adding a device beyond the capacity evicts an approximation of the least
+ * recently used one, with a second chance policy: devices are queued in insertion order, and the
+ * head of the queue is queued again instead of being evicted if it was used since it was last
+ * queued.
+ *
+ * <p>Pinned devices, such as bonded or connected ones, are never evicted. The registry exceeds its
+ * capacity if they fill it. Pinned devices met while evicting are set aside, so that they are not
+ * tested again on every addition, and queued again once as many devices were added as were set
+ * aside, in case they were unpinned since. Adding a device therefore takes constant amortized
+ * time.
+ *
+ * @hide
+ */
+/* package */ class RemoteDeviceRegistry<V> {
+    @VisibleForTesting static final int DEFAULT_CAPACITY = 200;
+
+    private static final class Entry<V> {
+        final long mAddress;
+        final V mValue;
+        // Set when used, cleared when given a second chance.
+        volatile boolean mReferenced;
+
+        Entry(long address, V value) {
+            mAddress = address;
+            mValue = value;
+        }
+    }
+
+    private final Map<Long, Entry<V>> mEntries = new ConcurrentHashMap<>();
+
+    // Insertion order. Removed or replaced entries are dropped when they reach the head.
+    @GuardedBy("this")
+    private final ArrayDeque<Entry<V>> mQueue = new ArrayDeque<>();
+
+    // Pinned entries taken out of the queue, and the number of additions since the last time they
+    // were queued again.
+    @GuardedBy("this")
+    private final ArrayDeque<Entry<V>> mPinnedEntries = new ArrayDeque<>();
+    @GuardedBy("this")
+    private int mPutsSincePinnedCheck;
+
+    private final Predicate<V> mPinned;
+    private final IntSupplier mCapacity;
+
+    @GuardedBy("this")
+    private long mEvictionCount;
+    @GuardedBy("this")
+    private long mSecondChanceCount;
+    @GuardedBy("this")
+    private long mPinnedSkipCount;
+    @GuardedBy("this")
+    private long mOverCapacityCount;
+    @GuardedBy("this")
+    private int mMaxSize;
+
+    /**
+     * @param pinned tests whether a device must not be evicted
+     * @param capacity supplies the number of devices to remember, the default one if not positive
+     */
+    RemoteDeviceRegistry(Predicate<V> pinned, IntSupplier capacity) {
+        mPinned = pinned;
+        mCapacity = capacity;
+    }
+
+    V get(long address) {
+        Entry<V> entry = mEntries.get(address);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.mReferenced) {
+            entry.mReferenced = true;
+        }
+        return entry.mValue;
+    }
+
+    V get(byte[] address) {
+        return get(PackedAddress.fromBytes(address));
+    }
+
+    V get(String address) {
+        return get(PackedAddress.fromString(address));
+    }
+
+    /** Adds or replaces a device, evicting others if the capacity is exceeded. */
+    synchronized V put(long address, V value) {
+        Entry<V> entry = new Entry<>(address, value);
+        Entry<V> previous = mEntries.put(address, entry);
+        mQueue.offer(entry);
+        mMaxSize = Math.max(mMaxSize, mEntries.size());
+        if (!mPinnedEntries.isEmpty() && ++mPutsSincePinnedCheck >= mPinnedEntries.size()) {
+            requeuePinnedEntries();
+        }
+
+        int capacity = getCapacity();
+        if (mEntries.size() > capacity) {
+            evict(capacity);
+        }
+        if (mQueue.size() > 2 * Math.max(capacity, mEntries.size())) {
+            mQueue.removeIf(e -> mEntries.get(e.mAddress) != e);
+        }
+        return previous == null ? null : previous.mValue;
+    }
+
+    V put(byte[] address, V value) {
+        return put(PackedAddress.fromBytes(address), value);
+    }
+
+    synchronized V remove(long address) {
+        Entry<V> entry = mEntries.remove(address);
+        return entry == null ? null : entry.mValue;
+    }
+
+    V remove(String address) {
+        return remove(PackedAddress.fromString(address));
+    }
+
+    /** Returns a snapshot of the devices. */
+    List<V> values() {
+        List<V> values = new ArrayList<>(mEntries.size());
+        for (Entry<V> entry : mEntries.values()) {
+            values.add(entry.mValue);
+        }
+        return values;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mQueue.clear();
+        mPinnedEntries.clear();
+        mPutsSincePinnedCheck = 0;
+    }
+
+    @VisibleForTesting
+    synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @GuardedBy("this")
+    private void evict(int capacity) {
+        // Enough for every queued device to use its second chance, then be evicted.
+        int budget = 2 * mQueue.size();
+        while (mEntries.size() > capacity && budget-- > 0) {
+            Entry<V> entry = mQueue.poll();
+            if (entry == null) {
+                break;
+            }
+            if (mEntries.get(entry.mAddress) != entry) {
+                continue;
+            }
+            if (mPinned.test(entry.mValue)) {
+                mPinnedSkipCount++;
+                mPinnedEntries.offer(entry);
+                continue;
+            }
+            if (entry.mReferenced) {
+                entry.mReferenced = false;
+                mSecondChanceCount++;
+                mQueue.offer(entry);
+                continue;
+            }
+            mEntries.remove(entry.mAddress);
+            mEvictionCount++;
+        }
+        if (mEntries.size() > capacity) {
+            mOverCapacityCount++;
+        }
+    }
+
+    @GuardedBy("this")
+    private void requeuePinnedEntries() {
+        for (Entry<V> entry : mPinnedEntries) {
+            if (mEntries.get(entry.mAddress) == entry) {
+                mQueue.offer(entry);
+            }
+        }
+        mPinnedEntries.clear();
+        mPutsSincePinnedCheck = 0;
+    }
+
+    private int getCapacity() {
+        int capacity = mCapacity.getAsInt();
+        return capacity > 0 ? capacity : DEFAULT_CAPACITY;
+    }
+
+    synchronized String dump() {
+        return "size=" + mEntries.size() + ", capacity=" + getCapacity() + ", max size="
+                + mMaxSize + ", evictions=" + mEvictionCount + ", second chances="
+                + mSecondChanceCount + ", pinned skips=" + mPinnedSkipCount
+                + ", pinned set aside=" + mPinnedEntries.size()
+                + ", over capacity=" + mOverCapacityCount;
+    }
+}
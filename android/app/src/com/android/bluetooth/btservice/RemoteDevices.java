@@ -44,6 +44,7 @@ import android.os.SystemProperties;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothStatsLog;
+import com.android.bluetooth.PackedAddress;
 import com.android.bluetooth.R;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.bas.BatteryService;
@@ -51,13 +52,13 @@ import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 /** Remote device manager. This class is currently mostly used for HF and AG remote devices. */
@@ -65,9 +66,6 @@ public class RemoteDevices {
     private static final boolean DBG = false;
     private static final String TAG = "BluetoothRemoteDevices";
 
-    // Maximum number of device properties to remember
-    private static final int MAX_DEVICE_QUEUE_SIZE = 200;
-
     private BluetoothAdapter mAdapter;
     private AdapterService mAdapterService;
     private ArrayList<BluetoothDevice> mSdpTracker;
@@ -77,9 +75,9 @@ public class RemoteDevices {
     private static final int MESSAGE_UUID_INTENT = 1;
     private static final String LOG_SOURCE_DIS = "DIS";
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private ArrayDeque<String> mDeviceQueue;
+    // Bounded to the most recently used devices, bonded and connected ones are kept.
+    private final RemoteDeviceRegistry<DeviceProperties> mDevices;
+    private final ConcurrentHashMap<String, String> mDualDevicesMap;
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -155,9 +153,10 @@ public class RemoteDevices {
         mAdapter = ((Context) service).getSystemService(BluetoothManager.class).getAdapter();
         mAdapterService = service;
         mSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new ArrayDeque<>();
+        mDevices =
+                new RemoteDeviceRegistry<>(
+                        RemoteDevices::isPinned, service::getRemoteDeviceCacheSize);
+        mDualDevicesMap = new ConcurrentHashMap<String, String>();
         mHandler = new RemoteDevicesHandler(looper);
         mMainHandler = new Handler(Looper.getMainLooper());
     }
@@ -192,13 +191,13 @@ public class RemoteDevices {
             if (mDevices != null) {
                 debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-                mDevices.forEach(
-                        (address, deviceProperties) -> {
+                mDevices.values().forEach(
+                        (deviceProperties) -> {
                             BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
 
                             debugLog(
                                     "reset(): address="
-                                            + address
+                                            + bluetoothDevice.getAddress()
                                             + ", connected="
                                             + bluetoothDevice.isConnected());
 
@@ -222,10 +221,6 @@ public class RemoteDevices {
         if (mDualDevicesMap != null) {
             mDualDevicesMap.clear();
         }
-
-        if (mDeviceQueue != null) {
-            mDeviceQueue.clear();
-        }
     }
 
     @Override
@@ -238,25 +233,26 @@ public class RemoteDevices {
             return null;
         }
 
-        synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
-        }
+        // Lookups don't lock, see RemoteDeviceRegistry.
+        String address = mDualDevicesMap.get(device.getAddress());
+        DeviceProperties prop = address != null ? mDevices.get(address) : null;
+        // If the device is not in the dual map, use its original address
+        return prop != null ? prop : mDevices.get(device.getAddress());
     }
 
     BluetoothDevice getDevice(byte[] address) {
+        DeviceProperties prop = null;
         String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
+        if (addressString != null && !mDualDevicesMap.isEmpty()) {
+            String deviceAddress = mDualDevicesMap.get(addressString);
+            if (deviceAddress != null) {
+                prop = mDevices.get(deviceAddress);
+            }
+        }
         // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
+        if (prop == null) {
+            prop = mDevices.get(address);
         }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
         if (prop != null) {
             return prop.getDevice();
         }
@@ -265,28 +261,25 @@ public class RemoteDevices {
 
     @VisibleForTesting
     DeviceProperties addDeviceProperties(byte[] address) {
-        synchronized (mDevices) {
-            DeviceProperties prop = new DeviceProperties();
-            prop.setDevice(mAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address)));
-            prop.setAddress(address);
-            String key = Utils.getAddressStringFromByte(address);
-            DeviceProperties pv = mDevices.put(key, prop);
-
-            if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
-                }
-            }
-            return prop;
-        }
+        long packedAddress = PackedAddress.fromBytes(address);
+        DeviceProperties prop = new DeviceProperties();
+        prop.setDevice(mAdapter.getRemoteDevice(PackedAddress.toString(packedAddress)));
+        prop.setAddress(address);
+        mDevices.put(packedAddress, prop);
+        return prop;
+    }
+
+    /** Bonded and connected devices must not be evicted from mDevices. */
+    private static boolean isPinned(DeviceProperties prop) {
+        return prop.getBondState() != BluetoothDevice.BOND_NONE
+                || prop.getConnectionHandle(BluetoothDevice.TRANSPORT_BREDR)
+                        != BluetoothDevice.ERROR
+                || prop.getConnectionHandle(BluetoothDevice.TRANSPORT_LE) != BluetoothDevice.ERROR;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("\nRemoteDevices:");
+        writer.println("  Device properties: " + mDevices.dump());
     }
 
     class DeviceProperties {
@@ -1242,7 +1235,6 @@ public class RemoteDevices {
         String key = Utils.getAddressStringFromByte(address);
         synchronized (mDevices) {
             mDevices.remove(key);
-            mDeviceQueue.remove(key); // Remove from LRU cache
 
             // Remove from dual mode device mappings
             mDualDevicesMap.values().remove(key);
@@ -36,6 +36,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -51,13 +52,11 @@ import com.google.common.collect.EvictingQueue;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -74,13 +73,44 @@ public class DatabaseManager {
     private @GuardedBy("mDatabaseLock") MetadataDatabase mDatabase = null;
     private boolean mMigratedFromSettingsGlobal = false;
 
+    // Readers of a single device look up the cache without locking. Writers synchronize on it, as
+    // they update several fields or devices at once and the rows are shared with mPendingWrites,
+    // and so do the readers of flags that writers move from one device to another.
     @VisibleForTesting
-    final Map<String, Metadata> mMetadataCache = new HashMap<>();
-    private final Semaphore mSemaphore = new Semaphore(1);
+    final MetadataCache mMetadataCache = new MetadataCache();
     private static final int METADATA_CHANGED_LOG_MAX_SIZE = 20;
     private final EvictingQueue<String> mMetadataChangedLog;
 
+    // Rows changed since the last flush, by address. They are written in a single transaction
+    // WRITE_BEHIND_DELAY_MS after the first of them changed.
+    @GuardedBy("mPendingWrites")
+    private final Map<String, Metadata> mPendingWrites = new LinkedHashMap<>();
+    @GuardedBy("mPendingWrites")
+    private long mFirstPendingWriteMs;
+    @GuardedBy("mPendingWrites")
+    private int mMaxPendingWrites;
+    @GuardedBy("mPendingWrites")
+    private long mFlushCount;
+    @GuardedBy("mPendingWrites")
+    private long mFlushedRowCount;
+    @GuardedBy("mPendingWrites")
+    private long mTotalFlushLatencyMs;
+    @GuardedBy("mPendingWrites")
+    private long mMaxFlushLatencyMs;
+    private int mWriteBehindDelayMs = WRITE_BEHIND_DELAY_MS;
+
+    // Startup load, from the request to each stage being cached, see loadMetadata().
+    private volatile long mLoadRequestMs;
+    private volatile long mRecentLoadLatencyMs;
+    private volatile int mRecentLoadRowCount;
+    private volatile long mLoadLatencyMs;
+    private volatile int mLoadRowCount;
+
+    // Longest wait of a reader for a row still being loaded.
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
+    // Most recently active devices loaded before the others, for auto-connect.
+    @VisibleForTesting static final int RECENT_DEVICES_LOAD_COUNT = 10;
+    @VisibleForTesting static final int WRITE_BEHIND_DELAY_MS = 100;
     private static final int MSG_LOAD_DATABASE = 0;
     private static final int MSG_UPDATE_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
@@ -128,25 +158,12 @@ public class DatabaseManager {
             switch (msg.what) {
                 case MSG_LOAD_DATABASE: {
                     synchronized (mDatabaseLock) {
-                        List<Metadata> list;
-                        try {
-                            list = mDatabase.load();
-                        } catch (IllegalStateException e) {
-                            Log.e(TAG, "Unable to open database: " + e);
-                            mDatabase = MetadataDatabase
-                                    .createDatabaseWithoutMigration(mAdapterService);
-                            list = mDatabase.load();
-                        }
-                        compactLastConnectionTime(list);
-                        cacheMetadata(list);
+                        loadMetadata();
                     }
                     break;
                 }
                 case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabaseLock) {
-                        mDatabase.insert(data);
-                    }
+                    flushPendingWrites();
                     break;
                 }
                 case MSG_DELETE_DATABASE: {
@@ -157,6 +174,7 @@ public class DatabaseManager {
                     break;
                 }
                 case MSG_CLEAR_DATABASE: {
+                    flushPendingWrites();
                     synchronized (mDatabaseLock) {
                         mDatabase.deleteAll();
                     }
@@ -238,6 +256,7 @@ public class DatabaseManager {
         }
 
         String address = device.getAddress();
+        waitForMetadata(address);
         synchronized (mMetadataCache) {
             if (!mMetadataCache.containsKey(address)) {
                 createMetadata(address, false);
@@ -273,15 +292,12 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
-        synchronized (mMetadataCache) {
-            if (!mMetadataCache.containsKey(address)) {
-                Log.d(TAG, "getCustomMeta: device " + device + " is not in cache");
-                return null;
-            }
-
-            Metadata data = mMetadataCache.get(address);
-            return data.getCustomizedMeta(key);
+        Metadata data = waitForMetadata(address);
+        if (data == null) {
+            Log.d(TAG, "getCustomMeta: device " + device + " is not in cache");
+            return null;
         }
+        return data.getCustomizedMeta(key);
     }
 
     /**
@@ -296,6 +312,7 @@ public class DatabaseManager {
         }
 
         String address = device.getAddress();
+        waitForMetadata(address);
         synchronized (mMetadataCache) {
             if (!mMetadataCache.containsKey(address)) {
                 createMetadata(address, false);
@@ -323,19 +340,18 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
-        synchronized (mMetadataCache) {
-            if (!mMetadataCache.containsKey(address)) {
-                Log.d(TAG, "getAudioPolicyMetadata: device " + device + " is not in cache");
-                return null;
-            }
-
-            AudioPolicyEntity entity = mMetadataCache.get(address).audioPolicyMetadata;
-            return new BluetoothSinkAudioPolicy.Builder()
-                    .setCallEstablishPolicy(entity.callEstablishAudioPolicy)
-                    .setActiveDevicePolicyAfterConnection(entity.connectingTimeAudioPolicy)
-                    .setInBandRingtonePolicy(entity.inBandRingtoneAudioPolicy)
-                    .build();
+        Metadata data = waitForMetadata(address);
+        if (data == null) {
+            Log.d(TAG, "getAudioPolicyMetadata: device " + device + " is not in cache");
+            return null;
         }
+
+        AudioPolicyEntity entity = data.audioPolicyMetadata;
+        return new BluetoothSinkAudioPolicy.Builder()
+                .setCallEstablishPolicy(entity.callEstablishAudioPolicy)
+                .setActiveDevicePolicyAfterConnection(entity.connectingTimeAudioPolicy)
+                .setInBandRingtonePolicy(entity.inBandRingtoneAudioPolicy)
+                .build();
     }
 
     /**
@@ -375,6 +391,7 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
+        waitForMetadata(address);
         synchronized (mMetadataCache) {
             if (!mMetadataCache.containsKey(address)) {
                 if (newConnectionPolicy == BluetoothProfile.CONNECTION_POLICY_UNKNOWN) {
@@ -427,21 +444,19 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
-        synchronized (mMetadataCache) {
-            if (!mMetadataCache.containsKey(address)) {
-                Log.d(TAG, "getProfileConnectionPolicy: device " + device.getAnonymizedAddress()
-                        + " is not in cache");
-                return BluetoothProfile.CONNECTION_POLICY_UNKNOWN;
-            }
+        Metadata data = waitForMetadata(address);
+        if (data == null) {
+            Log.d(TAG, "getProfileConnectionPolicy: device " + device.getAnonymizedAddress()
+                    + " is not in cache");
+            return BluetoothProfile.CONNECTION_POLICY_UNKNOWN;
+        }
 
-            Metadata data = mMetadataCache.get(address);
-            int connectionPolicy = data.getProfileConnectionPolicy(profile);
+        int connectionPolicy = data.getProfileConnectionPolicy(profile);
 
-            Log.v(TAG, "getProfileConnectionPolicy: device " + device.getAnonymizedAddress()
-                    + " profile=" + BluetoothProfile.getProfileName(profile)
-                    + ", connectionPolicy=" + connectionPolicy);
-            return connectionPolicy;
-        }
+        Log.v(TAG, "getProfileConnectionPolicy: device " + device.getAnonymizedAddress()
+                + " profile=" + BluetoothProfile.getProfileName(profile)
+                + ", connectionPolicy=" + connectionPolicy);
+        return connectionPolicy;
     }
 
     /**
@@ -468,6 +483,7 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
+        waitForMetadata(address);
         synchronized (mMetadataCache) {
             if (!mMetadataCache.containsKey(address)) {
                 return;
@@ -504,15 +520,12 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
-        synchronized (mMetadataCache) {
-            if (!mMetadataCache.containsKey(address)) {
-                Log.d(TAG, "getA2dpOptionalCodec: device " + device + " is not in cache");
-                return BluetoothA2dp.OPTIONAL_CODECS_SUPPORT_UNKNOWN;
-            }
-
-            Metadata data = mMetadataCache.get(address);
-            return data.a2dpSupportsOptionalCodecs;
+        Metadata data = waitForMetadata(address);
+        if (data == null) {
+            Log.d(TAG, "getA2dpOptionalCodec: device " + device + " is not in cache");
+            return BluetoothA2dp.OPTIONAL_CODECS_SUPPORT_UNKNOWN;
         }
+        return data.a2dpSupportsOptionalCodecs;
     }
 
     /**
@@ -539,6 +552,7 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
+        waitForMetadata(address);
         synchronized (mMetadataCache) {
             if (!mMetadataCache.containsKey(address)) {
                 return;
@@ -574,15 +588,12 @@ public class DatabaseManager {
         }
         String address = device.getAddress();
 
-        synchronized (mMetadataCache) {
-            if (!mMetadataCache.containsKey(address)) {
-                Log.d(TAG, "getA2dpOptionalCodecEnabled: device " + device + " is not in cache");
-                return BluetoothA2dp.OPTIONAL_CODECS_PREF_UNKNOWN;
-            }
-
-            Metadata data = mMetadataCache.get(address);
-            return data.a2dpOptionalCodecsEnabled;
+        Metadata data = waitForMetadata(address);
+        if (data == null) {
+            Log.d(TAG, "getA2dpOptionalCodecEnabled: device " + device + " is not in cache");
+            return BluetoothA2dp.OPTIONAL_CODECS_PREF_UNKNOWN;
         }
+        return data.a2dpOptionalCodecsEnabled;
     }
 
     @GuardedBy("mMetadataCache")
@@ -602,6 +613,7 @@ public class DatabaseManager {
         synchronized (MetadataDatabase.class) {
             metadata.last_active_time = MetadataDatabase.sCurrentConnectionNumber++;
         }
+        mMetadataCache.updateLastActiveTime(metadata);
 
         // Only update is_active_a2dp_device if an a2dp device is connected
         if (isActiveA2dp) {
@@ -627,6 +639,7 @@ public class DatabaseManager {
      * @param device is the remote bluetooth device for which we are setting the connection time
      */
     public void setConnection(BluetoothDevice device) {
+        waitForConnectionMetadata(device);
         synchronized (mMetadataCache) {
             setConnection(device, false, false);
         }
@@ -642,6 +655,7 @@ public class DatabaseManager {
         boolean isA2dpDevice = profileId == BluetoothProfile.A2DP;
         boolean isHfpDevice = profileId == BluetoothProfile.HEADSET;
 
+        waitForConnectionMetadata(device);
         synchronized (mMetadataCache) {
             if (isA2dpDevice) {
                 resetActiveA2dpDevice();
@@ -683,6 +697,7 @@ public class DatabaseManager {
 
         String address = device.getAddress();
 
+        waitForMetadata(address);
         synchronized (mMetadataCache) {
             if (!mMetadataCache.containsKey(address)) {
                 return;
@@ -712,8 +727,7 @@ public class DatabaseManager {
     @GuardedBy("mMetadataCache")
     private void resetActiveA2dpDevice() {
         Log.d(TAG, "resetActiveA2dpDevice()");
-        for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-            Metadata metadata = entry.getValue();
+        for (Metadata metadata : mMetadataCache.values()) {
             if (metadata.is_active_a2dp_device) {
                 Log.d(TAG, "resetActiveA2dpDevice");
                 metadata.is_active_a2dp_device = false;
@@ -726,8 +740,7 @@ public class DatabaseManager {
     @GuardedBy("mMetadataCache")
     private void resetActiveHfpDevice() {
         Log.d(TAG, "resetActiveHfpDevice()");
-        for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-            Metadata metadata = entry.getValue();
+        for (Metadata metadata : mMetadataCache.values()) {
             if (metadata.isActiveHfpDevice) {
                 Log.d(TAG, "resetActiveHfpDevice");
                 metadata.isActiveHfpDevice = false;
@@ -745,17 +758,14 @@ public class DatabaseManager {
      */
     public List<BluetoothDevice> getMostRecentlyConnectedDevices() {
         List<BluetoothDevice> mostRecentlyConnectedDevices = new ArrayList<>();
-        synchronized (mMetadataCache) {
-            List<Metadata> sortedMetadata = new ArrayList<>(mMetadataCache.values());
-            sortedMetadata.sort((o1, o2) -> Long.compare(o2.last_active_time, o1.last_active_time));
-            for (Metadata metadata : sortedMetadata) {
-                try {
-                    mostRecentlyConnectedDevices.add(BluetoothAdapter.getDefaultAdapter()
-                            .getRemoteDevice(metadata.getAddress()));
-                } catch (IllegalArgumentException ex) {
-                    Log.d(TAG, "getBondedDevicesOrdered: Invalid address for "
-                               + "device " + metadata.getAnonymizedAddress());
-                }
+        mMetadataCache.awaitLoaded(LOAD_DATABASE_TIMEOUT);
+        for (Metadata metadata : mMetadataCache.getMostRecent()) {
+            try {
+                mostRecentlyConnectedDevices.add(BluetoothAdapter.getDefaultAdapter()
+                        .getRemoteDevice(metadata.getAddress()));
+            } catch (IllegalArgumentException ex) {
+                Log.d(TAG, "getBondedDevicesOrdered: Invalid address for "
+                           + "device " + metadata.getAnonymizedAddress());
             }
         }
         return mostRecentlyConnectedDevices;
@@ -778,15 +788,13 @@ public class DatabaseManager {
 
         BluetoothDevice mostRecentDevice = null;
         long mostRecentLastActiveTime = -1;
-        synchronized (mMetadataCache) {
-            for (BluetoothDevice device : devicesList) {
-                String address = device.getAddress();
-                Metadata metadata = mMetadataCache.get(address);
-                if (metadata != null && (mostRecentLastActiveTime == -1
-                            || mostRecentLastActiveTime < metadata.last_active_time)) {
-                    mostRecentLastActiveTime = metadata.last_active_time;
-                    mostRecentDevice = device;
-                }
+        for (BluetoothDevice device : devicesList) {
+            String address = device.getAddress();
+            Metadata metadata = waitForMetadata(address);
+            if (metadata != null && (mostRecentLastActiveTime == -1
+                        || mostRecentLastActiveTime < metadata.last_active_time)) {
+                mostRecentLastActiveTime = metadata.last_active_time;
+                mostRecentDevice = device;
             }
         }
         return mostRecentDevice;
@@ -798,9 +806,10 @@ public class DatabaseManager {
      * @return the most recently active a2dp device or null if the last a2dp device was null
      */
     public BluetoothDevice getMostRecentlyConnectedA2dpDevice() {
+        mMetadataCache.awaitRecent(LOAD_DATABASE_TIMEOUT);
+        // setConnection() resets the active device before setting the new one.
         synchronized (mMetadataCache) {
-            for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-                Metadata metadata = entry.getValue();
+            for (Metadata metadata : mMetadataCache.values()) {
                 if (metadata.is_active_a2dp_device) {
                     try {
                         return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(
@@ -821,24 +830,24 @@ public class DatabaseManager {
      * @return the most recently active HFP device or null if the last hfp device was null
      */
     public BluetoothDevice getMostRecentlyActiveHfpDevice() {
-        Map.Entry<String, Metadata> entry;
+        mMetadataCache.awaitRecent(LOAD_DATABASE_TIMEOUT);
+        Metadata metadata;
         synchronized (mMetadataCache) {
-            entry =
-                    mMetadataCache.entrySet().stream()
-                            .filter(x -> x.getValue().isActiveHfpDevice)
+            metadata =
+                    mMetadataCache.values().stream()
+                            .filter(x -> x.isActiveHfpDevice)
                             .findFirst()
                             .orElse(null);
         }
-        if (entry != null) {
+        if (metadata != null) {
             try {
-                return BluetoothAdapter.getDefaultAdapter()
-                        .getRemoteDevice(entry.getValue().getAddress());
+                return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(metadata.getAddress());
             } catch (IllegalArgumentException ex) {
                 Log.d(
                         TAG,
                         "getMostRecentlyActiveHfpDevice: Invalid address for "
                                 + "device "
-                                + entry.getValue().getAnonymizedAddress());
+                                + metadata.getAnonymizedAddress());
             }
         }
 
@@ -850,10 +859,11 @@ public class DatabaseManager {
      */
     public List<BluetoothDevice> getMostRecentlyActiveHfpDevices() {
         BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mMetadataCache.awaitRecent(LOAD_DATABASE_TIMEOUT);
         synchronized (mMetadataCache) {
-            return mMetadataCache.entrySet().stream()
-                    .filter(x -> x.getValue().isActiveHfpDevice)
-                    .map(x -> adapter.getRemoteDevice(x.getValue().getAddress()))
+            return mMetadataCache.values().stream()
+                    .filter(x -> x.isActiveHfpDevice)
+                    .map(x -> adapter.getRemoteDevice(x.getAddress()))
                     .collect(Collectors.toList());
         }
     }
@@ -862,6 +872,7 @@ public class DatabaseManager {
      *
      * @param metadataList is the list of metadata
      */
+    @GuardedBy("mMetadataCache")
     private void compactLastConnectionTime(List<Metadata> metadataList) {
         Log.d(TAG, "compactLastConnectionTime: Compacting metadata after load");
         synchronized (MetadataDatabase.class) {
@@ -874,6 +885,7 @@ public class DatabaseManager {
                             + metadata.getAnonymizedAddress() + " from " + metadata.last_active_time
                             + " to " + MetadataDatabase.sCurrentConnectionNumber);
                     metadata.last_active_time = MetadataDatabase.sCurrentConnectionNumber;
+                    mMetadataCache.updateLastActiveTime(metadata);
                     updateDatabase(metadata);
                     MetadataDatabase.sCurrentConnectionNumber++;
                 }
@@ -906,6 +918,11 @@ public class DatabaseManager {
         int duplexProfile = modeToProfileBundle.getInt(BluetoothAdapter.AUDIO_MODE_DUPLEX);
         boolean isPreferenceSet = false;
 
+        for (BluetoothDevice device : groupDevices) {
+            if (device != null) {
+                waitForMetadata(device.getAddress());
+            }
+        }
         synchronized (mMetadataCache) {
             for (BluetoothDevice device : groupDevices) {
                 if (device == null) {
@@ -985,17 +1002,15 @@ public class DatabaseManager {
         final int outputOnlyProfile;
         final int duplexProfile;
 
-        synchronized (mMetadataCache) {
-            if (!mMetadataCache.containsKey(address)) {
-                return Bundle.EMPTY;
-            }
-
-            // Gets the preferred audio profiles for each audio mode
-            Metadata metadata = mMetadataCache.get(address);
-            outputOnlyProfile = metadata.preferred_output_only_profile;
-            duplexProfile = metadata.preferred_duplex_profile;
+        Metadata metadata = waitForMetadata(address);
+        if (metadata == null) {
+            return Bundle.EMPTY;
         }
 
+        // Gets the preferred audio profiles for each audio mode
+        outputOnlyProfile = metadata.preferred_output_only_profile;
+        duplexProfile = metadata.preferred_duplex_profile;
+
         // Checks if the default values are present (aka no explicit preference)
         if (outputOnlyProfile == 0 && duplexProfile == 0) {
             return Bundle.EMPTY;
@@ -1021,6 +1036,7 @@ public class DatabaseManager {
      * @return whether the policy was set properly
      */
     public int setActiveAudioDevicePolicy(BluetoothDevice device, int activeAudioDevicePolicy) {
+        waitForMetadata(device.getAddress());
         synchronized (mMetadataCache) {
             String address = device.getAddress();
 
@@ -1052,18 +1068,12 @@ public class DatabaseManager {
      * @return active audio device policy for this device
      */
     public int getActiveAudioDevicePolicy(BluetoothDevice device) {
-        synchronized (mMetadataCache) {
-            String address = device.getAddress();
-
-            if (!mMetadataCache.containsKey(address)) {
-                Log.e(TAG, "device is not bonded");
-                return BluetoothDevice.ACTIVE_AUDIO_DEVICE_POLICY_DEFAULT;
-            }
-
-            Metadata metadata = mMetadataCache.get(address);
-
-            return metadata.active_audio_device_policy;
+        Metadata metadata = waitForMetadata(device.getAddress());
+        if (metadata == null) {
+            Log.e(TAG, "device is not bonded");
+            return BluetoothDevice.ACTIVE_AUDIO_DEVICE_POLICY_DEFAULT;
         }
+        return metadata.active_audio_device_policy;
     }
 
     /**
@@ -1129,6 +1139,8 @@ public class DatabaseManager {
         removeUnusedMetadata();
         mAdapterService.unregisterReceiver(mReceiver);
         if (mHandlerThread != null) {
+            // Don't lose the rows still waiting to be written when the handler thread quits.
+            flushPendingWrites();
             mHandlerThread.quit();
             mHandlerThread = null;
         }
@@ -1165,7 +1177,8 @@ public class DatabaseManager {
     void removeUnusedMetadata() {
         BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
         synchronized (mMetadataCache) {
-            mMetadataCache.forEach((address, metadata) -> {
+            mMetadataCache.values().forEach(metadata -> {
+                String address = metadata.getAddress();
                 if (!address.equals(LOCAL_STORAGE)
                         && !Arrays.asList(bondedDevices).stream().anyMatch(device ->
                         address.equals(device.getAddress()))) {
@@ -1181,11 +1194,57 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Loads the database into the cache in two stages, so that auto-connect doesn't wait for the
+     * whole table: first the rows it needs, see {@link MetadataDatabase#loadRecent}, then all the
+     * others. Until then, readers of a row not cached yet wait for that row only.
+     */
+    @GuardedBy("mDatabaseLock")
+    private void loadMetadata() {
+        List<Metadata> list;
+        try {
+            list = mDatabase.loadRecent(RECENT_DEVICES_LOAD_COUNT);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Unable to open database: " + e);
+            mDatabase = MetadataDatabase.createDatabaseWithoutMigration(mAdapterService);
+            list = mDatabase.loadRecent(RECENT_DEVICES_LOAD_COUNT);
+        }
+        cacheMetadata(list);
+        if (!mMigratedFromSettingsGlobal) {
+            mMetadataCache.finishLoading();
+            return;
+        }
+        if (!list.isEmpty()) {
+            // Connections made before the compaction below must still be the most recent ones.
+            synchronized (MetadataDatabase.class) {
+                MetadataDatabase.sCurrentConnectionNumber =
+                        Math.max(MetadataDatabase.sCurrentConnectionNumber,
+                                list.get(0).last_active_time + 1);
+            }
+        }
+        mRecentLoadRowCount = list.size();
+        mRecentLoadLatencyMs = SystemClock.uptimeMillis() - mLoadRequestMs;
+        mMetadataCache.finishLoadingRecent();
+
+        list = mDatabase.load();
+        for (Metadata data : list) {
+            // Rows already cached may have changed since they were loaded.
+            mMetadataCache.putLoaded(data);
+        }
+        synchronized (mMetadataCache) {
+            compactLastConnectionTime(mMetadataCache.getMostRecent());
+        }
+        mMetadataCache.finishLoading();
+        mLoadRowCount = list.size();
+        mLoadLatencyMs = SystemClock.uptimeMillis() - mLoadRequestMs;
+        Log.i(TAG, "loadMetadata: " + mRecentLoadRowCount + " recent rows in "
+                + mRecentLoadLatencyMs + "ms, " + mLoadRowCount + " rows in " + mLoadLatencyMs
+                + "ms");
+    }
+
     void cacheMetadata(List<Metadata> list) {
         synchronized (mMetadataCache) {
             Log.i(TAG, "cacheMetadata");
-            // Unlock the main thread.
-            mSemaphore.release();
 
             if (!isMigrated(list)) {
                 // Wait for data migrate from Settings Global
@@ -1387,13 +1446,26 @@ public class DatabaseManager {
 
     private void loadDatabase() {
         Log.d(TAG, "Load Database");
+        // Don't block the caller: readers wait for the rows they need while they are loaded.
+        mLoadRequestMs = SystemClock.uptimeMillis();
+        mMetadataCache.startLoading();
         Message message = mHandler.obtainMessage(MSG_LOAD_DATABASE);
         mHandler.sendMessage(message);
-        try {
-            // Lock the thread until handler thread finish loading database.
-            mSemaphore.tryAcquire(LOAD_DATABASE_TIMEOUT, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            Log.e(TAG, "loadDatabase: semaphore acquire failed");
+    }
+
+    /**
+     * Returns the cached metadata of {@code address}, waiting for it while the database is loaded.
+     * Must not be called holding mMetadataCache, which the loader needs.
+     */
+    private Metadata waitForMetadata(String address) {
+        return mMetadataCache.await(address, LOAD_DATABASE_TIMEOUT);
+    }
+
+    // The active devices are loaded first, only the row of the device may still be loading.
+    private void waitForConnectionMetadata(BluetoothDevice device) {
+        mMetadataCache.awaitRecent(LOAD_DATABASE_TIMEOUT);
+        if (device != null) {
+            waitForMetadata(device.getAddress());
         }
     }
 
@@ -1403,9 +1475,59 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        boolean scheduleFlush;
+        synchronized (mPendingWrites) {
+            scheduleFlush = mPendingWrites.isEmpty();
+            if (scheduleFlush) {
+                mFirstPendingWriteMs = SystemClock.uptimeMillis();
+            }
+            // The cache and the pending write share the row, the flush writes its latest values.
+            mPendingWrites.put(data.getAddress(), data);
+            mMaxPendingWrites = Math.max(mMaxPendingWrites, mPendingWrites.size());
+        }
+        if (scheduleFlush) {
+            Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
+            mHandler.sendMessageDelayed(message, mWriteBehindDelayMs);
+        }
+    }
+
+    /** Writes the rows changed since the last flush in a single transaction. */
+    @VisibleForTesting
+    void flushPendingWrites() {
+        synchronized (mDatabaseLock) {
+            Metadata[] rows;
+            long firstPendingWriteMs;
+            synchronized (mPendingWrites) {
+                if (mPendingWrites.isEmpty()) {
+                    return;
+                }
+                rows = mPendingWrites.values().toArray(new Metadata[0]);
+                firstPendingWriteMs = mFirstPendingWriteMs;
+                mPendingWrites.clear();
+            }
+            Log.d(TAG, "flushPendingWrites: " + rows.length + " rows");
+            mDatabase.insert(rows);
+
+            long latencyMs = SystemClock.uptimeMillis() - firstPendingWriteMs;
+            synchronized (mPendingWrites) {
+                mFlushCount++;
+                mFlushedRowCount += rows.length;
+                mTotalFlushLatencyMs += latencyMs;
+                mMaxFlushLatencyMs = Math.max(mMaxFlushLatencyMs, latencyMs);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void setWriteBehindDelayMs(int delayMs) {
+        mWriteBehindDelayMs = delayMs;
+    }
+
+    @VisibleForTesting
+    int getPendingWriteCount() {
+        synchronized (mPendingWrites) {
+            return mPendingWrites.size();
+        }
     }
 
     @VisibleForTesting
@@ -1416,6 +1538,10 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(data, "Metadata deleted");
+        synchronized (mPendingWrites) {
+            // The row must not be written again after it is deleted.
+            mPendingWrites.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
@@ -1470,17 +1596,28 @@ public class DatabaseManager {
      */
     public void dump(PrintWriter writer) {
         writer.println("\nBluetoothDatabase:");
+        synchronized (mPendingWrites) {
+            writer.println("  Write-behind: pending=" + mPendingWrites.size()
+                    + ", max pending=" + mMaxPendingWrites + ", flushes=" + mFlushCount
+                    + ", rows written=" + mFlushedRowCount
+                    + ", avg flush latency=" + (mFlushCount == 0 ? 0
+                            : mTotalFlushLatencyMs / mFlushCount) + "ms"
+                    + ", max flush latency=" + mMaxFlushLatencyMs + "ms");
+        }
+        writer.println("  Load: recent rows=" + mRecentLoadRowCount + " in "
+                + mRecentLoadLatencyMs + "ms, rows=" + mLoadRowCount + " in " + mLoadLatencyMs
+                + "ms, " + mMetadataCache.dumpLoadWaits());
         writer.println("  Metadata Changes:");
         for (String log : mMetadataChangedLog) {
             writer.println("    " + log);
         }
         writer.println("\nMetadata:");
-        for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-            if (entry.getKey().equals(LOCAL_STORAGE)) {
+        for (Metadata metadata : mMetadataCache.getMostRecent()) {
+            if (metadata.getAddress().equals(LOCAL_STORAGE)) {
                 // No need to dump local storage
                 continue;
             }
-            writer.println("    " + entry.getValue());
+            writer.println("    " + metadata);
         }
     }
 }
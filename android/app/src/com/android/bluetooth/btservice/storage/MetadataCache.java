@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.btservice.storage;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Cache of the {@link Metadata} of the devices, by address.
+ *
+ * <p>Lookups don't lock, so that the profile services reading device settings on every
+ * connection decision are not blocked by writers. Writers synchronize on the cache, as they update
+ * several fields of a {@link Metadata} at once.
+ *
+ * <p>The devices are also indexed by {@link Metadata#last_active_time}, most recent first, so
+ * that recency queries don't sort the whole cache. The index must be told about in place changes
+ * of that time with {@link #updateLastActiveTime}. Recency queries retry, then lock, if the index
+ * changed while they were iterating it.
+ *
+ * <p>While the database is being loaded, {@link #await} waits for the row of one device only, and
+ * {@link #awaitRecent} for the rows loaded first, see {@link #startLoading}.
+ *
+ * @hide
+ */
+/* package */ class MetadataCache {
+    private static final class RecencyKey implements Comparable<RecencyKey> {
+        final long mLastActiveTime;
+        final String mAddress;
+
+        RecencyKey(Metadata metadata) {
+            mLastActiveTime = metadata.last_active_time;
+            mAddress = metadata.getAddress();
+        }
+
+        @Override
+        public int compareTo(RecencyKey other) {
+            int result = Long.compare(other.mLastActiveTime, mLastActiveTime);
+            return result != 0 ? result : mAddress.compareTo(other.mAddress);
+        }
+    }
+
+    private final Map<String, Metadata> mMetadata = new ConcurrentHashMap<>();
+
+    private final NavigableSet<RecencyKey> mRecency = new ConcurrentSkipListSet<>();
+
+    @GuardedBy("this")
+    private final Map<String, RecencyKey> mRecencyKeys = new HashMap<>();
+
+    // Odd while the recency index is being changed, incremented before and after each change.
+    // Only written while synchronized on the cache.
+    private volatile int mRecencyVersion;
+    private static final int RECENCY_RETRIES = 2;
+
+    static final int LOADED = 0;
+    // The rows needed for auto-connect are being loaded.
+    static final int LOADING_RECENT = 1;
+    // The other rows are being loaded.
+    static final int LOADING_REST = 2;
+
+    // Readers wait on it while loading, and are notified of every row loaded.
+    private final Object mLoadLock = new Object();
+    private volatile int mLoadState = LOADED;
+
+    @GuardedBy("mLoadLock")
+    private long mWaitCount;
+    @GuardedBy("mLoadLock")
+    private long mWaitTimeoutCount;
+    @GuardedBy("mLoadLock")
+    private long mTotalWaitMs;
+
+    Metadata get(String address) {
+        return address == null ? null : mMetadata.get(address);
+    }
+
+    boolean containsKey(String address) {
+        return address != null && mMetadata.containsKey(address);
+    }
+
+    int size() {
+        return mMetadata.size();
+    }
+
+    /** Returns a live, unmodifiable view of the cached metadata. */
+    Collection<Metadata> values() {
+        return Collections.unmodifiableCollection(mMetadata.values());
+    }
+
+    synchronized Metadata put(String address, Metadata metadata) {
+        Metadata previous = mMetadata.put(address, metadata);
+        index(address, metadata);
+        notifyLoaded();
+        return previous;
+    }
+
+    /** Caches a loaded row, unless the device was added since the load started. */
+    synchronized void putLoaded(Metadata metadata) {
+        String address = metadata.getAddress();
+        if (mMetadata.putIfAbsent(address, metadata) == null) {
+            index(address, metadata);
+            notifyLoaded();
+        }
+    }
+
+    synchronized Metadata remove(String address) {
+        Metadata previous = mMetadata.remove(address);
+        index(address, null);
+        return previous;
+    }
+
+    synchronized void clear() {
+        mMetadata.clear();
+        mRecencyVersion++;
+        mRecency.clear();
+        mRecencyKeys.clear();
+        mRecencyVersion++;
+        setLoadState(LOADED);
+    }
+
+    /** Makes readers of the rows not cached yet wait until they are loaded, see {@link #await}. */
+    void startLoading() {
+        setLoadState(LOADING_RECENT);
+    }
+
+    /** Signals that the rows needed for auto-connect are cached. */
+    void finishLoadingRecent() {
+        if (mLoadState == LOADING_RECENT) {
+            setLoadState(LOADING_REST);
+        }
+    }
+
+    /** Signals that all the rows are cached, or that loading them failed. */
+    void finishLoading() {
+        setLoadState(LOADED);
+    }
+
+    int getLoadState() {
+        return mLoadState;
+    }
+
+    /**
+     * Returns the metadata of {@code address}, waiting up to {@code timeoutMs} for it if the
+     * database is still being loaded. Returns null if the device has no metadata.
+     */
+    Metadata await(String address, long timeoutMs) {
+        Metadata metadata = get(address);
+        if (metadata != null || mLoadState == LOADED || address == null) {
+            return metadata;
+        }
+        waitFor(() -> mMetadata.containsKey(address) || mLoadState == LOADED, timeoutMs);
+        return get(address);
+    }
+
+    /** Waits up to {@code timeoutMs} for the rows needed for auto-connect to be loaded. */
+    void awaitRecent(long timeoutMs) {
+        if (mLoadState == LOADING_RECENT) {
+            waitFor(() -> mLoadState != LOADING_RECENT, timeoutMs);
+        }
+    }
+
+    /** Waits up to {@code timeoutMs} for all the rows to be loaded. */
+    void awaitLoaded(long timeoutMs) {
+        if (mLoadState != LOADED) {
+            waitFor(() -> mLoadState == LOADED, timeoutMs);
+        }
+    }
+
+    private void waitFor(BooleanSupplier condition, long timeoutMs) {
+        long startMs = SystemClock.uptimeMillis();
+        long deadlineMs = startMs + timeoutMs;
+        synchronized (mLoadLock) {
+            mWaitCount++;
+            try {
+                long remainingMs = timeoutMs;
+                while (!condition.getAsBoolean()) {
+                    if (remainingMs <= 0) {
+                        mWaitTimeoutCount++;
+                        break;
+                    }
+                    mLoadLock.wait(remainingMs);
+                    remainingMs = deadlineMs - SystemClock.uptimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mTotalWaitMs += SystemClock.uptimeMillis() - startMs;
+            }
+        }
+    }
+
+    private void setLoadState(int state) {
+        mLoadState = state;
+        synchronized (mLoadLock) {
+            mLoadLock.notifyAll();
+        }
+    }
+
+    private void notifyLoaded() {
+        if (mLoadState != LOADED) {
+            synchronized (mLoadLock) {
+                mLoadLock.notifyAll();
+            }
+        }
+    }
+
+    /** Moves a cached device in the recency index after its last active time changed. */
+    synchronized void updateLastActiveTime(Metadata metadata) {
+        String address = metadata.getAddress();
+        if (mMetadata.get(address) == metadata) {
+            index(address, metadata);
+        }
+    }
+
+    /** Returns the cached metadata, most recently active first. */
+    List<Metadata> getMostRecent() {
+        return getMostRecent(Integer.MAX_VALUE);
+    }
+
+    /** Returns the metadata of the {@code maxCount} most recently active devices at most. */
+    List<Metadata> getMostRecent(int maxCount) {
+        for (int i = 0; i < RECENCY_RETRIES; i++) {
+            int version = mRecencyVersion;
+            if ((version & 1) != 0) {
+                continue;
+            }
+            List<Metadata> result = collectMostRecent(maxCount);
+            if (mRecencyVersion == version) {
+                return result;
+            }
+        }
+        synchronized (this) {
+            return collectMostRecent(maxCount);
+        }
+    }
+
+    private List<Metadata> collectMostRecent(int maxCount) {
+        List<Metadata> result = new ArrayList<>(Math.min(maxCount, mMetadata.size()));
+        for (RecencyKey key : mRecency) {
+            if (result.size() >= maxCount) {
+                break;
+            }
+            Metadata metadata = mMetadata.get(key.mAddress);
+            // Skip the keys of removed devices.
+            if (metadata != null) {
+                result.add(metadata);
+            }
+        }
+        return result;
+    }
+
+    String dumpLoadWaits() {
+        synchronized (mLoadLock) {
+            return "reader waits=" + mWaitCount + ", timeouts=" + mWaitTimeoutCount
+                    + ", total wait=" + mTotalWaitMs + "ms";
+        }
+    }
+
+    @GuardedBy("this")
+    private void index(String address, Metadata metadata) {
+        RecencyKey key =
+                (metadata == null || !address.equals(metadata.getAddress()))
+                        ? null
+                        : new RecencyKey(metadata);
+        RecencyKey previous = mRecencyKeys.get(address);
+        if (key != null && previous != null && key.compareTo(previous) == 0) {
+            return;
+        }
+        mRecencyVersion++;
+        // Add the new key first, so that the device is always indexed.
+        if (key != null) {
+            mRecency.add(key);
+            mRecencyKeys.put(address, key);
+        } else {
+            mRecencyKeys.remove(address);
+        }
+        if (previous != null) {
+            mRecency.remove(previous);
+        }
+        mRecencyVersion++;
+    }
+}
@@ -31,6 +31,15 @@ interface MetadataDao {
     @Query("SELECT * FROM metadata ORDER BY last_active_time DESC")
     List<Metadata> load();
 
+    /**
+     * Load the items needed for auto-connect: the {@code count} most recently active devices,
+     * the active A2DP and HFP devices, and the migration marker
+     */
+    @Query("SELECT * FROM metadata WHERE migrated OR is_active_a2dp_device OR isActiveHfpDevice"
+            + " OR address IN (SELECT address FROM metadata ORDER BY last_active_time DESC"
+            + " LIMIT :count) ORDER BY last_active_time DESC")
+    List<Metadata> loadRecent(int count);
+
     /**
      * Create or update a Metadata in the database
      */
@@ -106,6 +106,17 @@ public abstract class MetadataDatabase extends RoomDatabase {
         return mMetadataDao().load();
     }
 
+    /**
+     * Load the data needed for auto-connect from metadata table as a {@link List} of {@link
+     * Metadata}, see {@link MetadataDao#loadRecent}
+     *
+     * @param count the number of most recently active devices to load
+     * @return a {@link List} of {@link Metadata}
+     */
+    public List<Metadata> loadRecent(int count) {
+        return mMetadataDao().loadRecent(count);
+    }
+
     /**
      * Delete one of the {@link Metadata} contained in the metadata table
      *
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.AdvertiseData;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of encoded advertising payloads, so that advertising sets rotating between a few payloads
+ * don't encode them again on every update.
+ *
+ * <p>Payloads are keyed by a hash of the content of the {@link AdvertiseData}, as its own {@code
+ * hashCode} depends on the identity of its byte arrays, and confirmed with {@link
+ * AdvertiseData#equals}. The least recently used payloads are evicted first. Cached payloads are
+ * shared and must not be modified.
+ *
+ * @hide
+ */
+/* package */ class AdvertiseDataCache {
+    @VisibleForTesting static final int MAX_ENTRIES = 32;
+
+    private static final class Key {
+        final AdvertiseData mData;
+        // Only part of the key when the payload includes it.
+        final String mName;
+        final int mHash;
+
+        Key(AdvertiseData data, String name) {
+            mData = data;
+            mName = data.getIncludeDeviceName() ? name : null;
+            mHash = 31 * contentHash(data) + Objects.hashCode(mName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mHash == other.mHash
+                    && Objects.equals(mName, other.mName)
+                    && mData.equals(other.mData);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    @GuardedBy("this")
+    private final LinkedHashMap<Key, byte[]> mPayloads =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    @GuardedBy("this")
+    private long mHits;
+    @GuardedBy("this")
+    private long mMisses;
+
+    /**
+     * Returns the encoded payload of {@code data}, see {@link
+     * AdvertiseHelper#advertiseDataToBytes}.
+     *
+     * @throws IllegalArgumentException if the payload is too large
+     */
+    byte[] get(AdvertiseData data, String name) {
+        if (data == null) {
+            return new byte[0];
+        }
+        Key key = new Key(data, name);
+        synchronized (this) {
+            byte[] payload = mPayloads.get(key);
+            if (payload != null) {
+                mHits++;
+                return payload;
+            }
+            mMisses++;
+        }
+
+        byte[] payload = AdvertiseHelper.advertiseDataToBytes(data, name);
+        synchronized (this) {
+            mPayloads.put(key, payload);
+        }
+        return payload;
+    }
+
+    synchronized void clear() {
+        mPayloads.clear();
+    }
+
+    @VisibleForTesting
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Entries: " + mPayloads.size() + ", hits: " + mHits + ", misses: " + mMisses
+                + "\n");
+    }
+
+    private static int contentHash(AdvertiseData data) {
+        int hash = Objects.hash(data.getServiceUuids(), data.getServiceSolicitationUuids(),
+                data.getTransportDiscoveryData(), data.getIncludeDeviceName(),
+                data.getIncludeTxPowerLevel());
+
+        SparseArray<byte[]> manufacturerData = data.getManufacturerSpecificData();
+        if (manufacturerData != null) {
+            for (int i = 0; i < manufacturerData.size(); i++) {
+                hash = 31 * hash + manufacturerData.keyAt(i);
+                hash = 31 * hash + Arrays.hashCode(manufacturerData.valueAt(i));
+            }
+        }
+
+        Map<ParcelUuid, byte[]> serviceData = data.getServiceData();
+        if (serviceData != null) {
+            // Sum the entries, the iteration order of the map is not part of the content.
+            int serviceDataHash = 0;
+            for (Map.Entry<ParcelUuid, byte[]> entry : serviceData.entrySet()) {
+                serviceDataHash += entry.getKey().hashCode() ^ Arrays.hashCode(entry.getValue());
+            }
+            hash = 31 * hash + serviceDataHash;
+        }
+        return hash;
+    }
+}
@@ -39,6 +39,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages Bluetooth LE advertising operations and interacts with bluedroid stack. TODO: add tests.
@@ -54,8 +55,12 @@ public class AdvertiseManager {
     private final AdapterService mAdapterService;
     private final AdvertiseManagerNativeInterface mNativeInterface;
     private final AdvertiserMap mAdvertiserMap;
+    private final LeResourceRegistry mLeResources;
     private Handler mHandler;
     Map<IBinder, AdvertiserInfo> mAdvertisers = Collections.synchronizedMap(new HashMap<>());
+    // Same advertisers by id, updated together with mAdvertisers while holding its lock.
+    private final Map<Integer, AdvertiserInfo> mAdvertisersById = new ConcurrentHashMap<>();
+    private final AdvertiseDataCache mAdvertiseDataCache = new AdvertiseDataCache();
     static int sTempRegistrationId = -1;
 
     /** Constructor of {@link AdvertiseManager}. */
@@ -64,6 +69,19 @@ public class AdvertiseManager {
             AdvertiseManagerNativeInterface nativeInterface,
             AdapterService adapterService,
             AdvertiserMap advertiserMap) {
+        this(service, nativeInterface, adapterService, advertiserMap, new LeResourceRegistry());
+    }
+
+    /**
+     * Constructor of {@link AdvertiseManager}, tracking the death of the advertising apps in
+     * {@code leResources}.
+     */
+    AdvertiseManager(
+            GattService service,
+            AdvertiseManagerNativeInterface nativeInterface,
+            AdapterService adapterService,
+            AdvertiserMap advertiserMap,
+            LeResourceRegistry leResources) {
         if (DBG) {
             Log.d(TAG, "advertise manager created");
         }
@@ -71,6 +89,7 @@ public class AdvertiseManager {
         mNativeInterface = nativeInterface;
         mAdapterService = adapterService;
         mAdvertiserMap = advertiserMap;
+        mLeResources = leResources;
 
         // Start a HandlerThread that handles advertising operations
         mNativeInterface.init(this);
@@ -84,7 +103,11 @@ public class AdvertiseManager {
             Log.d(TAG, "cleanup()");
         }
         mNativeInterface.cleanup();
-        mAdvertisers.clear();
+        synchronized (mAdvertisers) {
+            mAdvertisers.clear();
+            mAdvertisersById.clear();
+        }
+        mAdvertiseDataCache.clear();
         sTempRegistrationId = -1;
 
         if (mHandler != null) {
@@ -137,15 +160,8 @@ public class AdvertiseManager {
         }
     }
 
-    Map.Entry<IBinder, AdvertiserInfo> findAdvertiser(int advertiserId) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = null;
-        for (Map.Entry<IBinder, AdvertiserInfo> e : mAdvertisers.entrySet()) {
-            if (e.getValue().id == advertiserId) {
-                entry = e;
-                break;
-            }
-        }
-        return entry;
+    AdvertiserInfo findAdvertiser(int advertiserId) {
+        return mAdvertisersById.get(advertiserId);
     }
 
     void onAdvertisingSetStarted(int regId, int advertiserId, int txPower, int status)
@@ -156,7 +172,22 @@ public class AdvertiseManager {
                             + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(regId);
+        AdvertiserInfo entry;
+        IBinder binder = null;
+        synchronized (mAdvertisers) {
+            entry = mAdvertisersById.remove(regId);
+            if (entry != null) {
+                binder = toBinder(entry.callback);
+                if (status == 0) {
+                    entry.id = advertiserId;
+                    mAdvertisersById.put(advertiserId, entry);
+                    mLeResources.updateId(
+                            LeResourceRegistry.TYPE_ADVERTISER, regId, advertiserId);
+                } else {
+                    mAdvertisers.remove(binder);
+                }
+            }
+        }
 
         if (entry == null) {
             Log.i(TAG, "onAdvertisingSetStarted() - no callback found for regId " + regId);
@@ -165,16 +196,11 @@ public class AdvertiseManager {
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         if (status == 0) {
-            entry.setValue(
-                    new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient, callback));
-
             mAdvertiserMap.setAdvertiserIdByRegId(regId, advertiserId);
         } else {
-            IBinder binder = entry.getKey();
-            binder.unlinkToDeath(entry.getValue().deathRecipient, 0);
-            mAdvertisers.remove(binder);
+            mLeResources.unregister(LeResourceRegistry.TYPE_ADVERTISER, regId);
 
             AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(regId);
             if (stats != null) {
@@ -194,14 +220,14 @@ public class AdvertiseManager {
                     + enable + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onAdvertisingSetEnable() - no callback found for advertiserId "
                     + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onAdvertisingEnabled(advertiserId, enable, status);
 
         if (!enable && status != 0) {
@@ -242,22 +268,24 @@ public class AdvertiseManager {
         AdvertisingSetDeathRecipient deathRecipient =
                 new AdvertisingSetDeathRecipient(callback, packageName);
         IBinder binder = toBinder(callback);
-        try {
-            binder.linkToDeath(deathRecipient, 0);
-        } catch (RemoteException e) {
+        int cbId = --sTempRegistrationId;
+        if (!mLeResources.register(LeResourceRegistry.TYPE_ADVERTISER, cbId, appUid,
+                packageName, binder, deathRecipient::binderDied)) {
             throw new IllegalArgumentException("Can't link to advertiser's death");
         }
 
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            byte[] advDataBytes = AdvertiseHelper.advertiseDataToBytes(advertiseData, deviceName);
-            byte[] scanResponseBytes =
-                    AdvertiseHelper.advertiseDataToBytes(scanResponse, deviceName);
+            byte[] advDataBytes = mAdvertiseDataCache.get(advertiseData, deviceName);
+            byte[] scanResponseBytes = mAdvertiseDataCache.get(scanResponse, deviceName);
             byte[] periodicDataBytes =
                     AdvertiseHelper.advertiseDataToBytes(periodicData, deviceName);
 
-            int cbId = --sTempRegistrationId;
-            mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
+            AdvertiserInfo info = new AdvertiserInfo(cbId, deathRecipient, callback);
+            synchronized (mAdvertisers) {
+                mAdvertisers.put(binder, info);
+                mAdvertisersById.put(cbId, info);
+            }
 
             if (DBG) {
                 Log.d(TAG, "startAdvertisingSet() - reg_id=" + cbId + ", callback: " + binder);
@@ -280,7 +308,7 @@ public class AdvertiseManager {
 
         } catch (IllegalArgumentException e) {
             try {
-                binder.unlinkToDeath(deathRecipient, 0);
+                mLeResources.unregister(LeResourceRegistry.TYPE_ADVERTISER, cbId);
                 IBinder gattBinder = mService.getBinder();
                 callback.onAdvertisingSetStarted(
                         gattBinder, 0x00, 0x00, AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
@@ -296,18 +324,18 @@ public class AdvertiseManager {
             Log.d(TAG, "onOwnAddressRead() advertiserId=" + advertiserId);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "onOwnAddressRead() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onOwnAddressRead(advertiserId, addressType, address);
     }
 
     void getOwnAddress(int advertiserId) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "getOwnAddress() - bad advertiserId " + advertiserId);
             return;
@@ -321,14 +349,20 @@ public class AdvertiseManager {
             Log.d(TAG, "stopAdvertisingSet() " + binder);
         }
 
-        AdvertiserInfo adv = mAdvertisers.remove(binder);
+        AdvertiserInfo adv;
+        synchronized (mAdvertisers) {
+            adv = mAdvertisers.remove(binder);
+            if (adv != null) {
+                mAdvertisersById.remove(adv.id);
+            }
+        }
         if (adv == null) {
             Log.e(TAG, "stopAdvertisingSet() - no client found for callback");
             return;
         }
 
         Integer advertiserId = adv.id;
-        binder.unlinkToDeath(adv.deathRecipient, 0);
+        mLeResources.unregister(LeResourceRegistry.TYPE_ADVERTISER, advertiserId);
 
         if (advertiserId < 0) {
             Log.i(TAG, "stopAdvertisingSet() - advertiser not finished registration yet");
@@ -348,7 +382,7 @@ public class AdvertiseManager {
     }
 
     void enableAdvertisingSet(int advertiserId, boolean enable, int duration, int maxExtAdvEvents) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "enableAdvertisingSet() - bad advertiserId " + advertiserId);
             return;
@@ -360,7 +394,7 @@ public class AdvertiseManager {
     }
 
     void setAdvertisingData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "setAdvertisingData() - bad advertiserId " + advertiserId);
             return;
@@ -368,7 +402,7 @@ public class AdvertiseManager {
         String deviceName = AdapterService.getAdapterService().getName();
         try {
             mNativeInterface.setAdvertisingData(
-                    advertiserId, AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+                    advertiserId, mAdvertiseDataCache.get(data, deviceName));
 
             mAdvertiserMap.setAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
@@ -382,7 +416,7 @@ public class AdvertiseManager {
     }
 
     void setScanResponseData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "setScanResponseData() - bad advertiserId " + advertiserId);
             return;
@@ -390,7 +424,7 @@ public class AdvertiseManager {
         String deviceName = AdapterService.getAdapterService().getName();
         try {
             mNativeInterface.setScanResponseData(
-                    advertiserId, AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+                    advertiserId, mAdvertiseDataCache.get(data, deviceName));
 
             mAdvertiserMap.setScanResponseData(advertiserId, data);
         } catch (IllegalArgumentException e) {
@@ -403,8 +437,74 @@ public class AdvertiseManager {
         }
     }
 
+    /**
+     * Updates the advertising data and scan response of several advertising sets in one call. A
+     * null data leaves the corresponding payload of the set unchanged. Every payload is encoded
+     * before any set is updated; the sets with a payload that is too large are reported as failed
+     * and left unchanged.
+     */
+    void setAdvertisingDataBulk(int[] advertiserIds, AdvertiseData[] advertiseData,
+            AdvertiseData[] scanResponses) {
+        if (advertiserIds.length != advertiseData.length
+                || advertiserIds.length != scanResponses.length) {
+            throw new IllegalArgumentException("advertiserIds and data lengths differ");
+        }
+        String deviceName = AdapterService.getAdapterService().getName();
+        byte[][] advDataBytes = new byte[advertiserIds.length][];
+        byte[][] scanResponseBytes = new byte[advertiserIds.length][];
+        boolean[] tooLarge = new boolean[advertiserIds.length];
+        for (int i = 0; i < advertiserIds.length; i++) {
+            try {
+                if (advertiseData[i] != null) {
+                    advDataBytes[i] = mAdvertiseDataCache.get(advertiseData[i], deviceName);
+                }
+                if (scanResponses[i] != null) {
+                    scanResponseBytes[i] = mAdvertiseDataCache.get(scanResponses[i], deviceName);
+                }
+            } catch (IllegalArgumentException e) {
+                tooLarge[i] = true;
+            }
+        }
+
+        for (int i = 0; i < advertiserIds.length; i++) {
+            int advertiserId = advertiserIds[i];
+            if (findAdvertiser(advertiserId) == null) {
+                Log.w(TAG, "setAdvertisingDataBulk() - bad advertiserId " + advertiserId);
+                continue;
+            }
+            if (tooLarge[i]) {
+                try {
+                    if (advertiseData[i] != null) {
+                        onAdvertisingDataSet(advertiserId,
+                                AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+                    }
+                    if (scanResponses[i] != null) {
+                        onScanResponseDataSet(advertiserId,
+                                AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+                    }
+                } catch (Exception exception) {
+                    Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
+                }
+                continue;
+            }
+            if (advDataBytes[i] != null) {
+                mNativeInterface.setAdvertisingData(advertiserId, advDataBytes[i]);
+                mAdvertiserMap.setAdvertisingData(advertiserId, advertiseData[i]);
+            }
+            if (scanResponseBytes[i] != null) {
+                mNativeInterface.setScanResponseData(advertiserId, scanResponseBytes[i]);
+                mAdvertiserMap.setScanResponseData(advertiserId, scanResponses[i]);
+            }
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        sb.append("  Advertisers: " + mAdvertisersById.size() + "\n");
+        mAdvertiseDataCache.dump(sb);
+    }
+
     void setAdvertisingParameters(int advertiserId, AdvertisingSetParameters parameters) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "setAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
@@ -416,7 +516,7 @@ public class AdvertiseManager {
 
     void setPeriodicAdvertisingParameters(int advertiserId,
             PeriodicAdvertisingParameters parameters) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "setPeriodicAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
@@ -427,7 +527,7 @@ public class AdvertiseManager {
     }
 
     void setPeriodicAdvertisingData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "setPeriodicAdvertisingData() - bad advertiserId " + advertiserId);
             return;
@@ -449,7 +549,7 @@ public class AdvertiseManager {
     }
 
     void setPeriodicAdvertisingEnable(int advertiserId, boolean enable) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.w(TAG, "setPeriodicAdvertisingEnable() - bad advertiserId " + advertiserId);
             return;
@@ -463,13 +563,13 @@ public class AdvertiseManager {
                     "onAdvertisingDataSet() advertiserId=" + advertiserId + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onAdvertisingDataSet(advertiserId, status);
     }
 
@@ -479,13 +579,13 @@ public class AdvertiseManager {
                     "onScanResponseDataSet() advertiserId=" + advertiserId + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onScanResponseDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onScanResponseDataSet(advertiserId, status);
     }
 
@@ -497,13 +597,13 @@ public class AdvertiseManager {
                             + txPower + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onAdvertisingParametersUpdated() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onAdvertisingParametersUpdated(advertiserId, txPower, status);
     }
 
@@ -513,14 +613,14 @@ public class AdvertiseManager {
                     + ", status=" + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG,
                     "onPeriodicAdvertisingParametersUpdated() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onPeriodicAdvertisingParametersUpdated(advertiserId, status);
     }
 
@@ -530,13 +630,13 @@ public class AdvertiseManager {
                     + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onPeriodicAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onPeriodicAdvertisingDataSet(advertiserId, status);
     }
 
@@ -547,13 +647,13 @@ public class AdvertiseManager {
                     + status);
         }
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        AdvertiserInfo entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onAdvertisingSetEnable() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = entry.callback;
         callback.onPeriodicAdvertisingEnabled(advertiserId, enable, status);
 
         AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
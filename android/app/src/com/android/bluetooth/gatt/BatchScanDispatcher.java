@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanResult;
+
+import com.android.bluetooth.le_scan.ScanClient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Splits the results of a batch scan flush between the full batch scan clients.
+ *
+ * <p>Permissions and filters of all clients are evaluated in a single pass over the decoded
+ * results, so each result is matched once against a {@link ScanFilterIndex} rather than once per
+ * client, and every client ends up with exactly one list to deliver.
+ *
+ * @hide
+ */
+/* package */ class BatchScanDispatcher {
+    /** Per client delivery state for one flush. */
+    private static class Delivery {
+        final ScanClient client;
+        final boolean hasPermission;
+        // Upper-case addresses of the associated devices, only used without scan permission.
+        final Set<String> associatedDevices;
+        final ArrayList<ScanResult> results = new ArrayList<>();
+        boolean hasPermittedResult;
+
+        Delivery(ScanClient client, boolean hasPermission) {
+            this.client = client;
+            this.hasPermission = hasPermission;
+            if (hasPermission || client.associatedDevices == null) {
+                associatedDevices = null;
+            } else {
+                associatedDevices = new HashSet<>();
+                for (String address : client.associatedDevices) {
+                    associatedDevices.add(address.toUpperCase(Locale.ROOT));
+                }
+            }
+        }
+
+        boolean isPermitted(String address) {
+            return hasPermission
+                    || (associatedDevices != null
+                            && associatedDevices.contains(address.toUpperCase(Locale.ROOT)));
+        }
+    }
+
+    private BatchScanDispatcher() {}
+
+    /**
+     * Returns, for every client that should receive this flush, the results it is allowed to see
+     * and that match its filters.
+     *
+     * <p>A client without scan result permission only sees results from its associated devices
+     * and is left out entirely when none of the results come from one of them.
+     *
+     * @param clients the full batch scan clients with a registered app
+     * @param results the decoded batch scan results
+     * @param hasScanResultPermission whether a client may see results from any device
+     */
+    static Map<ScanClient, ArrayList<ScanResult>> dispatch(Collection<ScanClient> clients,
+            Collection<ScanResult> results, Predicate<ScanClient> hasScanResultPermission) {
+        List<Delivery> deliveries = new ArrayList<>(clients.size());
+        List<ScanClient> indexedClients = new ArrayList<>(clients.size());
+        for (ScanClient client : clients) {
+            boolean hasPermission = hasScanResultPermission.test(client);
+            if (!hasPermission
+                    && (client.associatedDevices == null || client.associatedDevices.isEmpty())) {
+                continue;
+            }
+            deliveries.add(new Delivery(client, hasPermission));
+            indexedClients.add(client);
+        }
+
+        Map<ScanClient, ArrayList<ScanResult>> dispatched = new HashMap<>();
+        if (deliveries.isEmpty()) {
+            return dispatched;
+        }
+
+        ScanFilterIndex filterIndex = ScanFilterIndex.build(0, indexedClients);
+        for (ScanResult result : results) {
+            Set<Integer> matches = null;
+            String address = result.getDevice().getAddress();
+            for (Delivery delivery : deliveries) {
+                if (!delivery.isPermitted(address)) {
+                    continue;
+                }
+                delivery.hasPermittedResult = true;
+                if (matches == null) {
+                    matches = filterIndex.match(result, null);
+                }
+                if (matches.contains(delivery.client.scannerId)) {
+                    delivery.results.add(result);
+                }
+            }
+        }
+
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasPermission || delivery.hasPermittedResult) {
+                dispatched.put(delivery.client, delivery.results);
+            }
+        }
+        return dispatched;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+
+import com.android.bluetooth.PackedAddress;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the batch scan reports delivered by the controller into {@link ScanResult}s.
+ *
+ * <p>The decoder walks the report in place with a cursor. The only per-record allocations are the
+ * address string, the {@link BluetoothDevice}, the scan record bytes (built with a single copy
+ * from the advertisement and scan response) and the resulting {@link ScanResult}.
+ *
+ * @hide
+ */
+/* package */ class BatchScanReportDecoder {
+    // Size of a truncated record: address (6), address type, tx power, rssi, timestamp (2).
+    static final int TRUNCATED_RESULT_SIZE = 11;
+
+    private static final int ADDRESS_LENGTH = 6;
+    private static final int RSSI_OFFSET = 8;
+    private static final int TIMESTAMP_OFFSET = 9;
+    // Timestamps are reported in units of 50 ms.
+    private static final long TIMESTAMP_UNIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private BatchScanReportDecoder() {}
+
+    /** Decodes {@code numRecords} truncated records received at {@code nowNanos}. */
+    static Set<ScanResult> decodeTruncated(int numRecords, byte[] batchRecord, long nowNanos) {
+        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
+        // Truncated records carry no advertising data. Each result still gets its own record, as
+        // results are compared by record and identical ones must not be collapsed in the set.
+        byte[] emptyBytes = new byte[0];
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        for (int i = 0; i < numRecords; ++i) {
+            int position = i * TRUNCATED_RESULT_SIZE;
+            BluetoothDevice device =
+                    adapter.getRemoteDevice(formatReversedAddress(batchRecord, position));
+            int rssi = batchRecord[position + RSSI_OFFSET];
+            long timestampNanos =
+                    nowNanos - parseTimestampNanos(batchRecord, position + TIMESTAMP_OFFSET);
+            results.add(new ScanResult(device, ScanRecord.parseFromBytesLazily(emptyBytes), rssi,
+                    timestampNanos));
+        }
+        return results;
+    }
+
+    /** Decodes the full records in {@code batchRecord} received at {@code nowNanos}. */
+    static Set<ScanResult> decodeFull(int numRecords, byte[] batchRecord, long nowNanos) {
+        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        int position = 0;
+        while (position < batchRecord.length) {
+            BluetoothDevice device =
+                    adapter.getRemoteDevice(formatReversedAddress(batchRecord, position));
+            position += ADDRESS_LENGTH;
+            // Skip address type.
+            position++;
+            // Skip tx power level.
+            position++;
+            int rssi = batchRecord[position++];
+            long timestampNanos = nowNanos - parseTimestampNanos(batchRecord, position);
+            position += 2;
+
+            // Combine advertise packet and scan response packet.
+            int advertisePacketLen = batchRecord[position++];
+            int advertisePosition = position;
+            position += advertisePacketLen;
+            int scanResponsePacketLen = batchRecord[position++];
+            int scanResponsePosition = position;
+            position += scanResponsePacketLen;
+            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
+            System.arraycopy(batchRecord, advertisePosition, scanRecord, 0, advertisePacketLen);
+            System.arraycopy(batchRecord, scanResponsePosition, scanRecord, advertisePacketLen,
+                    scanResponsePacketLen);
+            results.add(new ScanResult(device, ScanRecord.parseFromBytesLazily(scanRecord), rssi,
+                    timestampNanos));
+        }
+        return results;
+    }
+
+    /** Returns the little endian 2 byte timestamp at {@code offset} in nanoseconds. */
+    static long parseTimestampNanos(byte[] data, int offset) {
+        int timestampUnit = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+        return timestampUnit * TIMESTAMP_UNIT_NANOS;
+    }
+
+    /**
+     * Formats the little endian address at {@code offset} as a "XX:XX:XX:XX:XX:XX" string.
+     */
+    static String formatReversedAddress(byte[] data, int offset) {
+        return PackedAddress.toString(PackedAddress.fromReversedBytes(data, offset));
+    }
+}
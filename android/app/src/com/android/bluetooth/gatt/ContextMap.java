@@ -35,6 +35,7 @@ import com.android.internal.annotations.GuardedBy;
 
 import com.google.common.collect.EvictingQueue;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -44,6 +45,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Helper class that keeps track of registered GATT applications.
@@ -83,6 +85,9 @@ public class ContextMap<C, T> {
         /** The package name of the application */
         public String name;
 
+        /** The UID of the application */
+        int mAppUid;
+
         /** Statistics for this app */
         public AppScanStats appScanStats;
 
@@ -123,7 +128,16 @@ public class ContextMap<C, T> {
         public List<String> mAssociatedDevices;
 
         /** Internal callback info queue, waiting to be send on congestion clear */
-        private List<CallbackInfo> mCongestionQueue = new ArrayList<CallbackInfo>();
+        @GuardedBy("mCongestionQueue")
+        private final ArrayDeque<CallbackInfo> mCongestionQueue = new ArrayDeque<>();
+
+        /** Largest number of callbacks queued at once */
+        @GuardedBy("mCongestionQueue")
+        private int mCongestionQueueHighWatermark;
+
+        /** Number of callbacks delivered ahead of congestion clear because the queue was full */
+        @GuardedBy("mCongestionQueue")
+        private long mCongestionQueueOverflows;
 
         /**
          * Creates a new app context.
@@ -145,6 +159,17 @@ public class ContextMap<C, T> {
             this.name = name;
         }
 
+        /**
+         * Set the id assigned to the application once it is registered.
+         */
+        void setId(int id) {
+            synchronized (mAppsLock) {
+                mAppsById.remove(this.id, this);
+                this.id = id;
+                mAppsById.put(id, this);
+            }
+        }
+
         /**
          * Link death recipient
          */
@@ -153,6 +178,12 @@ public class ContextMap<C, T> {
             if (callback == null) {
                 return;
             }
+            if (mResourceRegistry != null) {
+                IBinder binder = ((IInterface) callback).asBinder();
+                mResourceRegistry.register(
+                        mResourceType, id, mAppUid, name, binder, deathRecipient::binderDied);
+                return;
+            }
             try {
                 IBinder binder = ((IInterface) callback).asBinder();
                 binder.linkToDeath(deathRecipient, 0);
@@ -166,6 +197,9 @@ public class ContextMap<C, T> {
          * Unlink death recipient
          */
         void unlinkToDeath() {
+            if (mResourceRegistry != null) {
+                mResourceRegistry.unregister(mResourceType, id);
+            }
             if (mDeathRecipient != null) {
                 try {
                     IBinder binder = ((IInterface) callback).asBinder();
@@ -176,15 +210,62 @@ public class ContextMap<C, T> {
             }
         }
 
-        void queueCallback(CallbackInfo callbackInfo) {
-            mCongestionQueue.add(callbackInfo);
+        /**
+         * Queues a callback until congestion clears.
+         *
+         * @return the oldest queued callback if the queue was full, which the caller must deliver
+         *     right away so that it isn't lost, or null
+         */
+        CallbackInfo queueCallback(CallbackInfo callbackInfo) {
+            synchronized (mCongestionQueue) {
+                CallbackInfo overflow = null;
+                if (mCongestionQueue.size() >= CONGESTION_QUEUE_CAPACITY) {
+                    overflow = mCongestionQueue.pollFirst();
+                    mCongestionQueueOverflows++;
+                }
+                mCongestionQueue.addLast(callbackInfo);
+                mCongestionQueueHighWatermark =
+                        Math.max(mCongestionQueueHighWatermark, mCongestionQueue.size());
+                return overflow;
+            }
+        }
+
+        /**
+         * Removes the oldest queued callbacks, at most {@link #CONGESTION_DRAIN_BATCH_SIZE} of
+         * them, in the order they were queued.
+         */
+        List<CallbackInfo> drainQueuedCallbacks() {
+            synchronized (mCongestionQueue) {
+                int count = Math.min(mCongestionQueue.size(), CONGESTION_DRAIN_BATCH_SIZE);
+                List<CallbackInfo> callbacks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    callbacks.add(mCongestionQueue.pollFirst());
+                }
+                return callbacks;
+            }
+        }
+
+        int getQueuedCallbackCount() {
+            synchronized (mCongestionQueue) {
+                return mCongestionQueue.size();
+            }
         }
 
-        CallbackInfo popQueuedCallback() {
-            if (mCongestionQueue.size() == 0) {
-                return null;
+        long getCongestionQueueOverflowCount() {
+            synchronized (mCongestionQueue) {
+                return mCongestionQueueOverflows;
+            }
+        }
+
+        void dumpCongestionQueue(StringBuilder sb) {
+            synchronized (mCongestionQueue) {
+                if (mCongestionQueueHighWatermark == 0) {
+                    return;
+                }
+                sb.append("  Congestion queue of " + name + " (id " + id + "): queued="
+                        + mCongestionQueue.size() + ", max=" + mCongestionQueueHighWatermark
+                        + ", overflows=" + mCongestionQueueOverflows + "\n");
             }
-            return mCongestionQueue.remove(0);
         }
     }
 
@@ -193,6 +274,15 @@ public class ContextMap<C, T> {
     @GuardedBy("mAppsLock")
     private List<App> mApps = new ArrayList<App>();
 
+    // Indexes of mApps, only modified while holding mAppsLock so that lookups from the callback
+    // path don't need to take it.
+    private final Map<Integer, App> mAppsById = new ConcurrentHashMap<>();
+    private final Map<UUID, App> mAppsByUuid = new ConcurrentHashMap<>();
+
+    // Registry tracking the death of the applications, if set.
+    private LeResourceRegistry mResourceRegistry;
+    private int mResourceType;
+
     /** Internal map to keep track of logging information by app name */
     private HashMap<Integer, AppScanStats> mAppScanStats = new HashMap<Integer, AppScanStats>();
 
@@ -202,13 +292,37 @@ public class ContextMap<C, T> {
 
     private static final int ADVERTISE_STATE_MAX_SIZE = 5;
 
+    /** Maximum number of callbacks an app holds back while its transport is congested */
+    @VisibleForTesting static final int CONGESTION_QUEUE_CAPACITY = 1024;
+
+    /** Number of queued callbacks delivered at once when congestion clears */
+    @VisibleForTesting static final int CONGESTION_DRAIN_BATCH_SIZE = 64;
+
     private final EvictingQueue<AppAdvertiseStats> mLastAdvertises =
             EvictingQueue.create(ADVERTISE_STATE_MAX_SIZE);
 
-    /** Internal list of connected devices **/
-    private Set<Connection> mConnections = new HashSet<Connection>();
+    /** Internal list of connected devices, by connection ID **/
+    private final Map<Integer, Connection> mConnections = new ConcurrentHashMap<>();
+
+    /**
+     * Connections of each application ID, by connection ID. An app can be connected to a device
+     * more than once, over each transport.
+     **/
+    private final Map<Integer, Map<Integer, Connection>> mConnectionsByAppId =
+            new ConcurrentHashMap<>();
+
+    // Serializes updates of the connection indexes, lookups don't take it.
     private final Object mConnectionsLock = new Object();
 
+    /**
+     * Tracks the death of the applications in {@code registry}, as resources of {@code type} of
+     * {@link LeResourceRegistry}, instead of linking to their binders directly.
+     */
+    void setResourceRegistry(LeResourceRegistry registry, int type) {
+        mResourceRegistry = registry;
+        mResourceType = type;
+    }
+
     /** Add an entry to the application context list. */
     protected App add(
             UUID uuid,
@@ -236,7 +350,11 @@ public class ContextMap<C, T> {
                 mAppScanStats.put(appUid, appScanStats);
             }
             App app = new App(uuid, callback, (T) piInfo, appName, appScanStats);
+            app.mAppUid = appUid;
             mApps.add(app);
+            if (uuid != null) {
+                mAppsByUuid.put(uuid, app);
+            }
             appScanStats.isRegistered = true;
             return app;
         }
@@ -264,7 +382,9 @@ public class ContextMap<C, T> {
             App app = getById(appUid);
             if (app == null) {
                 app = new App(appUid, callback, appName);
+                app.mAppUid = appUid;
                 mApps.add(app);
+                mAppsById.put(appUid, app);
             }
             return app;
         }
@@ -275,15 +395,11 @@ public class ContextMap<C, T> {
      */
     void remove(UUID uuid) {
         synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.uuid.equals(uuid)) {
-                    entry.unlinkToDeath();
-                    entry.appScanStats.isRegistered = false;
-                    i.remove();
-                    break;
-                }
+            App entry = (uuid == null) ? null : mAppsByUuid.get(uuid);
+            if (entry != null) {
+                entry.unlinkToDeath();
+                entry.appScanStats.isRegistered = false;
+                removeApp(entry);
             }
         }
     }
@@ -294,16 +410,12 @@ public class ContextMap<C, T> {
     protected void remove(int id) {
         boolean find = false;
         synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.id == id) {
-                    find = true;
-                    entry.unlinkToDeath();
-                    entry.appScanStats.isRegistered = false;
-                    i.remove();
-                    break;
-                }
+            App entry = findById(id);
+            if (entry != null) {
+                find = true;
+                entry.unlinkToDeath();
+                entry.appScanStats.isRegistered = false;
+                removeApp(entry);
             }
         }
         if (find) {
@@ -311,6 +423,15 @@ public class ContextMap<C, T> {
         }
     }
 
+    @GuardedBy("mAppsLock")
+    private void removeApp(App entry) {
+        mApps.remove(entry);
+        mAppsById.remove(entry.id, entry);
+        if (entry.uuid != null) {
+            mAppsByUuid.remove(entry.uuid, entry);
+        }
+    }
+
     protected List<Integer> getAllAppsIds() {
         List<Integer> appIds = new ArrayList();
         synchronized (mAppsLock) {
@@ -330,7 +451,13 @@ public class ContextMap<C, T> {
         synchronized (mConnectionsLock) {
             App entry = getById(id);
             if (entry != null) {
-                mConnections.add(new Connection(connId, address, id));
+                Connection connection = new Connection(connId, address, id);
+                Connection previous = mConnections.put(connId, connection);
+                if (previous != null) {
+                    removeFromAppIndex(previous);
+                }
+                mConnectionsByAppId.computeIfAbsent(id, k -> new ConcurrentHashMap<>())
+                        .put(connId, connection);
             }
         }
     }
@@ -340,13 +467,9 @@ public class ContextMap<C, T> {
      */
     void removeConnection(int id, int connId) {
         synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    i.remove();
-                    break;
-                }
+            Connection connection = mConnections.remove(connId);
+            if (connection != null) {
+                removeFromAppIndex(connection);
             }
         }
     }
@@ -356,30 +479,53 @@ public class ContextMap<C, T> {
      */
     void removeConnectionsByAppId(int appId) {
         synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.appId == appId) {
-                    i.remove();
+            Map<Integer, Connection> connections = mConnectionsByAppId.remove(appId);
+            if (connections != null) {
+                for (Connection connection : connections.values()) {
+                    mConnections.remove(connection.connId, connection);
                 }
             }
         }
     }
 
+    @GuardedBy("mConnectionsLock")
+    private void removeFromAppIndex(Connection connection) {
+        Map<Integer, Connection> connections = mConnectionsByAppId.get(connection.appId);
+        if (connections == null) {
+            return;
+        }
+        connections.remove(connection.connId, connection);
+        if (connections.isEmpty()) {
+            mConnectionsByAppId.remove(connection.appId);
+        }
+    }
+
     /**
      * Get an application context by ID.
      */
     protected App getById(int id) {
+        App entry = findById(id);
+        if (entry == null) {
+            Log.e(TAG, "Context not found for ID " + id);
+        }
+        return entry;
+    }
+
+    private App findById(int id) {
+        App entry = mAppsById.get(id);
+        if (entry != null && entry.id == id) {
+            return entry;
+        }
+        // Not indexed, e.g. the id was assigned without setId(). Fall back to a search.
         synchronized (mAppsLock) {
             Iterator<App> i = mApps.iterator();
             while (i.hasNext()) {
-                App entry = i.next();
+                entry = i.next();
                 if (entry.id == id) {
                     return entry;
                 }
             }
         }
-        Log.e(TAG, "Context not found for ID " + id);
         return null;
     }
 
@@ -387,13 +533,10 @@ public class ContextMap<C, T> {
      * Get an application context by UUID.
      */
     protected App getByUuid(UUID uuid) {
-        synchronized (mAppsLock) {
-            Iterator<App> i = mApps.iterator();
-            while (i.hasNext()) {
-                App entry = i.next();
-                if (entry.uuid.equals(uuid)) {
-                    return entry;
-                }
+        if (uuid != null) {
+            App entry = mAppsByUuid.get(uuid);
+            if (entry != null) {
+                return entry;
             }
         }
         Log.e(TAG, "Context not found for UUID " + uuid);
@@ -589,12 +732,8 @@ public class ContextMap<C, T> {
      */
     Set<String> getConnectedDevices() {
         Set<String> addresses = new HashSet<String>();
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                addresses.add(connection.address);
-            }
+        for (Connection connection : mConnections.values()) {
+            addresses.add(connection.address);
         }
         return addresses;
     }
@@ -603,19 +742,9 @@ public class ContextMap<C, T> {
      * Get an application context by a connection ID.
      */
     App getByConnId(int connId) {
-        int appId = -1;
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> ii = mConnections.iterator();
-            while (ii.hasNext()) {
-                Connection connection = ii.next();
-                if (connection.connId == connId) {
-                    appId = connection.appId;
-                    break;
-                }
-            }
-        }
-        if (appId >= 0) {
-            return getById(appId);
+        Connection connection = mConnections.get(connId);
+        if (connection != null && connection.appId >= 0) {
+            return getById(connection.appId);
         }
         return null;
     }
@@ -625,16 +754,16 @@ public class ContextMap<C, T> {
      */
     Integer connIdByAddress(int id, String address) {
         App entry = getById(id);
-        if (entry == null) {
+        if (entry == null || address == null) {
             return null;
         }
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.address.equalsIgnoreCase(address) && connection.appId == id) {
-                    return connection.connId;
-                }
+        Map<Integer, Connection> connections = mConnectionsByAppId.get(id);
+        if (connections == null) {
+            return null;
+        }
+        for (Connection connection : connections.values()) {
+            if (address.equalsIgnoreCase(connection.address)) {
+                return connection.connId;
             }
         }
         return null;
@@ -644,30 +773,16 @@ public class ContextMap<C, T> {
      * Returns the device address for a given connection ID.
      */
     String addressByConnId(int connId) {
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    return connection.address;
-                }
-            }
-        }
-        return null;
+        Connection connection = mConnections.get(connId);
+        return connection == null ? null : connection.address;
     }
 
     public List<Connection> getConnectionByApp(int appId) {
-        List<Connection> currentConnections = new ArrayList<Connection>();
-        synchronized (mConnectionsLock) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.appId == appId) {
-                    currentConnections.add(connection);
-                }
-            }
+        Map<Integer, Connection> connections = mConnectionsByAppId.get(appId);
+        if (connections == null) {
+            return new ArrayList<Connection>();
         }
-        return currentConnections;
+        return new ArrayList<Connection>(connections.values());
     }
 
     /**
@@ -684,10 +799,13 @@ public class ContextMap<C, T> {
                 }
                 i.remove();
             }
+            mAppsById.clear();
+            mAppsByUuid.clear();
         }
 
         synchronized (mConnectionsLock) {
             mConnections.clear();
+            mConnectionsByAppId.clear();
         }
 
         synchronized (this) {
@@ -701,10 +819,8 @@ public class ContextMap<C, T> {
      */
     Map<Integer, String> getConnectedMap() {
         Map<Integer, String> connectedmap = new HashMap<Integer, String>();
-        synchronized (mConnectionsLock) {
-            for (Connection conn : mConnections) {
-                connectedmap.put(conn.appId, conn.address);
-            }
+        for (Connection conn : mConnections.values()) {
+            connectedmap.put(conn.appId, conn.address);
         }
         return connectedmap;
     }
@@ -722,6 +838,12 @@ public class ContextMap<C, T> {
             AppScanStats appScanStats = entry.getValue();
             appScanStats.dumpToString(sb);
         }
+
+        synchronized (mAppsLock) {
+            for (App app : mApps) {
+                app.dumpCongestionQueue(sb);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the distances measured for a {@link DistanceMeasurementTracker}.
+ *
+ * @hide
+ */
+/* package */ abstract class DistanceMeasurementFilter {
+    static final int TYPE_NONE = 0;
+    static final int TYPE_MOVING_MEDIAN = 1;
+    static final int TYPE_EXPONENTIAL = 2;
+    static final int TYPE_KALMAN = 3;
+
+    @VisibleForTesting static final int MEDIAN_WINDOW = 5;
+    @VisibleForTesting static final double EXPONENTIAL_ALPHA = 0.3;
+    // Variance added per measurement to account for the device moving, in m^2.
+    @VisibleForTesting static final double KALMAN_PROCESS_VARIANCE = 0.05;
+    // Variance of a measurement reporting no error, in m^2.
+    @VisibleForTesting static final double KALMAN_MIN_MEASUREMENT_VARIANCE = 0.25;
+
+    /** Returns the filter for {@code type}, which passes distances through if unknown. */
+    static DistanceMeasurementFilter create(int type) {
+        switch (type) {
+            case TYPE_MOVING_MEDIAN:
+                return new MovingMedian();
+            case TYPE_EXPONENTIAL:
+                return new Exponential();
+            case TYPE_KALMAN:
+                return new Kalman();
+            default:
+                return new None();
+        }
+    }
+
+    /** Adds a measured distance and returns the smoothed one. */
+    abstract double filter(double meters, double errorMeters);
+
+    /** Returns the error of the last smoothed distance. */
+    double getErrorMeters(double errorMeters) {
+        return errorMeters;
+    }
+
+    private static class None extends DistanceMeasurementFilter {
+        @Override
+        double filter(double meters, double errorMeters) {
+            return meters;
+        }
+    }
+
+    private static class MovingMedian extends DistanceMeasurementFilter {
+        private final double[] mWindow = new double[MEDIAN_WINDOW];
+        private final double[] mSorted = new double[MEDIAN_WINDOW];
+        private int mCount;
+        private int mNext;
+
+        @Override
+        double filter(double meters, double errorMeters) {
+            mWindow[mNext] = meters;
+            mNext = (mNext + 1) % MEDIAN_WINDOW;
+            mCount = Math.min(mCount + 1, MEDIAN_WINDOW);
+
+            System.arraycopy(mWindow, 0, mSorted, 0, mCount);
+            Arrays.sort(mSorted, 0, mCount);
+            int middle = mCount / 2;
+            return (mCount % 2 == 1)
+                    ? mSorted[middle]
+                    : (mSorted[middle - 1] + mSorted[middle]) / 2;
+        }
+    }
+
+    private static class Exponential extends DistanceMeasurementFilter {
+        private double mValue = Double.NaN;
+
+        @Override
+        double filter(double meters, double errorMeters) {
+            mValue = Double.isNaN(mValue)
+                    ? meters
+                    : EXPONENTIAL_ALPHA * meters + (1 - EXPONENTIAL_ALPHA) * mValue;
+            return mValue;
+        }
+    }
+
+    /** One dimensional Kalman filter weighting each measurement by its reported error. */
+    private static class Kalman extends DistanceMeasurementFilter {
+        private double mEstimate = Double.NaN;
+        private double mVariance;
+
+        @Override
+        double filter(double meters, double errorMeters) {
+            double measurementVariance =
+                    Math.max(errorMeters * errorMeters, KALMAN_MIN_MEASUREMENT_VARIANCE);
+            if (Double.isNaN(mEstimate)) {
+                mEstimate = meters;
+                mVariance = measurementVariance;
+                return mEstimate;
+            }
+            double predictedVariance = mVariance + KALMAN_PROCESS_VARIANCE;
+            double gain = predictedVariance / (predictedVariance + measurementVariance);
+            mEstimate += gain * (meters - mEstimate);
+            mVariance = (1 - gain) * predictedVariance;
+            return mEstimate;
+        }
+
+        @Override
+        double getErrorMeters(double errorMeters) {
+            return Math.sqrt(mVariance);
+        }
+    }
+}
@@ -24,13 +24,17 @@ import android.bluetooth.le.DistanceMeasurementMethod;
 import android.bluetooth.le.DistanceMeasurementParams;
 import android.bluetooth.le.DistanceMeasurementResult;
 import android.bluetooth.le.IDistanceMeasurementCallback;
+import android.os.Binder;
 import android.os.HandlerThread;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.DeviceConfig;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -52,6 +56,13 @@ public class DistanceMeasurementManager {
     private static final int CS_MEDIUM_FREQUENCY_INTERVAL_MS = 3000;
     private static final int CS_HIGH_FREQUENCY_INTERVAL_MS = 1000;
 
+    // Device config of the result pipeline of new trackers, see DistanceMeasurementTracker.
+    private static final String CONFIG_SMOOTHING = "distance_measurement_smoothing";
+    private static final String CONFIG_MIN_CHANGE_CM = "distance_measurement_min_change_cm";
+    private static final String CONFIG_MIN_REPORT_INTERVAL_MS =
+            "distance_measurement_min_report_interval_ms";
+    private static final String CONFIG_BATCH_SIZE = "distance_measurement_batch_size";
+
     private final AdapterService mAdapterService;
     private HandlerThread mHandlerThread;
     DistanceMeasurementNativeInterface mDistanceMeasurementNativeInterface;
@@ -102,9 +113,8 @@ public class DistanceMeasurementManager {
             return;
         }
 
-        DistanceMeasurementTracker tracker =
-                new DistanceMeasurementTracker(
-                        this, params, identityAddress, uuid, interval, callback);
+        DistanceMeasurementTracker tracker = createTracker(
+                params, identityAddress, uuid, interval, callback);
 
         switch (params.getMethodId()) {
             case DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_AUTO:
@@ -128,6 +138,28 @@ public class DistanceMeasurementManager {
         }
     }
 
+    private DistanceMeasurementTracker createTracker(DistanceMeasurementParams params,
+            String identityAddress, UUID uuid, int interval,
+            IDistanceMeasurementCallback callback) {
+        // Need to clear identity to pass device config permission check
+        final long callerToken = Binder.clearCallingIdentity();
+        try {
+            int smoothing = DeviceConfig.getInt(DeviceConfig.NAMESPACE_BLUETOOTH,
+                    CONFIG_SMOOTHING, DistanceMeasurementFilter.TYPE_NONE);
+            int minChangeCm = DeviceConfig.getInt(DeviceConfig.NAMESPACE_BLUETOOTH,
+                    CONFIG_MIN_CHANGE_CM, 0);
+            int minReportIntervalMs = DeviceConfig.getInt(DeviceConfig.NAMESPACE_BLUETOOTH,
+                    CONFIG_MIN_REPORT_INTERVAL_MS, 0);
+            int batchSize = DeviceConfig.getInt(DeviceConfig.NAMESPACE_BLUETOOTH,
+                    CONFIG_BATCH_SIZE, 1);
+            return new DistanceMeasurementTracker(this, params, identityAddress, uuid, interval,
+                    callback, DistanceMeasurementFilter.create(smoothing), minChangeCm / 100.0,
+                    minReportIntervalMs, batchSize);
+        } finally {
+            Binder.restoreCallingIdentity(callerToken);
+        }
+    }
+
     private synchronized void startRssiTracker(DistanceMeasurementTracker tracker) {
         mRssiTrackers.putIfAbsent(tracker.mIdentityAddress, new CopyOnWriteArraySet<>());
         CopyOnWriteArraySet<DistanceMeasurementTracker> set =
@@ -199,6 +231,7 @@ public class DistanceMeasurementManager {
             if (tracker.equals(uuid, identityAddress)) {
                 int reason = timeout ? BluetoothStatusCodes.ERROR_TIMEOUT :
                         BluetoothStatusCodes.REASON_LOCAL_APP_REQUEST;
+                deliverResults(tracker, tracker.flushResults());
                 invokeOnStopped(tracker.mCallback, tracker.mDevice, reason);
                 tracker.cancelTimer();
                 set.remove(tracker);
@@ -228,6 +261,7 @@ public class DistanceMeasurementManager {
                         timeout
                                 ? BluetoothStatusCodes.ERROR_TIMEOUT
                                 : BluetoothStatusCodes.REASON_LOCAL_APP_REQUEST;
+                deliverResults(tracker, tracker.flushResults());
                 invokeOnStopped(tracker.mCallback, tracker.mDevice, reason);
                 tracker.cancelTimer();
                 set.remove(tracker);
@@ -413,6 +447,7 @@ public class DistanceMeasurementManager {
         for (DistanceMeasurementTracker tracker : set) {
             if (tracker.mStarted) {
                 tracker.cancelTimer();
+                deliverResults(tracker, tracker.flushResults());
                 invokeOnStopped(tracker.mCallback, tracker.mDevice, reason);
             }
         }
@@ -428,6 +463,7 @@ public class DistanceMeasurementManager {
         for (DistanceMeasurementTracker tracker : set) {
             if (tracker.mStarted) {
                 tracker.cancelTimer();
+                deliverResults(tracker, tracker.flushResults());
                 invokeOnStopped(tracker.mCallback, tracker.mDevice, reason);
             }
         }
@@ -456,15 +492,28 @@ public class DistanceMeasurementManager {
             Log.w(TAG, "Can't find rssi tracker");
             return;
         }
+        long nowMs = SystemClock.elapsedRealtime();
         for (DistanceMeasurementTracker tracker : set) {
-            try {
-                if (!tracker.mStarted) {
-                    continue;
-                }
-                tracker.mCallback.onResult(tracker.mDevice, result);
-            } catch (RemoteException e) {
-                Log.e(TAG, "Exception: " + e);
+            if (!tracker.mStarted) {
+                continue;
+            }
+            deliverResults(tracker, tracker.processResult(result, nowMs));
+        }
+    }
+
+    private void deliverResults(DistanceMeasurementTracker tracker,
+            List<DistanceMeasurementResult> results) {
+        if (results == null) {
+            return;
+        }
+        try {
+            if (results.size() == 1) {
+                tracker.mCallback.onResult(tracker.mDevice, results.get(0));
+            } else {
+                tracker.mCallback.onResults(tracker.mDevice, results);
             }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Exception: " + e);
         }
     }
 
@@ -18,10 +18,15 @@ package com.android.bluetooth.gatt;
 
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.DistanceMeasurementParams;
+import android.bluetooth.le.DistanceMeasurementResult;
 import android.bluetooth.le.IDistanceMeasurementCallback;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -44,6 +49,18 @@ class DistanceMeasurementTracker {
     boolean mStarted = false;
     private Handler mHandler;
 
+    // Result pipeline, see processResult()
+    private final DistanceMeasurementFilter mFilter;
+    private final double mMinChangeMeters;
+    private final int mMinReportIntervalMs;
+    private final int mBatchSize;
+    @GuardedBy("this")
+    private final List<DistanceMeasurementResult> mPendingResults = new ArrayList<>();
+    @GuardedBy("this")
+    private double mLastReportedMeters = Double.NaN;
+    @GuardedBy("this")
+    private long mLastReportMs;
+
     DistanceMeasurementTracker(
             DistanceMeasurementManager manager,
             DistanceMeasurementParams params,
@@ -51,6 +68,25 @@ class DistanceMeasurementTracker {
             UUID uuid,
             int interval,
             IDistanceMeasurementCallback callback) {
+        this(manager, params, identityAddress, uuid, interval, callback,
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_NONE), 0, 0, 1);
+    }
+
+    DistanceMeasurementTracker(
+            DistanceMeasurementManager manager,
+            DistanceMeasurementParams params,
+            String identityAddress,
+            UUID uuid,
+            int interval,
+            IDistanceMeasurementCallback callback,
+            DistanceMeasurementFilter filter,
+            double minChangeMeters,
+            int minReportIntervalMs,
+            int batchSize) {
+        mFilter = filter;
+        mMinChangeMeters = minChangeMeters;
+        mMinReportIntervalMs = minReportIntervalMs;
+        mBatchSize = Math.max(1, batchSize);
         mManager = manager;
         mDevice = params.getDevice();
         mIdentityAddress = identityAddress;
@@ -77,6 +113,46 @@ class DistanceMeasurementTracker {
         }
     }
 
+    /**
+     * Smooths a measured result and returns the results to deliver to the app, or null when the
+     * result is held back: it differs from the last reported distance by less than the minimum
+     * change, the last report is more recent than the minimum report interval, or the batch isn't
+     * full yet.
+     */
+    synchronized List<DistanceMeasurementResult> processResult(
+            DistanceMeasurementResult measured, long nowMs) {
+        double meters = mFilter.filter(measured.getResultMeters(), measured.getErrorMeters());
+        double errorMeters = mFilter.getErrorMeters(measured.getErrorMeters());
+        if (!Double.isNaN(mLastReportedMeters)
+                && (Math.abs(meters - mLastReportedMeters) < mMinChangeMeters
+                        || nowMs - mLastReportMs < mMinReportIntervalMs)) {
+            return null;
+        }
+        mLastReportedMeters = meters;
+        mLastReportMs = nowMs;
+
+        DistanceMeasurementResult result = measured;
+        if (meters != measured.getResultMeters() || errorMeters != measured.getErrorMeters()) {
+            result = new DistanceMeasurementResult.Builder(Math.max(0, meters), errorMeters)
+                    .build();
+        }
+        mPendingResults.add(result);
+        if (mPendingResults.size() < mBatchSize) {
+            return null;
+        }
+        return flushResults();
+    }
+
+    /** Returns the results batched so far, or null if there are none. */
+    synchronized List<DistanceMeasurementResult> flushResults() {
+        if (mPendingResults.isEmpty()) {
+            return null;
+        }
+        List<DistanceMeasurementResult> results = new ArrayList<>(mPendingResults);
+        mPendingResults.clear();
+        return results;
+    }
+
     public boolean equals(UUID uuid, String identityAddress) {
         if (!Objects.equals(mUuid, uuid)) {
             return false;
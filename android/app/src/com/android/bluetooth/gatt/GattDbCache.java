@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Cache of the GATT databases discovered on remote devices, so that discovering the database of a
+ * device again, or of an identical device, doesn't build its service objects again.
+ *
+ * <p>Databases are keyed by a SHA-256 digest of their elements and the least recently used ones
+ * are evicted first. Cached databases are shared between connections and must not be modified.
+ *
+ * @hide
+ */
+/* package */ class GattDbCache {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "GattDbCache";
+
+    @VisibleForTesting static final int MAX_ENTRIES = 16;
+
+    // type, id, attributeHandle, startHandle, endHandle, properties, permissions and the UUID.
+    private static final int ELEMENT_KEY_SIZE = 7 * Integer.BYTES + 2 * Long.BYTES;
+
+    /** A materialized GATT database. */
+    static final class Entry {
+        final List<BluetoothGattService> services;
+        final Set<Integer> restrictedHandles;
+
+        Entry(List<BluetoothGattService> services, Set<Integer> restrictedHandles) {
+            this.services = Collections.unmodifiableList(services);
+            this.restrictedHandles = Collections.unmodifiableSet(restrictedHandles);
+        }
+    }
+
+    @GuardedBy("this")
+    private final LinkedHashMap<ByteBuffer, Entry> mEntries =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    @GuardedBy("this")
+    private long mHits;
+
+    @GuardedBy("this")
+    private long mMisses;
+
+    /**
+     * Returns the cached database made of the given elements, materializing and caching it if it
+     * isn't known yet.
+     */
+    synchronized Entry get(List<GattDbElement> db, Function<List<GattDbElement>, Entry> factory) {
+        ByteBuffer key = computeKey(db);
+        if (key == null) {
+            return factory.apply(db);
+        }
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            mHits++;
+            return entry;
+        }
+        mMisses++;
+        entry = factory.apply(db);
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Entries: " + mEntries.size() + ", hits: " + mHits + ", misses: " + mMisses
+                + "\n");
+    }
+
+    @VisibleForTesting
+    static ByteBuffer computeKey(List<GattDbElement> db) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, "SHA-256 not available, not caching", e);
+            return null;
+        }
+        ByteBuffer element = ByteBuffer.allocate(ELEMENT_KEY_SIZE);
+        for (GattDbElement el : db) {
+            element.clear();
+            element.putInt(el.type)
+                    .putInt(el.id)
+                    .putInt(el.attributeHandle)
+                    .putInt(el.startHandle)
+                    .putInt(el.endHandle)
+                    .putInt(el.properties)
+                    .putInt(el.permissions);
+            if (el.uuid != null) {
+                element.putLong(el.uuid.getMostSignificantBits())
+                        .putLong(el.uuid.getLeastSignificantBits());
+            } else {
+                element.putLong(0).putLong(0);
+            }
+            digest.update(element.array());
+        }
+        return ByteBuffer.wrap(digest.digest());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.IBluetoothGattCallback;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the notifications of one GATT client connection and delivers them to the client
+ * in a single {@link IBluetoothGattCallback#onNotifyBatch} call.
+ *
+ * <p>A batch is delivered once it holds {@code maxBytes} of values, or {@code maxDelayMs} after
+ * its first notification arrived, whichever happens first. Notifications are delivered in the
+ * order they were received. Once closed, the batcher refuses new notifications so that the
+ * caller delivers them directly, after everything that was batched.
+ *
+ * @hide
+ */
+/* package */ class GattNotificationBatcher {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "NotificationBatcher";
+
+    @VisibleForTesting static final int MAX_DELAY_MS = 1000;
+    @VisibleForTesting static final int MAX_BYTES = 32 * 1024;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String mAddress;
+    private final IBluetoothGattCallback mCallback;
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::flush;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private int mMaxDelayMs;
+    @GuardedBy("mLock")
+    private int mMaxBytes;
+    @GuardedBy("mLock")
+    private boolean mClosed;
+    @GuardedBy("mLock")
+    private int[] mHandles = new int[INITIAL_CAPACITY];
+    @GuardedBy("mLock")
+    private byte[][] mValues = new byte[INITIAL_CAPACITY][];
+    @GuardedBy("mLock")
+    private int mCount;
+    @GuardedBy("mLock")
+    private int mBytes;
+
+    GattNotificationBatcher(String address, IBluetoothGattCallback callback, Handler handler,
+            int maxDelayMs, int maxBytes) {
+        mAddress = address;
+        mCallback = callback;
+        mHandler = handler;
+        setLimits(maxDelayMs, maxBytes);
+    }
+
+    /** Updates the batch limits, delivering the notifications batched so far. */
+    void setLimits(int maxDelayMs, int maxBytes) {
+        synchronized (mLock) {
+            flushLocked();
+            mMaxDelayMs = Math.max(0, Math.min(maxDelayMs, MAX_DELAY_MS));
+            mMaxBytes = Math.max(1, Math.min(maxBytes, MAX_BYTES));
+        }
+    }
+
+    /**
+     * Queues a notification, delivering the batch if it is full.
+     *
+     * @return false if the batcher is closed and the notification must be delivered directly
+     */
+    boolean add(int handle, byte[] value) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            if (mCount == mHandles.length) {
+                mHandles = Arrays.copyOf(mHandles, mCount * 2);
+                mValues = Arrays.copyOf(mValues, mCount * 2);
+            }
+            mHandles[mCount] = handle;
+            mValues[mCount] = value;
+            mCount++;
+            mBytes += value.length;
+            if (mBytes >= mMaxBytes || mMaxDelayMs == 0) {
+                flushLocked();
+            } else if (mCount == 1) {
+                mHandler.postDelayed(mFlushRunnable, mMaxDelayMs);
+            }
+            return true;
+        }
+    }
+
+    /** Delivers the queued notifications, if any. */
+    void flush() {
+        synchronized (mLock) {
+            flushLocked();
+        }
+    }
+
+    /** Delivers the queued notifications and stops accepting new ones. */
+    void close() {
+        synchronized (mLock) {
+            flushLocked();
+            mClosed = true;
+        }
+    }
+
+    /** Drops the queued notifications and stops accepting new ones. */
+    void discard() {
+        synchronized (mLock) {
+            mClosed = true;
+            mHandler.removeCallbacks(mFlushRunnable);
+            Arrays.fill(mValues, 0, mCount, null);
+            mCount = 0;
+            mBytes = 0;
+        }
+    }
+
+    // Delivery happens under the lock so that batches can't overtake each other.
+    @GuardedBy("mLock")
+    private void flushLocked() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mCount == 0) {
+            return;
+        }
+        int[] handles = Arrays.copyOf(mHandles, mCount);
+        int[] lengths = new int[mCount];
+        byte[] values = new byte[mBytes];
+        int position = 0;
+        for (int i = 0; i < mCount; i++) {
+            byte[] value = mValues[i];
+            lengths[i] = value.length;
+            System.arraycopy(value, 0, values, position, value.length);
+            position += value.length;
+            mValues[i] = null;
+        }
+        mCount = 0;
+        mBytes = 0;
+        try {
+            mCallback.onNotifyBatch(mAddress, handles, lengths, values);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to deliver " + handles.length + " notifications", e);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.annotation.Nullable;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Schedules the characteristic notifications a GATT server profile sends to its clients.
+ *
+ * <p>A notification is sent right away unless the link to the device is congested, i.e. {@link
+ * #MAX_IN_FLIGHT} notifications sent to it were not yet confirmed through {@link
+ * #onNotificationSent}, or the characteristic was notified to the device less than its minimum
+ * interval ago. Held back notifications are sent in the order they were scheduled once the link
+ * frees up. While a characteristic waits, further updates of it replace the pending value, so the
+ * device only receives the latest one; notifications scheduled with {@link #scheduleUncoalesced},
+ * such as control point results, are all sent.
+ *
+ * @hide
+ */
+public class GattServerNotificationScheduler {
+    @VisibleForTesting static final int MAX_IN_FLIGHT = 32;
+
+    /** Sends the notifications once they are due. */
+    public interface Sender {
+        /**
+         * Notifies {@code device} of {@code value}, or of the current value of {@code
+         * characteristic} if {@code value} is null.
+         *
+         * @return true if the notification was handed to the stack, which then reports it through
+         *     {@link android.bluetooth.BluetoothGattServerCallback#onNotificationSent}
+         */
+        boolean send(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                @Nullable byte[] value);
+    }
+
+    private static class Pending {
+        final BluetoothGattCharacteristic mCharacteristic;
+        byte[] mValue;
+
+        Pending(BluetoothGattCharacteristic characteristic, byte[] value) {
+            mCharacteristic = characteristic;
+            mValue = value;
+        }
+    }
+
+    private static class DeviceState {
+        // Keyed by characteristic for coalesced notifications, by a unique token otherwise.
+        final LinkedHashMap<Object, Pending> mPending = new LinkedHashMap<>();
+        final Map<BluetoothGattCharacteristic, Long> mLastSentMs = new HashMap<>();
+        int mInFlight;
+        boolean mFlushScheduled;
+    }
+
+    private final Handler mHandler;
+    private final Sender mSender;
+
+    @GuardedBy("this")
+    private final Map<UUID, Integer> mMinIntervalsMs = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<BluetoothDevice, DeviceState> mDevices = new HashMap<>();
+    @GuardedBy("this")
+    private long mSentCount;
+    @GuardedBy("this")
+    private long mSuppressedCount;
+
+    public GattServerNotificationScheduler(Looper looper, Sender sender) {
+        mHandler = new Handler(looper);
+        mSender = sender;
+    }
+
+    /** Sends notifications of the characteristic {@code uuid} at most once per interval. */
+    public synchronized void setMinInterval(UUID uuid, int intervalMs) {
+        if (intervalMs > 0) {
+            mMinIntervalsMs.put(uuid, intervalMs);
+        } else {
+            mMinIntervalsMs.remove(uuid);
+        }
+    }
+
+    /**
+     * Schedules a notification of {@code characteristic} to {@code device}, replacing the one
+     * still waiting to be sent, if any.
+     *
+     * @param value the value to notify, or null to notify the value the characteristic has when
+     *     the notification is sent
+     */
+    public synchronized void schedule(BluetoothDevice device,
+            BluetoothGattCharacteristic characteristic, @Nullable byte[] value) {
+        DeviceState state = mDevices.computeIfAbsent(device, d -> new DeviceState());
+        Pending pending = state.mPending.get(characteristic);
+        if (pending != null) {
+            pending.mValue = value;
+            mSuppressedCount++;
+            return;
+        }
+        state.mPending.put(characteristic, new Pending(characteristic, value));
+        flushLocked(device, state);
+    }
+
+    /**
+     * Schedules a notification of {@code characteristic} to {@code device} that is never
+     * replaced by a later one.
+     *
+     * @param value the value to notify, or null to notify the value the characteristic has now
+     */
+    public synchronized void scheduleUncoalesced(BluetoothDevice device,
+            BluetoothGattCharacteristic characteristic, @Nullable byte[] value) {
+        DeviceState state = mDevices.computeIfAbsent(device, d -> new DeviceState());
+        Object token = new Object();
+        Pending pending = new Pending(characteristic, value);
+        state.mPending.put(token, pending);
+        flushLocked(device, state);
+        if (value == null && state.mPending.containsKey(token)) {
+            // Held back: keep the current value, a later update must not change what is sent.
+            byte[] current = characteristic.getValue();
+            pending.mValue = current != null ? current.clone() : null;
+        }
+    }
+
+    /** Called once the stack reports a notification sent to {@code device}. */
+    public synchronized void onNotificationSent(BluetoothDevice device) {
+        DeviceState state = mDevices.get(device);
+        if (state == null) {
+            return;
+        }
+        state.mInFlight = Math.max(0, state.mInFlight - 1);
+        flushLocked(device, state);
+    }
+
+    /** Drops what is scheduled for {@code device}. */
+    public synchronized void onDeviceDisconnected(BluetoothDevice device) {
+        DeviceState state = mDevices.remove(device);
+        if (state != null) {
+            mHandler.removeCallbacksAndMessages(state);
+        }
+    }
+
+    /** Drops what is scheduled for every device. */
+    public synchronized void clear() {
+        mDevices.clear();
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    public synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    @GuardedBy("this")
+    private void flushLocked(BluetoothDevice device, DeviceState state) {
+        long now = SystemClock.uptimeMillis();
+        long nextDueMs = Long.MAX_VALUE;
+        Iterator<Pending> it = state.mPending.values().iterator();
+        while (it.hasNext() && state.mInFlight < MAX_IN_FLIGHT) {
+            Pending pending = it.next();
+            long dueMs = getDueTimeLocked(state, pending.mCharacteristic);
+            if (dueMs > now) {
+                nextDueMs = Math.min(nextDueMs, dueMs);
+                continue;
+            }
+            it.remove();
+            if (mSender.send(device, pending.mCharacteristic, pending.mValue)) {
+                state.mInFlight++;
+                state.mLastSentMs.put(pending.mCharacteristic, now);
+                mSentCount++;
+            }
+        }
+
+        if (nextDueMs != Long.MAX_VALUE && !state.mFlushScheduled) {
+            state.mFlushScheduled = true;
+            mHandler.postAtTime(() -> onFlushTimeout(device, state), state, nextDueMs);
+        }
+    }
+
+    private synchronized void onFlushTimeout(BluetoothDevice device, DeviceState state) {
+        if (mDevices.get(device) != state) {
+            return;
+        }
+        state.mFlushScheduled = false;
+        flushLocked(device, state);
+    }
+
+    @GuardedBy("this")
+    private long getDueTimeLocked(DeviceState state, BluetoothGattCharacteristic characteristic) {
+        Integer intervalMs = mMinIntervalsMs.get(characteristic.getUuid());
+        Long lastSentMs = state.mLastSentMs.get(characteristic);
+        if (intervalMs == null || lastSentMs == null) {
+            return 0;
+        }
+        return lastSentMs + intervalMs;
+    }
+
+    public synchronized void dump(StringBuilder sb) {
+        sb.append("\n\tNotifications sent: " + mSentCount + ", suppressed: " + mSuppressedCount);
+        for (Map.Entry<BluetoothDevice, DeviceState> entry : mDevices.entrySet()) {
+            DeviceState state = entry.getValue();
+            sb.append("\n\t\tDevice: " + entry.getKey() + ", in flight: " + state.mInFlight
+                    + ", pending: " + state.mPending.size());
+        }
+    }
+}
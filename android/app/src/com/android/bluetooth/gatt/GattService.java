@@ -72,6 +72,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.Parcel;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.os.SystemClock;
@@ -99,7 +100,6 @@ import com.android.bluetooth.le_scan.PeriodicScanManager;
 import com.android.bluetooth.le_scan.ScanClient;
 import com.android.bluetooth.le_scan.ScanManager;
 import com.android.bluetooth.le_scan.TransitionalScanHelper;
-import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
@@ -115,7 +115,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 /**
@@ -134,9 +134,6 @@ public class GattService extends ProfileService {
     static final int SCAN_FILTER_MODIFIED = 2;
 
     private static final int MAC_ADDRESS_LENGTH = 6;
-    // Batch scan related constants.
-    private static final int TRUNCATED_RESULT_SIZE = 11;
-    private static final int TIME_STAMP_LENGTH = 2;
 
     private enum MatchOrigin {
         PSEUDO_ADDRESS,
@@ -280,11 +277,18 @@ public class GattService extends ProfileService {
      */
     @VisibleForTesting final Map<Integer, Set<Integer>> mRestrictedHandles = new HashMap<>();
 
-    /**
-     * HashMap used to synchronize writeCharacteristic calls mapping remote device address to
-     * available permit (connectId or -1).
-     */
-    private final HashMap<String, Integer> mPermits = new HashMap<>();
+    @VisibleForTesting final GattDbCache mGattDbCache = new GattDbCache();
+
+    /** Notification batchers of the client connections that enabled batching, by connId */
+    @VisibleForTesting
+    final Map<Integer, GattNotificationBatcher> mNotificationBatchers = new ConcurrentHashMap<>();
+
+    /** Permits serializing the writeCharacteristic calls to each connected remote device */
+    @VisibleForTesting
+    final Map<String, GattWritePermit> mWritePermits = new ConcurrentHashMap<>();
+
+    /** Scanners, clients, servers and advertisers of the apps, by binder and UID */
+    @VisibleForTesting final LeResourceRegistry mLeResources = new LeResourceRegistry();
 
     private AdapterService mAdapterService;
     private BluetoothAdapterProxy mBluetoothAdapterProxy;
@@ -292,6 +296,7 @@ public class GattService extends ProfileService {
     PeriodicScanManager mPeriodicScanManager;
     DistanceMeasurementManager mDistanceMeasurementManager;
     ScanManager mScanManager;
+    private volatile ScanFilterIndex mScanFilterIndex;
     private AppOpsManager mAppOps;
     private CompanionDeviceManager mCompanionManager;
     private String mExposureNotificationPackage;
@@ -353,15 +358,21 @@ public class GattService extends ProfileService {
         mBluetoothAdapterProxy = BluetoothAdapterProxy.getInstance();
         mCompanionManager = getSystemService(CompanionDeviceManager.class);
         mAppOps = getSystemService(AppOpsManager.class);
+        mTransitionalScanHelper.getScannerMap()
+                .setResourceRegistry(mLeResources, LeResourceRegistry.TYPE_SCANNER);
+        mClientMap.setResourceRegistry(mLeResources, LeResourceRegistry.TYPE_CLIENT);
+        mServerMap.setResourceRegistry(mLeResources, LeResourceRegistry.TYPE_SERVER);
         mAdvertiseManager =
                 new AdvertiseManager(
                         this,
                         AdvertiseManagerNativeInterface.getInstance(),
                         mAdapterService,
-                        mAdvertiserMap);
+                        mAdvertiserMap,
+                        mLeResources);
 
         HandlerThread thread = new HandlerThread("BluetoothScanManager");
         thread.start();
+        mScanFilterIndex = null;
         mScanManager =
                 GattObjectsFactory.getInstance()
                         .createScanManager(
@@ -388,10 +399,15 @@ public class GattService extends ProfileService {
         if (Flags.gattCleanupRestrictedHandles()) {
             mRestrictedHandles.clear();
         }
+        for (GattNotificationBatcher batcher : mNotificationBatchers.values()) {
+            batcher.discard();
+        }
+        mNotificationBatchers.clear();
         mServerMap.clear();
         mHandleMap.clear();
         mReliableQueue.clear();
         cleanup();
+        mLeResources.clear();
     }
 
     @Override
@@ -1227,6 +1243,28 @@ public class GattService extends ProfileService {
             service.subrateModeRequest(clientIf, address, subrateMode, attributionSource);
         }
 
+        @Override
+        public void setNotificationBatching(int clientIf, String address, int maxDelayMs,
+                int maxBytes, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            try {
+                setNotificationBatching(clientIf, address, maxDelayMs, maxBytes,
+                        attributionSource);
+                receiver.send(null);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private void setNotificationBatching(int clientIf, String address, int maxDelayMs,
+                int maxBytes, AttributionSource attributionSource) {
+            GattService service = getService();
+            if (service == null) {
+                return;
+            }
+            service.setNotificationBatching(clientIf, address, maxDelayMs, maxBytes,
+                    attributionSource);
+        }
+
         @Override
         public void leSubrateRequest(int clientIf, String address, int subrateMin, int subrateMax,
                 int maxLatency, int contNumber, int supervisionTimeout,
@@ -1591,6 +1629,28 @@ public class GattService extends ProfileService {
             service.setScanResponseData(advertiserId, data, attributionSource);
         }
 
+        @Override
+        public void setAdvertisingDataBulk(int[] advertiserIds, AdvertiseData[] advertiseData,
+                AdvertiseData[] scanResponses, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            try {
+                setAdvertisingDataBulk(advertiserIds, advertiseData, scanResponses,
+                        attributionSource);
+                receiver.send(null);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private void setAdvertisingDataBulk(int[] advertiserIds, AdvertiseData[] advertiseData,
+                AdvertiseData[] scanResponses, AttributionSource attributionSource) {
+            GattService service = getService();
+            if (service == null) {
+                return;
+            }
+            service.setAdvertisingDataBulk(
+                    advertiserIds, advertiseData, scanResponses, attributionSource);
+        }
+
         @Override
         public void setAdvertisingParameters(int advertiserId,
                 AdvertisingSetParameters parameters, AttributionSource attributionSource,
@@ -2005,7 +2065,17 @@ public class GattService extends ProfileService {
         }
 
 
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        // The advertisement is decoded at most twice: once for the fixed-size legacy view and
+        // once for the full payload. Both views are immutable, so they are built lazily on the
+        // first client that needs them and shared with every other client.
+        BluetoothDevice device = null;
+        ScanResult legacyResult = null;
+        ScanResult fullResult = null;
+        long timestampNanos = SystemClock.elapsedRealtimeNanos();
+        // Software filters of all clients are evaluated at most once per view as well.
+        ScanFilterIndex filterIndex = getScanFilterIndex();
+        Set<Integer> legacyMatches = null;
+        Set<Integer> fullMatches = null;
 
         for (ScanClient client : mScanManager.getRegularScanQueue()) {
             TransitionalScanHelper.ScannerMap.App app =
@@ -2017,33 +2087,42 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device =
-                BluetoothAdapter.getDefaultAdapter().getRemoteLeDevice(address, addressType);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
             // This is for compability with applications that assume fixed size scan data.
+            if (settings.getLegacy() && (eventType & ET_LEGACY_MASK) == 0) {
+                // If this is legacy scan, but nonlegacy result - skip.
+                if (VDBG) {
+                    Log.d(TAG, "Legacy scan, non legacy result; skip.");
+                }
+                continue;
+            }
+
+            if (device == null) {
+                device = BluetoothAdapter.getDefaultAdapter()
+                        .getRemoteLeDevice(address, addressType);
+            }
+
+            ScanResult result;
             if (settings.getLegacy()) {
-                if ((eventType & ET_LEGACY_MASK) == 0) {
-                    // If this is legacy scan, but nonlegacy result - skip.
-                    if (VDBG) {
-                        Log.d(TAG, "Legacy scan, non legacy result; skip.");
-                    }
-                    continue;
-                } else {
+                if (legacyResult == null) {
                     // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+                    byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+                    legacyResult =
+                            new ScanResult(device, eventType, primaryPhy, secondaryPhy,
+                                    advertisingSid, txPower, rssi, periodicAdvInt,
+                                    ScanRecord.parseFromBytesLazily(legacyAdvData), timestampNanos);
                 }
+                result = legacyResult;
             } else {
-                scanRecordData = advData;
+                if (fullResult == null) {
+                    fullResult =
+                            new ScanResult(device, eventType, primaryPhy, secondaryPhy,
+                                    advertisingSid, txPower, rssi, periodicAdvInt,
+                                    ScanRecord.parseFromBytesLazily(advData), timestampNanos);
+                }
+                result = fullResult;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
-
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
                     Log.i(TAG, "Skipping client for location deny list");
@@ -2067,11 +2146,24 @@ public class GattService extends ProfileService {
                     result = sanitized;
                 }
             }
-            MatchResult matchResult = matchesFilters(client, result, originalAddress);
-            if (!hasPermission || !matchResult.getMatches()) {
+            boolean matches;
+            if (result == legacyResult && filterIndex.covers(client)) {
+                if (legacyMatches == null) {
+                    legacyMatches = filterIndex.match(legacyResult, originalAddress);
+                }
+                matches = legacyMatches.contains(client.scannerId);
+            } else if (result == fullResult && filterIndex.covers(client)) {
+                if (fullMatches == null) {
+                    fullMatches = filterIndex.match(fullResult, originalAddress);
+                }
+                matches = fullMatches.contains(client.scannerId);
+            } else {
+                matches = matchesFilters(client, result, originalAddress).getMatches();
+            }
+            if (!hasPermission || !matches) {
                 if (VDBG) {
-                    Log.d(TAG, "Skipping client: permission="
-                            + hasPermission + " matches=" + matchResult.getMatches());
+                    Log.d(TAG, "Skipping client: permission=" + hasPermission
+                            + " matches=" + matches);
                 }
                 continue;
             }
@@ -2096,6 +2188,7 @@ public class GattService extends ProfileService {
                     sendResultsByPendingIntent(app.info, results,
                             ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
                 }
+                app.appScanStats.recordResultDelivered(client.scannerId, timestampNanos);
             } catch (RemoteException | PendingIntent.CanceledException e) {
                 Log.e(TAG, "Exception: " + e);
                 if (Flags.leScanFixRemoteException()) {
@@ -2154,7 +2247,7 @@ public class GattService extends ProfileService {
                 mTransitionalScanHelper.getScannerMap().getByUuid(uuid);
         if (cbApp != null) {
             if (status == 0) {
-                cbApp.id = scannerId;
+                cbApp.setId(scannerId);
                 // If app is callback based, setup a death recipient. App will initiate the start.
                 // Otherwise, if PendingIntent based, start the scan directly.
                 if (cbApp.callback != null) {
@@ -2184,6 +2277,20 @@ public class GattService extends ProfileService {
         return client.hasLocationPermission && !Utils.blockedByLocationOff(this, client.userHandle);
     }
 
+    /**
+     * Returns the software filter index for the current regular scan queue, rebuilding it if the
+     * queue changed since it was last compiled.
+     */
+    private ScanFilterIndex getScanFilterIndex() {
+        int generation = mScanManager.getRegularScanQueueGeneration();
+        ScanFilterIndex index = mScanFilterIndex;
+        if (index == null || index.getGeneration() != generation) {
+            index = ScanFilterIndex.build(generation, mScanManager.getRegularScanQueue());
+            mScanFilterIndex = index;
+        }
+        return index;
+    }
+
     // Check if a scan record matches a specific filters.
     private MatchResult matchesFilters(ScanClient client, ScanResult scanResult) {
         return matchesFilters(client, scanResult, null);
@@ -2227,7 +2334,7 @@ public class GattService extends ProfileService {
         ClientMap.App app = mClientMap.getByUuid(uuid);
         if (app != null) {
             if (status == 0) {
-                app.id = clientIf;
+                app.setId(clientIf);
                 app.linkToDeath(new ClientDeathRecipient(clientIf, app.name));
             } else {
                 mClientMap.remove(uuid);
@@ -2245,12 +2352,11 @@ public class GattService extends ProfileService {
         if (status == 0) {
             mClientMap.addConnection(clientIf, connId, address);
 
-            // Allow one writeCharacteristic operation at a time for each connected remote device.
-            synchronized (mPermits) {
-                Log.d(TAG, "onConnected() - adding permit for address="
-                    + address);
-                mPermits.putIfAbsent(address, -1);
-            }
+            // Allow one writeCharacteristic operation at a time for each connected remote device,
+            // or as many as the configured pipeline depth for the connection holding the permit.
+            Log.d(TAG, "onConnected() - adding permit for address=" + address);
+            mWritePermits.computeIfAbsent(
+                    address, a -> new GattWritePermit(getWritePipelineDepth()));
             connectionState = BluetoothProtoEnums.CONNECTION_STATE_CONNECTED;
 
         }
@@ -2274,23 +2380,24 @@ public class GattService extends ProfileService {
         mClientMap.removeConnection(clientIf, connId);
         ClientMap.App app = mClientMap.getById(clientIf);
 
+        // Deliver notifications received before the disconnection first.
+        GattNotificationBatcher batcher = mNotificationBatchers.remove(connId);
+        if (batcher != null) {
+            batcher.close();
+        }
+
         if (Flags.gattCleanupRestrictedHandles()) {
             mRestrictedHandles.remove(connId);
         }
 
-        // Remove AtomicBoolean representing permit if no other connections rely on this remote device.
+        // Remove the permit if no other connections rely on this remote device.
         if (!mClientMap.getConnectedDevices().contains(address)) {
-            synchronized (mPermits) {
-                Log.d(TAG, "onDisconnected() - removing permit for address="
-                    + address);
-                mPermits.remove(address);
-            }
+            Log.d(TAG, "onDisconnected() - removing permit for address=" + address);
+            mWritePermits.remove(address);
         } else {
-            synchronized (mPermits) {
-                if (mPermits.get(address) == connId) {
-                    Log.d(TAG, "onDisconnected() - set permit -1 for address=" + address);
-                    mPermits.put(address, -1);
-                }
+            GattWritePermit permit = mWritePermits.get(address);
+            if (permit != null) {
+                permit.releaseAll(connId);
             }
         }
 
@@ -2509,6 +2616,22 @@ public class GattService extends ProfileService {
             return;
         }
 
+        GattDbCache.Entry gattDb = mGattDbCache.get(db, this::materializeGattDb);
+        if (!gattDb.restrictedHandles.isEmpty()) {
+            mRestrictedHandles.put(connId, gattDb.restrictedHandles);
+        }
+
+        List<BluetoothGattService> dbOut = gattDb.services;
+        if (app.callback.asBinder() instanceof Binder) {
+            // In-process clients get the services without parceling and modify them, give them a
+            // copy of the shared ones.
+            dbOut = copyServices(dbOut);
+        }
+        // Search is complete when there was error, or nothing more to process
+        app.callback.onSearchComplete(address, dbOut, 0 /* status */);
+    }
+
+    private GattDbCache.Entry materializeGattDb(List<GattDbElement> db) {
         List<BluetoothGattService> dbOut = new ArrayList<BluetoothGattService>();
         Set<Integer> restrictedIds = new HashSet<>();
 
@@ -2575,11 +2698,18 @@ public class GattService extends ProfileService {
             }
         }
 
-        if (!restrictedIds.isEmpty()) {
-            mRestrictedHandles.put(connId, restrictedIds);
+        return new GattDbCache.Entry(dbOut, restrictedIds);
+    }
+
+    private static List<BluetoothGattService> copyServices(List<BluetoothGattService> services) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedList(services);
+            parcel.setDataPosition(0);
+            return parcel.createTypedArrayList(BluetoothGattService.CREATOR);
+        } finally {
+            parcel.recycle();
         }
-        // Search is complete when there was error, or nothing more to process
-        app.callback.onSearchComplete(address, dbOut, 0 /* status */);
     }
 
     void onRegisterForNotifications(int connId, int status, int registered, int handle) {
@@ -2611,6 +2741,10 @@ public class GattService extends ProfileService {
                 Log.w(TAG, "onNotify() - permission check failed!");
                 return;
             }
+            GattNotificationBatcher batcher = mNotificationBatchers.get(connId);
+            if (batcher != null && batcher.add(handle, data)) {
+                return;
+            }
             app.callback.onNotify(address, handle, data);
         }
     }
@@ -2633,10 +2767,10 @@ public class GattService extends ProfileService {
     void onWriteCharacteristic(int connId, int status, int handle, byte[] data)
             throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
-        synchronized (mPermits) {
-            Log.d(TAG, "onWriteCharacteristic() - increasing permit for address="
-                    + address);
-            mPermits.put(address, -1);
+        GattWritePermit permit = address != null ? mWritePermits.get(address) : null;
+        if (permit != null) {
+            // The stack completes the writes of a connection in the order they were issued.
+            permit.release(connId);
         }
 
         if (VDBG) {
@@ -2659,7 +2793,11 @@ public class GattService extends ProfileService {
                     .setHandle(handle)
                     .setValue(data)
                     .build();
-            app.queueCallback(callbackInfo);
+            CallbackInfo overflow = app.queueCallback(callbackInfo);
+            if (overflow != null) {
+                app.callback.onCharacteristicWrite(overflow.address, overflow.status,
+                        overflow.handle, overflow.value);
+            }
         }
     }
 
@@ -2724,7 +2862,7 @@ public class GattService extends ProfileService {
             Log.d(TAG, "onScanFilterEnableDisabled() - clientIf=" + clientIf + ", status=" + status
                     + ", action=" + action);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.scanFilterCallbackDone(clientIf, status);
     }
 
     void onScanFilterParamsConfigured(int action, int status, int clientIf, int availableSpace) {
@@ -2733,7 +2871,7 @@ public class GattService extends ProfileService {
                     "onScanFilterParamsConfigured() - clientIf=" + clientIf + ", status=" + status
                             + ", action=" + action + ", availableSpace=" + availableSpace);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.scanFilterCallbackDone(clientIf, status);
     }
 
     void onScanFilterConfig(int action, int status, int clientIf, int filterType,
@@ -2744,7 +2882,7 @@ public class GattService extends ProfileService {
                     + availableSpace);
         }
 
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.scanFilterCallbackDone(clientIf, status);
     }
 
     void onBatchScanStorageConfigured(int status, int clientIf) {
@@ -2836,10 +2974,7 @@ public class GattService extends ProfileService {
                 }
             }
         } else {
-            for (ScanClient client : mScanManager.getFullBatchScanQueue()) {
-                // Deliver results for each client.
-                deliverBatchScan(client, results);
-            }
+            deliverBatchScan(mScanManager.getFullBatchScanQueue(), results);
         }
         mScanManager.callbackDone(scannerId, status);
     }
@@ -2877,43 +3012,27 @@ public class GattService extends ProfileService {
         }
     }
 
-    // Check and deliver scan results for different scan clients.
-    private void deliverBatchScan(ScanClient client, Set<ScanResult> allResults)
-            throws RemoteException {
-        ContextMap.App app = mTransitionalScanHelper.getScannerMap().getById(client.scannerId);
-        if (app == null) {
-            return;
-        }
-
-        ArrayList<ScanResult> permittedResults;
-        if (hasScanResultPermission(client)) {
-            permittedResults = new ArrayList<ScanResult>(allResults);
-        } else {
-            permittedResults = new ArrayList<ScanResult>();
-            for (ScanResult scanResult : allResults) {
-                for (String associatedDevice : client.associatedDevices) {
-                    if (associatedDevice.equalsIgnoreCase(scanResult.getDevice().getAddress())) {
-                        permittedResults.add(scanResult);
-                    }
-                }
-            }
-            if (permittedResults.isEmpty()) {
-                return;
+    // Check and deliver scan results for all full batch scan clients in a single pass.
+    private void deliverBatchScan(Set<ScanClient> clients, Set<ScanResult> allResults) {
+        List<ScanClient> registeredClients = new ArrayList<>(clients.size());
+        for (ScanClient client : clients) {
+            if (mTransitionalScanHelper.getScannerMap().getById(client.scannerId) != null) {
+                registeredClients.add(client);
             }
         }
 
-        if (client.filters == null || client.filters.isEmpty()) {
-            sendBatchScanResults(app, client, permittedResults);
-            // TODO: Question to reviewer: Shouldn't there be a return here?
-        }
-        // Reconstruct the scan results.
-        ArrayList<ScanResult> results = new ArrayList<ScanResult>();
-        for (ScanResult scanResult : permittedResults) {
-            if (matchesFilters(client, scanResult).getMatches()) {
-                results.add(scanResult);
+        Map<ScanClient, ArrayList<ScanResult>> dispatched =
+                BatchScanDispatcher.dispatch(registeredClients, allResults,
+                        this::hasScanResultPermission);
+        for (Map.Entry<ScanClient, ArrayList<ScanResult>> entry : dispatched.entrySet()) {
+            ScanClient client = entry.getKey();
+            TransitionalScanHelper.ScannerMap.App app =
+                    mTransitionalScanHelper.getScannerMap().getById(client.scannerId);
+            if (app == null) {
+                continue;
             }
+            sendBatchScanResults(app, client, entry.getValue());
         }
-        sendBatchScanResults(app, client, results);
     }
 
     private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
@@ -2935,85 +3054,21 @@ public class GattService extends ProfileService {
         if (DBG) {
             Log.d(TAG, "batch record " + Arrays.toString(batchRecord));
         }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        long now = SystemClock.elapsedRealtimeNanos();
-        for (int i = 0; i < numRecords; ++i) {
-            byte[] record =
-                    extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
-            byte[] address = extractBytes(record, 0, 6);
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            int rssi = record[8];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(new byte[0]), rssi,
-                    timestampNanos));
-        }
-        return results;
+        return BatchScanReportDecoder.decodeTruncated(numRecords, batchRecord,
+                SystemClock.elapsedRealtimeNanos());
     }
 
     @VisibleForTesting
     long parseTimestampNanos(byte[] data) {
-        long timestampUnit = NumberUtils.littleEndianByteArrayToInt(data);
-        // Timestamp is in every 50 ms.
-        return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
+        return BatchScanReportDecoder.parseTimestampNanos(data, 0);
     }
 
     private Set<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
         if (DBG) {
             Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
         }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        int position = 0;
-        long now = SystemClock.elapsedRealtimeNanos();
-        while (position < batchRecord.length) {
-            byte[] address = extractBytes(batchRecord, position, 6);
-            // TODO: remove temp hack.
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            position += 6;
-            // Skip address type.
-            position++;
-            // Skip tx power level.
-            position++;
-            int rssi = batchRecord[position++];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(batchRecord, position, 2));
-            position += 2;
-
-            // Combine advertise packet and scan response packet.
-            int advertisePacketLen = batchRecord[position++];
-            byte[] advertiseBytes = extractBytes(batchRecord, position, advertisePacketLen);
-            position += advertisePacketLen;
-            int scanResponsePacketLen = batchRecord[position++];
-            byte[] scanResponseBytes = extractBytes(batchRecord, position, scanResponsePacketLen);
-            position += scanResponsePacketLen;
-            byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
-            System.arraycopy(advertiseBytes, 0, scanRecord, 0, advertisePacketLen);
-            System.arraycopy(scanResponseBytes, 0, scanRecord, advertisePacketLen,
-                    scanResponsePacketLen);
-            if (DBG) {
-                Log.d(TAG, "ScanRecord : " + Arrays.toString(scanRecord));
-            }
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(scanRecord), rssi,
-                    timestampNanos));
-        }
-        return results;
-    }
-
-    // Reverse byte array.
-    private void reverse(byte[] address) {
-        int len = address.length;
-        for (int i = 0; i < len / 2; ++i) {
-            byte b = address[i];
-            address[i] = address[len - 1 - i];
-            address[len - 1 - i] = b;
-        }
-    }
-
-    // Helper method to extract bytes from byte array.
-    private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(scanRecord, start, bytes, 0, length);
-        return bytes;
+        return BatchScanReportDecoder.decodeFull(numRecords, batchRecord,
+                SystemClock.elapsedRealtimeNanos());
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -3141,12 +3196,14 @@ public class GattService extends ProfileService {
         if (app != null) {
             app.isCongested = congested;
             while (!app.isCongested) {
-                CallbackInfo callbackInfo = app.popQueuedCallback();
-                if (callbackInfo == null) {
+                List<CallbackInfo> callbacks = app.drainQueuedCallbacks();
+                if (callbacks.isEmpty()) {
                     return;
                 }
-                app.callback.onCharacteristicWrite(callbackInfo.address, callbackInfo.status,
-                        callbackInfo.handle, callbackInfo.value);
+                for (CallbackInfo callbackInfo : callbacks) {
+                    app.callback.onCharacteristicWrite(callbackInfo.address, callbackInfo.status,
+                            callbackInfo.handle, callbackInfo.value);
+                }
             }
         }
     }
@@ -3628,6 +3685,16 @@ public class GattService extends ProfileService {
         mAdvertiseManager.setScanResponseData(advertiserId, data);
     }
 
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
+    void setAdvertisingDataBulk(int[] advertiserIds, AdvertiseData[] advertiseData,
+            AdvertiseData[] scanResponses, AttributionSource attributionSource) {
+        if (!Utils.checkAdvertisePermissionForDataDelivery(
+                this, attributionSource, "GattService setAdvertisingDataBulk")) {
+            return;
+        }
+        mAdvertiseManager.setAdvertisingDataBulk(advertiserIds, advertiseData, scanResponses);
+    }
+
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
     void setAdvertisingParameters(int advertiserId, AdvertisingSetParameters parameters,
             AttributionSource attributionSource) {
@@ -3993,20 +4060,18 @@ public class GattService extends ProfileService {
         permissionCheck(connId, handle);
 
         Log.d(TAG, "writeCharacteristic() - trying to acquire permit.");
-        // Lock the thread until onCharacteristicWrite callback comes back.
-        synchronized (mPermits) {
-            Integer permit = mPermits.get(address);
-            if (permit == null) {
-                Log.d(TAG, "writeCharacteristic() -  atomicBoolean uninitialized!");
-                return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
-            }
+        // Held until the onCharacteristicWrite callback comes back.
+        GattWritePermit permit = mWritePermits.get(address);
+        if (permit == null) {
+            Log.d(TAG, "writeCharacteristic() - permit uninitialized!");
+            return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
+        }
 
-            boolean success = (permit == -1);
-            if (!success) {
-                Log.d(TAG, "writeCharacteristic() - no permit available.");
-                return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
-            }
-            mPermits.put(address, connId);
+        // The connection holding the permit may pipeline further writes, the stack queues them
+        // and executes them one after another.
+        if (!permit.acquire(connId)) {
+            Log.d(TAG, "writeCharacteristic() - no permit available.");
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
         }
 
         mNativeInterface.gattClientWriteCharacteristic(connId, handle, writeType, authReq, value);
@@ -4296,6 +4361,40 @@ public class GattService extends ProfileService {
                 contNumber, supervisionTimeout);
     }
 
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    void setNotificationBatching(int clientIf, String address, int maxDelayMs, int maxBytes,
+            AttributionSource attributionSource) {
+        if (!Utils.checkConnectPermissionForDataDelivery(
+                this, attributionSource, "GattService setNotificationBatching")) {
+            return;
+        }
+
+        if (DBG) {
+            Log.d(TAG, "setNotificationBatching() - address="
+                    + BluetoothUtils.toAnonymizedAddress(address) + ", maxDelayMs=" + maxDelayMs
+                    + ", maxBytes=" + maxBytes);
+        }
+
+        Integer connId = mClientMap.connIdByAddress(clientIf, address);
+        ClientMap.App app = mClientMap.getById(clientIf);
+        if (connId == null || app == null) {
+            Log.w(TAG, "setNotificationBatching() - no connection for clientIf=" + clientIf);
+            return;
+        }
+
+        if (maxDelayMs <= 0) {
+            GattNotificationBatcher batcher = mNotificationBatchers.remove(connId);
+            if (batcher != null) {
+                batcher.close();
+            }
+            return;
+        }
+        mNotificationBatchers
+                .computeIfAbsent(connId, k -> new GattNotificationBatcher(address, app.callback,
+                        new Handler(getMainLooper()), maxDelayMs, maxBytes))
+                .setLimits(maxDelayMs, maxBytes);
+    }
+
     /**************************************************************************
      * Callback functions - SERVER
      *************************************************************************/
@@ -4309,7 +4408,7 @@ public class GattService extends ProfileService {
         }
         ServerMap.App app = mServerMap.getByUuid(uuid);
         if (app != null) {
-            app.id = serverIf;
+            app.setId(serverIf);
             app.linkToDeath(new ServerDeathRecipient(serverIf, app.name));
             app.callback.onServerRegistered(status, serverIf);
         }
@@ -4551,7 +4650,11 @@ public class GattService extends ProfileService {
             if (status == BluetoothGatt.GATT_CONNECTION_CONGESTED) {
                 status = BluetoothGatt.GATT_SUCCESS;
             }
-            app.queueCallback(new CallbackInfo.Builder(address, status).build());
+            CallbackInfo overflow =
+                    app.queueCallback(new CallbackInfo.Builder(address, status).build());
+            if (overflow != null) {
+                app.callback.onNotificationSent(overflow.address, overflow.status);
+            }
         }
     }
 
@@ -4567,11 +4670,13 @@ public class GattService extends ProfileService {
 
         app.isCongested = congested;
         while (!app.isCongested) {
-            CallbackInfo callbackInfo = app.popQueuedCallback();
-            if (callbackInfo == null) {
+            List<CallbackInfo> callbacks = app.drainQueuedCallbacks();
+            if (callbacks.isEmpty()) {
                 return;
             }
-            app.callback.onNotificationSent(callbackInfo.address, callbackInfo.status);
+            for (CallbackInfo callbackInfo : callbacks) {
+                app.callback.onNotificationSent(callbackInfo.address, callbackInfo.status);
+            }
         }
     }
 
@@ -5015,6 +5120,20 @@ public class GattService extends ProfileService {
         }
     }
 
+    /**
+     * Number of writes a client connection may pipeline under the write permit of a device, 1 by
+     * default. Bounded by {@link GattWritePermit#MAX_DEPTH}.
+     */
+    private static int getWritePipelineDepth() {
+        final long callerToken = Binder.clearCallingIdentity();
+        try {
+            return DeviceConfig.getInt(DeviceConfig.NAMESPACE_BLUETOOTH,
+                    "gatt_write_pipeline_depth", GattWritePermit.DEFAULT_DEPTH);
+        } finally {
+            Binder.restoreCallingIdentity(callerToken);
+        }
+    }
+
     /**
      * Ensures the report delay is either 0 or at least the floor value (5000ms)
      *
@@ -5133,6 +5252,11 @@ public class GattService extends ProfileService {
         sb.append("GATT Advertiser Map\n");
         mAdvertiserMap.dumpAdvertiser(sb);
 
+        if (mAdvertiseManager != null) {
+            sb.append("GATT Advertise Manager\n");
+            mAdvertiseManager.dump(sb);
+        }
+
         sb.append("GATT Client Map\n");
         mClientMap.dump(sb);
 
@@ -5141,6 +5265,19 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Handle Map\n");
         mHandleMap.dump(sb);
+
+        sb.append("GATT Database Cache\n");
+        mGattDbCache.dump(sb);
+
+        sb.append("GATT LE Resources\n");
+        mLeResources.dump(sb);
+
+        sb.append("GATT Write Permits\n");
+        for (Map.Entry<String, GattWritePermit> entry : mWritePermits.entrySet()) {
+            sb.append("  " + entry.getKey() + ": ");
+            entry.getValue().dump(sb);
+            sb.append("\n");
+        }
     }
 
     public void addScanEvent(BluetoothMetricsProto.ScanEvent event) {
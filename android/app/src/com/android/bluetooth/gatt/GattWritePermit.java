@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Permit serializing the writeCharacteristic operations of the client connections to one remote
+ * device.
+ *
+ * <p>The permit is held by one connection at a time. The holder may pipeline up to {@code
+ * maxDepth} writes, which the stack executes in order; the permit is free again once all of them
+ * completed. The default depth of 1 allows one write at a time, even for the holder. Acquiring
+ * and releasing never block: the owner and the number of writes in flight are packed in a single
+ * atomic value.
+ *
+ * <p>The time between a write being refused because the permit is busy and the permit being
+ * acquired again is recorded as wait time.
+ *
+ * @hide
+ */
+/* package */ class GattWritePermit {
+    static final int DEFAULT_DEPTH = 1;
+    // Same bound as the operation queue depth of BluetoothGatt.
+    static final int MAX_DEPTH = 32;
+
+    @VisibleForTesting static final int NO_OWNER = -1;
+
+    private static final long FREE = pack(NO_OWNER, 0);
+
+    private final int mMaxDepth;
+    // Owner connId in the upper 32 bits, writes in flight in the lower 32 bits.
+    private final AtomicLong mState = new AtomicLong(FREE);
+
+    // Uptime of the first refusal since the permit was last acquired, 0 if none.
+    private final AtomicLong mBusySinceMs = new AtomicLong();
+    private final AtomicLong mAcquireCount = new AtomicLong();
+    private final AtomicLong mBusyCount = new AtomicLong();
+    private final AtomicLong mTotalWaitMs = new AtomicLong();
+    private final AtomicLong mMaxWaitMs = new AtomicLong();
+
+    GattWritePermit(int maxDepth) {
+        mMaxDepth = Math.min(Math.max(1, maxDepth), MAX_DEPTH);
+    }
+
+    /** Acquires the permit for one more write of {@code connId}, returns false if busy. */
+    boolean acquire(int connId) {
+        while (true) {
+            long state = mState.get();
+            int owner = owner(state);
+            int holds = holds(state);
+            if (owner != NO_OWNER && (owner != connId || holds >= mMaxDepth)) {
+                mBusyCount.incrementAndGet();
+                mBusySinceMs.compareAndSet(0, SystemClock.uptimeMillis());
+                return false;
+            }
+            if (mState.compareAndSet(state, pack(connId, holds + 1))) {
+                mAcquireCount.incrementAndGet();
+                recordWait();
+                return true;
+            }
+        }
+    }
+
+    /** Releases the permit for one completed write of {@code connId}. */
+    void release(int connId) {
+        while (true) {
+            long state = mState.get();
+            if (owner(state) != connId) {
+                return;
+            }
+            int holds = holds(state) - 1;
+            long next = holds > 0 ? pack(connId, holds) : FREE;
+            if (mState.compareAndSet(state, next)) {
+                return;
+            }
+        }
+    }
+
+    /** Frees the permit if {@code connId} holds it, regardless of its writes in flight. */
+    void releaseAll(int connId) {
+        while (true) {
+            long state = mState.get();
+            if (owner(state) != connId || mState.compareAndSet(state, FREE)) {
+                return;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getOwner() {
+        return owner(mState.get());
+    }
+
+    @VisibleForTesting
+    int getHolds() {
+        return holds(mState.get());
+    }
+
+    @VisibleForTesting
+    long getBusyCount() {
+        return mBusyCount.get();
+    }
+
+    @VisibleForTesting
+    long getMaxWaitMs() {
+        return mMaxWaitMs.get();
+    }
+
+    private void recordWait() {
+        long busySinceMs = mBusySinceMs.getAndSet(0);
+        if (busySinceMs == 0) {
+            return;
+        }
+        long waitMs = SystemClock.uptimeMillis() - busySinceMs;
+        mTotalWaitMs.addAndGet(waitMs);
+        mMaxWaitMs.accumulateAndGet(waitMs, Math::max);
+    }
+
+    void dump(StringBuilder sb) {
+        long state = mState.get();
+        sb.append("owner: " + owner(state) + ", in flight: " + holds(state)
+                + ", acquired: " + mAcquireCount.get() + ", busy: " + mBusyCount.get()
+                + ", wait total: " + mTotalWaitMs.get() + "ms, wait max: " + mMaxWaitMs.get()
+                + "ms");
+    }
+
+    private static long pack(int owner, int holds) {
+        return ((long) owner << 32) | (holds & 0xFFFFFFFFL);
+    }
+
+    private static int owner(long state) {
+        return (int) (state >> 32);
+    }
+
+    private static int holds(long state) {
+        return (int) state;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Registry of the LE resources (scanners, clients, servers and advertisers) owned by apps,
+ * indexed by resource id, by the binder of their callback and by the UID of their owner.
+ *
+ * <p>The registry links a single death recipient to each binder. When the binder dies, all the
+ * resources registered with it are removed at once, then released with the action given at
+ * registration.
+ *
+ * @hide
+ */
+/* package */ class LeResourceRegistry {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "LeResourceRegistry";
+
+    static final int TYPE_SCANNER = 0;
+    static final int TYPE_CLIENT = 1;
+    static final int TYPE_SERVER = 2;
+    static final int TYPE_ADVERTISER = 3;
+    private static final int TYPE_COUNT = 4;
+
+    private static final String[] TYPE_NAMES = {"scanners", "clients", "servers", "advertisers"};
+
+    private static final class Resource {
+        final int mType;
+        int mId;
+        final int mUid;
+        final String mPackageName;
+        final IBinder mBinder;
+        final Runnable mOnBinderDied;
+
+        Resource(int type, int id, int uid, String packageName, IBinder binder,
+                Runnable onBinderDied) {
+            mType = type;
+            mId = id;
+            mUid = uid;
+            mPackageName = packageName;
+            mBinder = binder;
+            mOnBinderDied = onBinderDied;
+        }
+    }
+
+    private final class BinderDeathRecipient implements IBinder.DeathRecipient {
+        private final IBinder mBinder;
+
+        BinderDeathRecipient(IBinder binder) {
+            mBinder = binder;
+        }
+
+        @Override
+        public void binderDied() {
+            onBinderDied(mBinder, this);
+        }
+    }
+
+    /** Resources of one binder, and the death recipient linked to it. */
+    private static final class BinderEntry {
+        final BinderDeathRecipient mDeathRecipient;
+        final List<Resource> mResources = new ArrayList<>(1);
+
+        BinderEntry(BinderDeathRecipient deathRecipient) {
+            mDeathRecipient = deathRecipient;
+        }
+    }
+
+    @GuardedBy("this")
+    private final Map<Long, Resource> mResourcesById = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<IBinder, BinderEntry> mResourcesByBinder = new HashMap<>();
+
+    // Number of resources of each type, by owner UID.
+    @GuardedBy("this")
+    private final SparseArray<int[]> mCountsByUid = new SparseArray<>();
+
+    @GuardedBy("this")
+    private long mBinderDeathCount;
+
+    /**
+     * Registers a resource, replacing any resource of the same type and id.
+     *
+     * @param onBinderDied released the resource when {@code binder} dies
+     * @return false if {@code binder} is already dead, in which case nothing is registered
+     */
+    boolean register(int type, int id, int uid, String packageName, IBinder binder,
+            Runnable onBinderDied) {
+        if (binder == null) {
+            return false;
+        }
+        Resource resource = new Resource(type, id, uid, packageName, binder, onBinderDied);
+        unregister(type, id);
+        synchronized (this) {
+            BinderEntry entry = mResourcesByBinder.get(binder);
+            if (entry == null) {
+                BinderDeathRecipient deathRecipient = new BinderDeathRecipient(binder);
+                try {
+                    binder.linkToDeath(deathRecipient, 0);
+                } catch (RemoteException e) {
+                    Log.e(TAG, "Binder of " + packageName + " already dead");
+                    return false;
+                }
+                entry = new BinderEntry(deathRecipient);
+                mResourcesByBinder.put(binder, entry);
+            }
+            entry.mResources.add(resource);
+            mResourcesById.put(key(type, id), resource);
+            counts(uid)[type]++;
+        }
+        return true;
+    }
+
+    /** Unregisters a resource, returns false if it wasn't registered. */
+    boolean unregister(int type, int id) {
+        BinderDeathRecipient unlinked;
+        Resource resource;
+        synchronized (this) {
+            resource = mResourcesById.get(key(type, id));
+            if (resource == null) {
+                return false;
+            }
+            unlinked = removeLocked(key(type, id));
+        }
+        if (unlinked != null) {
+            unlinkToDeath(resource.mBinder, unlinked);
+        }
+        return true;
+    }
+
+    /** Changes the id of a resource, e.g. once its registration with the stack completed. */
+    void updateId(int type, int oldId, int newId) {
+        if (oldId == newId) {
+            return;
+        }
+        unregister(type, newId);
+        synchronized (this) {
+            Resource resource = mResourcesById.remove(key(type, oldId));
+            if (resource != null) {
+                resource.mId = newId;
+                mResourcesById.put(key(type, newId), resource);
+            }
+        }
+    }
+
+    synchronized boolean contains(int type, int id) {
+        return mResourcesById.containsKey(key(type, id));
+    }
+
+    /** Returns the number of resources of {@code type} owned by {@code uid}. */
+    synchronized int getCount(int uid, int type) {
+        int[] counts = mCountsByUid.get(uid);
+        return counts == null ? 0 : counts[type];
+    }
+
+    /** Unregisters all resources. */
+    void clear() {
+        Map<IBinder, BinderEntry> entries;
+        synchronized (this) {
+            entries = new HashMap<>(mResourcesByBinder);
+            mResourcesById.clear();
+            mResourcesByBinder.clear();
+            mCountsByUid.clear();
+        }
+        for (Map.Entry<IBinder, BinderEntry> entry : entries.entrySet()) {
+            unlinkToDeath(entry.getKey(), entry.getValue().mDeathRecipient);
+        }
+    }
+
+    @VisibleForTesting
+    void onBinderDied(IBinder binder, IBinder.DeathRecipient deathRecipient) {
+        List<Resource> resources;
+        synchronized (this) {
+            BinderEntry entry = mResourcesByBinder.get(binder);
+            if (entry == null || entry.mDeathRecipient != deathRecipient) {
+                // Resources already unregistered.
+                return;
+            }
+            mResourcesByBinder.remove(binder);
+            resources = entry.mResources;
+            for (Resource resource : resources) {
+                mResourcesById.remove(key(resource.mType, resource.mId), resource);
+                decrementCountLocked(resource);
+            }
+            mBinderDeathCount++;
+        }
+
+        Log.d(TAG, "Binder is dead - releasing " + resources.size() + " resources of "
+                + resources.get(0).mPackageName);
+        for (Resource resource : resources) {
+            resource.mOnBinderDied.run();
+        }
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("  Resources: " + mResourcesById.size() + ", binders: "
+                + mResourcesByBinder.size() + ", binder deaths: " + mBinderDeathCount + "\n");
+
+        // Package names by UID, for display only.
+        Map<Integer, String> packageNames = new LinkedHashMap<>();
+        for (Resource resource : mResourcesById.values()) {
+            packageNames.putIfAbsent(resource.mUid, resource.mPackageName);
+        }
+        for (int i = 0; i < mCountsByUid.size(); i++) {
+            int uid = mCountsByUid.keyAt(i);
+            int[] counts = mCountsByUid.valueAt(i);
+            sb.append("  UID " + uid + " (" + packageNames.get(uid) + "):");
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                sb.append(" " + TYPE_NAMES[type] + "=" + counts[type]);
+            }
+            sb.append("\n");
+        }
+    }
+
+    /** Removes a resource, returns the death recipient to unlink if it was its binder's last. */
+    @GuardedBy("this")
+    private BinderDeathRecipient removeLocked(long key) {
+        Resource resource = mResourcesById.remove(key);
+        if (resource == null) {
+            return null;
+        }
+        return removeFromBinderLocked(resource);
+    }
+
+    @GuardedBy("this")
+    private BinderDeathRecipient removeFromBinderLocked(Resource resource) {
+        decrementCountLocked(resource);
+        BinderEntry entry = mResourcesByBinder.get(resource.mBinder);
+        if (entry == null) {
+            return null;
+        }
+        entry.mResources.remove(resource);
+        if (!entry.mResources.isEmpty()) {
+            return null;
+        }
+        mResourcesByBinder.remove(resource.mBinder);
+        return entry.mDeathRecipient;
+    }
+
+    @GuardedBy("this")
+    private int[] counts(int uid) {
+        int[] counts = mCountsByUid.get(uid);
+        if (counts == null) {
+            counts = new int[TYPE_COUNT];
+            mCountsByUid.put(uid, counts);
+        }
+        return counts;
+    }
+
+    @GuardedBy("this")
+    private void decrementCountLocked(Resource resource) {
+        int[] counts = mCountsByUid.get(resource.mUid);
+        if (counts == null) {
+            return;
+        }
+        counts[resource.mType]--;
+        for (int count : counts) {
+            if (count > 0) {
+                return;
+            }
+        }
+        mCountsByUid.remove(resource.mUid);
+    }
+
+    private static void unlinkToDeath(IBinder binder, IBinder.DeathRecipient deathRecipient) {
+        try {
+            binder.unlinkToDeath(deathRecipient, 0);
+        } catch (NoSuchElementException e) {
+            Log.e(TAG, "Unable to unlink death recipient");
+        }
+    }
+
+    private static long key(int type, int id) {
+        return ((long) type << 32) | (id & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+import com.android.bluetooth.PackedAddress;
+import com.android.bluetooth.le_scan.ScanClient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Compiled software filter index over the scan filters of all regular scan clients.
+ *
+ * <p>Each filter is bucketed by its most selective exact-match key: device address, unmasked
+ * service UUID or manufacturer ID. Filters without such a key go to a residual list. A lookup
+ * only runs {@link ScanFilter#matches} on the filters whose key is present in the advertisement,
+ * so the cost of a lookup scales with the number of candidate filters rather than with the total
+ * number of registered filters.
+ *
+ * <p>The index is immutable once built and is rebuilt whenever the regular scan queue changes.
+ *
+ * @hide
+ */
+/* package */ class ScanFilterIndex {
+    /** A filter together with the scanner that registered it. */
+    private static class Entry {
+        final int scannerId;
+        final ScanFilter filter;
+
+        Entry(int scannerId, ScanFilter filter) {
+            this.scannerId = scannerId;
+            this.filter = filter;
+        }
+    }
+
+    private final int mGeneration;
+    // Scanner id -> filter list the index was built from, used to detect stale clients.
+    private final Map<Integer, List<ScanFilter>> mIndexedClients = new HashMap<>();
+    // Scanners without any filter match every advertisement.
+    private final Set<Integer> mUnfilteredScanners = new HashSet<>();
+    // By packed device address.
+    private final LongSparseArray<List<Entry>> mByAddress = new LongSparseArray<>();
+    private final Map<UUID, List<Entry>> mByServiceUuid = new HashMap<>();
+    private final SparseArray<List<Entry>> mByManufacturerId = new SparseArray<>();
+    private final List<Entry> mResidual = new ArrayList<>();
+
+    private ScanFilterIndex(int generation) {
+        mGeneration = generation;
+    }
+
+    /**
+     * Compiles the filters of {@code clients} into a new index.
+     *
+     * @param generation the scan queue generation the clients were read at
+     */
+    static ScanFilterIndex build(int generation, Collection<ScanClient> clients) {
+        ScanFilterIndex index = new ScanFilterIndex(generation);
+        for (ScanClient client : clients) {
+            index.add(client);
+        }
+        return index;
+    }
+
+    private void add(ScanClient client) {
+        mIndexedClients.put(client.scannerId, client.filters);
+        if (client.filters == null || client.filters.isEmpty()) {
+            mUnfilteredScanners.add(client.scannerId);
+            return;
+        }
+        for (ScanFilter filter : client.filters) {
+            Entry entry = new Entry(client.scannerId, filter);
+            if (filter.getDeviceAddress() != null) {
+                long address = PackedAddress.fromString(filter.getDeviceAddress());
+                List<Entry> entries = mByAddress.get(address);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    mByAddress.put(address, entries);
+                }
+                entries.add(entry);
+            } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+                mByServiceUuid
+                        .computeIfAbsent(filter.getServiceUuid().getUuid(),
+                                k -> new ArrayList<>())
+                        .add(entry);
+            } else if (filter.getManufacturerId() >= 0) {
+                List<Entry> entries = mByManufacturerId.get(filter.getManufacturerId());
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    mByManufacturerId.put(filter.getManufacturerId(), entries);
+                }
+                entries.add(entry);
+            } else {
+                mResidual.add(entry);
+            }
+        }
+    }
+
+    /** Returns the scan queue generation this index was built from. */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns true if the filters of {@code client} are reflected in this index. A client that
+     * joined or changed its filters after the index was built must be matched directly.
+     */
+    boolean covers(ScanClient client) {
+        return mIndexedClients.containsKey(client.scannerId)
+                && mIndexedClients.get(client.scannerId) == client.filters;
+    }
+
+    /**
+     * Returns the ids of the scanners with at least one filter matching {@code result}, either
+     * directly or through {@code originalAddress}, the identity address of the advertiser.
+     */
+    Set<Integer> match(ScanResult result, String originalAddress) {
+        Set<Integer> matched = new HashSet<>(mUnfilteredScanners);
+
+        BluetoothDevice device = result.getDevice();
+        if (mByAddress.size() > 0) {
+            if (device != null) {
+                matchEntries(mByAddress.get(PackedAddress.fromString(device.getAddress())),
+                        result, originalAddress, matched);
+            }
+            if (originalAddress != null) {
+                matchEntries(mByAddress.get(PackedAddress.fromString(originalAddress)), result,
+                        originalAddress, matched);
+            }
+        }
+
+        ScanRecord record = result.getScanRecord();
+        if (record != null) {
+            if (!mByServiceUuid.isEmpty() && record.getServiceUuids() != null) {
+                for (ParcelUuid uuid : record.getServiceUuids()) {
+                    matchEntries(mByServiceUuid.get(uuid.getUuid()), result, originalAddress,
+                            matched);
+                }
+            }
+            SparseArray<byte[]> manufacturerData = record.getManufacturerSpecificData();
+            if (mByManufacturerId.size() > 0 && manufacturerData != null) {
+                for (int i = 0; i < manufacturerData.size(); i++) {
+                    matchEntries(mByManufacturerId.get(manufacturerData.keyAt(i)), result,
+                            originalAddress, matched);
+                }
+            }
+        }
+
+        matchEntries(mResidual, result, originalAddress, matched);
+        return matched;
+    }
+
+    private static void matchEntries(List<Entry> entries, ScanResult result,
+            String originalAddress, Set<Integer> matched) {
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            if (matched.contains(entry.scannerId)) {
+                continue;
+            }
+            if (entry.filter.matches(result)
+                    || (originalAddress != null
+                            && originalAddress.equalsIgnoreCase(
+                                    entry.filter.getDeviceAddress()))) {
+                matched.add(entry.scannerId);
+            }
+        }
+    }
+}
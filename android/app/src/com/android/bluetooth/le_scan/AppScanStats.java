@@ -38,10 +38,13 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ScanStats class helps keep track of information about scans
@@ -78,8 +81,20 @@ public class AppScanStats {
     @GuardedBy("sLock")
     static long sRadioStartTime = 0;
     static int sRadioScanMode;
-    static boolean sIsRadioStarted = false;
-    static boolean sIsScreenOn = false;
+    // Written under sLock, read without it for every scan result.
+    static volatile boolean sIsRadioStarted = false;
+    static volatile boolean sIsScreenOn = false;
+
+    // Regular scan results not yet added to MetricsLogger, flushed whenever the radio stops, the
+    // screen state changes, or MetricsLogger drains its counters.
+    private static final LongAdder sPendingRadioResultsScreenOn = new LongAdder();
+    private static final LongAdder sPendingRadioResultsScreenOff = new LongAdder();
+    private static final Runnable sRadioResultCountFlusher =
+            () -> {
+                synchronized (sLock) {
+                    flushScanRadioResultCountMetrics();
+                }
+            };
 
     class LastScan {
         public long duration;
@@ -95,7 +110,7 @@ public class AppScanStats {
         public boolean isCallbackScan;
         public boolean isBatchScan;
         public boolean isAutoBatchScan;
-        public int results;
+        public final AtomicInteger results = new AtomicInteger();
         public int scannerId;
         public int scanMode;
         public int scanCallbackType;
@@ -115,7 +130,6 @@ public class AppScanStats {
             this.isAutoBatchScan = false;
             this.scanMode = scanMode;
             this.scanCallbackType = scanCallbackType;
-            this.results = 0;
             this.scannerId = scannerId;
             this.suspendDuration = 0;
             this.suspendStartTime = 0;
@@ -144,10 +158,13 @@ public class AppScanStats {
     private int mLowLantencyScan = 0;
     private int mAmbientDiscoveryScan = 0;
     private List<LastScan> mLastScans = new ArrayList<LastScan>();
-    private HashMap<Integer, LastScan> mOngoingScans = new HashMap<Integer, LastScan>();
+    // Only modified while holding the AppScanStats lock, addResult() reads it without.
+    private final Map<Integer, LastScan> mOngoingScans = new ConcurrentHashMap<>();
     private long startTime = 0;
     private long stopTime = 0;
-    private int results = 0;
+    private final LongAdder mResults = new LongAdder();
+    // Time from receiving a scan result to its delivery to the app, by scan mode.
+    private final Map<Integer, LatencyHistogram> mDeliveryLatencies = new ConcurrentHashMap<>();
 
     public AppScanStats(String name, WorkSource source, ContextMap map, GattService service) {
         appName = name;
@@ -164,21 +181,40 @@ public class AppScanStats {
         mAdapterService = Objects.requireNonNull(AdapterService.getAdapterService());
     }
 
-    public synchronized void addResult(int scannerId) {
-        LastScan scan = getScanFromScannerId(scannerId);
+    /**
+     * Counts a result delivered to a scanner. This is called for every scan result so it doesn't
+     * take the AppScanStats lock.
+     */
+    public void addResult(int scannerId) {
+        LastScan scan = mOngoingScans.get(scannerId);
         if (scan != null) {
-            scan.results++;
-
             // Only update battery stats after receiving 100 new results in order
             // to lower the cost of the binder transaction
-            if (scan.results % 100 == 0) {
+            if (scan.results.incrementAndGet() % 100 == 0) {
                 mBatteryStatsManager.reportBleScanResults(mWorkSource, 100);
                 BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
                         mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), 100);
             }
         }
 
-        results++;
+        mResults.increment();
+    }
+
+    /**
+     * Records the time it took from receiving a scan result at {@code receivedNanos}, in the
+     * {@link SystemClock#elapsedRealtimeNanos()} time base, until it was handed to the scanner.
+     */
+    public void recordResultDelivered(int scannerId, long receivedNanos) {
+        LastScan scan = mOngoingScans.get(scannerId);
+        if (scan == null) {
+            return;
+        }
+        mDeliveryLatencies.computeIfAbsent(scan.scanMode, k -> new LatencyHistogram())
+                .record(SystemClock.elapsedRealtimeNanos() - receivedNanos);
+    }
+
+    LatencyHistogram getDeliveryLatencyHistogram(int scanMode) {
+        return mDeliveryLatencies.get(scanMode);
     }
 
     synchronized boolean isScanning() {
@@ -306,7 +342,7 @@ public class AppScanStats {
                         BluetoothMetricsProto.ScanEvent.ScanTechnologyType.SCAN_TECH_TYPE_LE)
                 .setEventTimeMillis(System.currentTimeMillis())
                 .setInitiator(truncateAppName(appName))
-                .setNumberResults(scan.results)
+                .setNumberResults(scan.results.get())
                 .build();
         mGattService.addScanEvent(scanEvent);
 
@@ -334,10 +370,11 @@ public class AppScanStats {
         // Inform battery stats of any results it might be missing on scan stop
         boolean isUnoptimized =
                 !(scan.isFilterScan || scan.isBackgroundScan || scan.isOpportunisticScan);
-        mBatteryStatsManager.reportBleScanResults(mWorkSource, scan.results % 100);
+        int unreportedResults = scan.results.get() % 100;
+        mBatteryStatsManager.reportBleScanResults(mWorkSource, unreportedResults);
         mBatteryStatsManager.reportBleScanStopped(mWorkSource, isUnoptimized);
         BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_RESULT_RECEIVED,
-                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), scan.results % 100);
+                mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(), unreportedResults);
         BluetoothStatsLog.write(BluetoothStatsLog.BLE_SCAN_STATE_CHANGED,
                 mWorkSourceUtil.getUids(), mWorkSourceUtil.getTags(),
                 BluetoothStatsLog.BLE_SCAN_STATE_CHANGED__STATE__OFF,
@@ -398,6 +435,7 @@ public class AppScanStats {
         synchronized (sLock) {
             sIsRadioStarted = false;
         }
+        MetricsLogger.getInstance().addCounterFlusher(sRadioResultCountFlusher);
     }
 
     static boolean recordScanRadioStart(int scanMode) {
@@ -418,6 +456,7 @@ public class AppScanStats {
                 return false;
             }
             recordScanRadioDurationMetrics();
+            flushScanRadioResultCountMetrics();
             sRadioStartTime = 0;
             sIsRadioStarted = false;
         }
@@ -478,17 +517,32 @@ public class AppScanStats {
     }
 
     public static void recordScanRadioResultCount() {
-        synchronized (sLock) {
-            if (!sIsRadioStarted) {
-                return;
-            }
-            MetricsLogger logger = MetricsLogger.getInstance();
-            logger.cacheCount(BluetoothProtoEnums.LE_SCAN_RESULTS_COUNT_REGULAR, 1);
-            if (sIsScreenOn) {
-                logger.cacheCount(BluetoothProtoEnums.LE_SCAN_RESULTS_COUNT_REGULAR_SCREEN_ON, 1);
-            } else {
-                logger.cacheCount(BluetoothProtoEnums.LE_SCAN_RESULTS_COUNT_REGULAR_SCREEN_OFF, 1);
-            }
+        if (!sIsRadioStarted) {
+            return;
+        }
+        if (sIsScreenOn) {
+            sPendingRadioResultsScreenOn.increment();
+        } else {
+            sPendingRadioResultsScreenOff.increment();
+        }
+    }
+
+    @GuardedBy("sLock")
+    private static void flushScanRadioResultCountMetrics() {
+        long screenOn = sPendingRadioResultsScreenOn.sumThenReset();
+        long screenOff = sPendingRadioResultsScreenOff.sumThenReset();
+        if (screenOn + screenOff == 0) {
+            return;
+        }
+        MetricsLogger logger = MetricsLogger.getInstance();
+        logger.cacheCount(BluetoothProtoEnums.LE_SCAN_RESULTS_COUNT_REGULAR, screenOn + screenOff);
+        if (screenOn > 0) {
+            logger.cacheCount(
+                    BluetoothProtoEnums.LE_SCAN_RESULTS_COUNT_REGULAR_SCREEN_ON, screenOn);
+        }
+        if (screenOff > 0) {
+            logger.cacheCount(
+                    BluetoothProtoEnums.LE_SCAN_RESULTS_COUNT_REGULAR_SCREEN_OFF, screenOff);
         }
     }
 
@@ -520,6 +574,7 @@ public class AppScanStats {
                 recordScanRadioDurationMetrics();
                 sRadioStartTime = SystemClock.elapsedRealtime();
             }
+            flushScanRadioResultCountMetrics();
             recordScreenOnOffMetrics(isScreenOn);
             sIsScreenOn = isScreenOn;
         }
@@ -774,7 +829,13 @@ public class AppScanStats {
                 + oppScan + " / " + lowPowerScan + " / " + balancedScan + " / " + lowLatencyScan
                 + " / " + ambientDiscoveryScan);
         sb.append("\n  Score                                                       : " + Score);
-        sb.append("\n  Total number of results                                     : " + results);
+        sb.append("\n  Total number of results                                     : "
+                + mResults.sum());
+        for (Map.Entry<Integer, LatencyHistogram> entry : mDeliveryLatencies.entrySet()) {
+            sb.append("\n  Result delivery latency (" + scanModeToString(entry.getKey()) + ")");
+            sb.append("\n      └ ");
+            entry.getValue().dumpToString(sb);
+        }
 
         if (!mLastScans.isEmpty()) {
             sb.append("\n  Last " + mLastScans.size()
@@ -797,7 +858,7 @@ public class AppScanStats {
                 if (scan.isFilterScan) {
                     sb.append("Filter ");
                 }
-                sb.append(scan.results + " results");
+                sb.append(scan.results.get() + " results");
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
@@ -847,7 +908,7 @@ public class AppScanStats {
                 if (scan.isSuspended) {
                     sb.append("Suspended ");
                 }
-                sb.append(scan.results + " results");
+                sb.append(scan.results.get() + " results");
                 sb.append(" (" + scan.scannerId + ") ");
                 if (scan.isCallbackScan) {
                     sb.append("CB ");
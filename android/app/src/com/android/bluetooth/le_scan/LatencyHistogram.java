@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.le_scan;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies, with exponential buckets from 1ms to 1s.
+ *
+ * @hide
+ */
+/* package */ class LatencyHistogram {
+    // Upper bounds of the buckets in milliseconds, the last bucket has no upper bound.
+    static final long[] BUCKET_UPPER_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final LongAdder[] mBuckets = new LongAdder[BUCKET_UPPER_BOUNDS_MS.length + 1];
+    private final LongAdder mTotalNanos = new LongAdder();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = new LongAdder();
+        }
+    }
+
+    /** Records one latency sample, negative samples are ignored. */
+    void record(long latencyNanos) {
+        if (latencyNanos < 0) {
+            return;
+        }
+        mBuckets[getBucket(latencyNanos)].increment();
+        mTotalNanos.add(latencyNanos);
+        mMaxNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    long getCount() {
+        long count = 0;
+        for (LongAdder bucket : mBuckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    long getBucketCount(int bucket) {
+        return mBuckets[bucket].sum();
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket holding the given percentile, or
+     * {@link Long#MAX_VALUE} if it falls in the last bucket.
+     */
+    long getPercentileUpperBoundMs(int percentile) {
+        long count = getCount();
+        long threshold = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS_MS.length; i++) {
+            seen += mBuckets[i].sum();
+            if (seen >= threshold) {
+                return BUCKET_UPPER_BOUNDS_MS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void dumpToString(StringBuilder sb) {
+        long count = getCount();
+        if (count == 0) {
+            return;
+        }
+        sb.append("count=").append(count);
+        sb.append(", avg=").append(mTotalNanos.sum() / count / 1000).append("us");
+        sb.append(", max=").append(mMaxNanos.get() / 1000).append("us");
+        sb.append(", p50<").append(formatBound(getPercentileUpperBoundMs(50)));
+        sb.append(", p99<").append(formatBound(getPercentileUpperBoundMs(99)));
+        sb.append(", buckets=[");
+        for (int i = 0; i < mBuckets.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(i < BUCKET_UPPER_BOUNDS_MS.length
+                    ? "<" + BUCKET_UPPER_BOUNDS_MS[i] + "ms:"
+                    : ">=" + BUCKET_UPPER_BOUNDS_MS[i - 1] + "ms:");
+            sb.append(mBuckets[i].sum());
+        }
+        sb.append(']');
+    }
+
+    private static String formatBound(long boundMs) {
+        return boundMs == Long.MAX_VALUE ? "inf" : boundMs + "ms";
+    }
+
+    private static int getBucket(long latencyNanos) {
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS_MS.length; i++) {
+            if (latencyNanos < BUCKET_UPPER_BOUNDS_MS[i] * NANOS_PER_MILLI) {
+                return i;
+            }
+        }
+        return BUCKET_UPPER_BOUNDS_MS.length;
+    }
+}
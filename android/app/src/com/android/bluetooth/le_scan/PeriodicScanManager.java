@@ -22,15 +22,18 @@ import android.bluetooth.le.IPeriodicAdvertisingCallback;
 import android.bluetooth.le.PeriodicAdvertisingReport;
 import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.os.Binder;
 import android.os.IBinder;
 import android.os.IInterface;
 import android.os.RemoteException;
+import android.provider.DeviceConfig;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.gatt.GattServiceConfig;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -54,6 +57,17 @@ public class PeriodicScanManager {
     private static final int PA_SOURCE_LOCAL = 1;
     private static final int PA_SOURCE_REMOTE = 2;
 
+    // Data status of a report fragment followed by more fragments.
+    @VisibleForTesting static final int DATA_INCOMPLETE_MORE = 1;
+    // Largest periodic advertising data, see Core Spec Vol 4, Part E, 7.8.65.
+    @VisibleForTesting static final int MAX_DATA_LENGTH = 1650;
+
+    private static final String CONFIG_REPORT_CHANGES_ONLY = "periodic_scan_report_changes_only";
+
+    // Established syncs by sync handle, kept in step with mSyncs for the report path.
+    final Map<Integer, SyncHandleInfo> mSyncsByHandle = new ConcurrentHashMap<>();
+    private volatile boolean mReportChangesOnly;
+
     /** Constructor of {@link PeriodicScanManager}. */
     public PeriodicScanManager(AdapterService adapterService) {
         if (DBG) {
@@ -62,6 +76,15 @@ public class PeriodicScanManager {
         mAdapter = BluetoothAdapter.getDefaultAdapter();
         mNativeInterface = PeriodicScanNativeInterface.getInstance();
         mNativeInterface.init(this);
+
+        // Need to clear identity to pass device config permission check
+        final long callerToken = Binder.clearCallingIdentity();
+        try {
+            mReportChangesOnly = DeviceConfig.getBoolean(DeviceConfig.NAMESPACE_BLUETOOTH,
+                    CONFIG_REPORT_CHANGES_ONLY, false);
+        } finally {
+            Binder.restoreCallingIdentity(callerToken);
+        }
     }
 
     public void cleanup() {
@@ -70,6 +93,7 @@ public class PeriodicScanManager {
         }
         mNativeInterface.cleanup();
         mSyncs.clear();
+        mSyncsByHandle.clear();
         sTempRegistrationId = -1;
     }
 
@@ -108,6 +132,110 @@ public class PeriodicScanManager {
         }
     }
 
+    /**
+     * Callbacks synced to one sync handle, and the reports received on it.
+     *
+     * <p>Reports are only received on the native callback thread, so the reassembly state is not
+     * locked.
+     */
+    static class SyncHandleInfo {
+        final Map<IBinder, IPeriodicAdvertisingCallback> callbacks = new ConcurrentHashMap<>();
+
+        // Fragments of the report being received. The buffer is reused across reports.
+        private byte[] mBuffer = new byte[0];
+        private int mLength;
+        private boolean mTruncated;
+
+        // Last report delivered, to skip unchanged ones. Cleared from binder threads when a callback
+        // joins, so that it gets the current report even if unchanged.
+        private volatile byte[] mLastData;
+        private int mLastDataStatus;
+        private int mLastHash;
+
+        /**
+         * Adds a fragment, returns the data of the report once complete or null while more
+         * fragments are expected. {@link #getDataStatus} is the status of the returned report.
+         */
+        byte[] reassemble(int dataStatus, byte[] data) {
+            if (data == null) {
+                data = new byte[0];
+            }
+            if (mLength == 0) {
+                mTruncated = dataStatus == PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED;
+                if (dataStatus != DATA_INCOMPLETE_MORE) {
+                    // Report in a single fragment, nothing to copy.
+                    return data;
+                }
+            }
+
+            int length = Math.min(mLength + data.length, MAX_DATA_LENGTH);
+            if (length > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.min(Math.max(length, mBuffer.length * 2),
+                        MAX_DATA_LENGTH));
+            }
+            System.arraycopy(data, 0, mBuffer, mLength, length - mLength);
+            mTruncated |= length < mLength + data.length;
+            mLength = length;
+            if (dataStatus == DATA_INCOMPLETE_MORE) {
+                return null;
+            }
+
+            mTruncated |= dataStatus == PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED;
+            byte[] report = Arrays.copyOf(mBuffer, mLength);
+            mLength = 0;
+            return report;
+        }
+
+        int getDataStatus() {
+            return mTruncated
+                    ? PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED
+                    : PeriodicAdvertisingReport.DATA_COMPLETE;
+        }
+
+        /** Returns whether the report differs from the last one, and records it if so. */
+        boolean updateLastReport(int dataStatus, byte[] data) {
+            int hash = Arrays.hashCode(data);
+            if (mLastData != null
+                    && hash == mLastHash
+                    && dataStatus == mLastDataStatus
+                    && Arrays.equals(data, mLastData)) {
+                return false;
+            }
+            mLastData = data;
+            mLastDataStatus = dataStatus;
+            mLastHash = hash;
+            return true;
+        }
+
+        /** Forgets the last report, so that the next one is delivered even if unchanged. */
+        void resetLastReport() {
+            mLastData = null;
+        }
+    }
+
+    @VisibleForTesting
+    void setReportChangesOnly(boolean reportChangesOnly) {
+        mReportChangesOnly = reportChangesOnly;
+    }
+
+    private void addSyncHandleCallback(int syncHandle, IPeriodicAdvertisingCallback callback) {
+        SyncHandleInfo info = mSyncsByHandle.computeIfAbsent(syncHandle, k -> new SyncHandleInfo());
+        info.callbacks.put(toBinder(callback), callback);
+        // The new callback hasn't received the last report yet.
+        info.resetLastReport();
+    }
+
+    private void removeSyncHandleCallback(int syncHandle, IPeriodicAdvertisingCallback callback) {
+        SyncHandleInfo info = mSyncsByHandle.get(syncHandle);
+        if (info == null) {
+            return;
+        }
+        info.callbacks.remove(toBinder(callback));
+        if (info.callbacks.isEmpty()) {
+            mSyncsByHandle.remove(syncHandle, info);
+        }
+    }
+
     Map.Entry<IBinder, SyncTransferInfo> findSyncTransfer(String address) {
         Map.Entry<IBinder, SyncTransferInfo> entry = null;
         for (Map.Entry<IBinder, SyncTransferInfo> e : mSyncTransfers.entrySet()) {
@@ -197,6 +325,7 @@ public class PeriodicScanManager {
                     e.setValue(new SyncInfo(syncHandle, sid, address, e.getValue().skip,
                                             e.getValue().timeout, e.getValue().deathRecipient,
                                             callback));
+                    addSyncHandleCallback(syncHandle, callback);
                     callback.onSyncEstablished(
                             syncHandle,
                             mAdapter.getRemoteLeDevice(address, addressType),
@@ -222,45 +351,54 @@ public class PeriodicScanManager {
 
     void onSyncReport(int syncHandle, int txPower, int rssi, int dataStatus, byte[] data)
             throws Exception {
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        SyncHandleInfo info = mSyncsByHandle.get(syncHandle);
+        if (info == null) {
             Log.i(TAG, "onSyncReport() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e :syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            PeriodicAdvertisingReport report =
-                    new PeriodicAdvertisingReport(syncHandle, txPower, rssi, dataStatus,
-                            ScanRecord.parseFromBytes(data));
+        byte[] reportData = info.reassemble(dataStatus, data);
+        if (reportData == null) {
+            return;
+        }
+        int reportDataStatus = info.getDataStatus();
+        if (mReportChangesOnly && !info.updateLastReport(reportDataStatus, reportData)) {
+            return;
+        }
+
+        PeriodicAdvertisingReport report =
+                new PeriodicAdvertisingReport(syncHandle, txPower, rssi, reportDataStatus,
+                        ScanRecord.parseFromBytesLazily(reportData));
+        for (IPeriodicAdvertisingCallback callback : info.callbacks.values()) {
             callback.onPeriodicAdvertisingReport(report);
         }
     }
 
     void onSyncLost(int syncHandle) throws Exception {
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        SyncHandleInfo info;
+        synchronized (mSyncs) {
+            info = mSyncsByHandle.remove(syncHandle);
+            if (info != null) {
+                for (IBinder binder : info.callbacks.keySet()) {
+                    mSyncs.remove(binder);
+                }
+            }
+        }
+        if (info == null) {
             Log.i(TAG, "onSyncLost() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e :syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
-            IBinder binder = toBinder(callback);
-            synchronized (mSyncs) {
-                mSyncs.remove(binder);
-            }
+        for (IPeriodicAdvertisingCallback callback : info.callbacks.values()) {
             callback.onSyncLost(syncHandle);
-
         }
     }
 
     void onBigInfoReport(int syncHandle, boolean encrypted) throws Exception {
-        Map<IBinder, SyncInfo> syncMap = findAllSync(syncHandle);
-        if (syncMap.isEmpty()) {
+        SyncHandleInfo info = mSyncsByHandle.get(syncHandle);
+        if (info == null) {
             Log.i(TAG, "onBigInfoReport() - no callback found for syncHandle " + syncHandle);
             return;
         }
-        for (Map.Entry<IBinder, SyncInfo> e : syncMap.entrySet()) {
-            IPeriodicAdvertisingCallback callback = e.getValue().callback;
+        for (IPeriodicAdvertisingCallback callback : info.callbacks.values()) {
             callback.onBigInfoAdvertisingReport(syncHandle, encrypted);
         }
     }
@@ -299,6 +437,7 @@ public class PeriodicScanManager {
                         entry.getValue().skip, entry.getValue().timeout, deathRecipient,
                         callback));
                 if (entry.getValue().id >= 0) {
+                    addSyncHandleCallback(entry.getValue().id, callback);
                     try {
                         callback.onSyncEstablished(
                                 entry.getValue().id,
@@ -335,6 +474,9 @@ public class PeriodicScanManager {
         SyncInfo sync = null;
         synchronized (mSyncs) {
             sync = mSyncs.remove(binder);
+            if (sync != null) {
+                removeSyncHandleCallback(sync.id, callback);
+            }
         }
         if (sync == null) {
             Log.e(TAG, "stopSync() - no client found for callback");
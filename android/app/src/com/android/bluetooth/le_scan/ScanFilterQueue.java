@@ -72,6 +72,30 @@ import java.util.UUID;
         public int tds_flags_mask;
         public int meta_data_type;
         public byte[] meta_data;
+
+        private void appendKey(StringBuilder sb) {
+            sb.append(type).append(',');
+            appendString(sb, address);
+            sb.append(addr_type).append(',');
+            sb.append(Arrays.toString(irk)).append(',');
+            sb.append(uuid).append(',').append(uuid_mask).append(',');
+            appendString(sb, name);
+            sb.append(company).append(',').append(company_mask).append(',');
+            sb.append(ad_type).append(',');
+            sb.append(Arrays.toString(data)).append(',').append(Arrays.toString(data_mask));
+            sb.append(',').append(org_id).append(',').append(tds_flags).append(',');
+            sb.append(tds_flags_mask).append(',').append(meta_data_type).append(',');
+            sb.append(Arrays.toString(meta_data));
+        }
+
+        private static void appendString(StringBuilder sb, String value) {
+            // Length prefixed so that separators inside the value cannot produce collisions.
+            if (value == null) {
+                sb.append("-1,");
+            } else {
+                sb.append(value.length()).append(':').append(value).append(',');
+            }
+        }
     }
 
     private Set<Entry> mEntries = new HashSet<Entry>();
@@ -203,6 +227,22 @@ import java.util.UUID;
         return selc;
     }
 
+    /**
+     * Returns the serialized contents of the queue. Two queues that would program the controller
+     * with identical filters return equal keys, regardless of the order entries were added in.
+     */
+    String getKey() {
+        String[] entryKeys = new String[mEntries.size()];
+        int i = 0;
+        for (Entry entry : mEntries) {
+            StringBuilder sb = new StringBuilder();
+            entry.appendKey(sb);
+            entryKeys[i++] = sb.toString();
+        }
+        Arrays.sort(entryKeys);
+        return String.join("|", entryKeys);
+    }
+
     ScanFilterQueue.Entry[] toArray() {
         return mEntries.toArray(new ScanFilterQueue.Entry[mEntries.size()]);
     }
@@ -64,6 +64,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class that handles Bluetooth LE scan related operations.
@@ -113,6 +114,8 @@ public class ScanManager {
 
     // Timeout for each controller operation.
     private static final int OPERATION_TIME_OUT_MILLIS = 500;
+    // Scan filter commands kept in flight with the controller while programming filters.
+    private static final int MAX_PENDING_FILTER_OPERATIONS = 4;
     private static final int MAX_IS_UID_FOREGROUND_MAP_SIZE = 500;
 
     private int mLastConfiguredScanSetting = Integer.MIN_VALUE;
@@ -132,6 +135,9 @@ public class ScanManager {
     private BluetoothAdapterProxy mBluetoothAdapterProxy;
 
     private Set<ScanClient> mRegularScanClients;
+    // Bumped on every change to mRegularScanClients so that state derived from the queue, such
+    // as the software scan filter index, can tell when it needs to be rebuilt.
+    private final AtomicInteger mRegularScanQueueGeneration = new AtomicInteger();
     private Set<ScanClient> mBatchClients;
     private Set<ScanClient> mSuspendedScanClients;
     private SparseIntArray mPriorityMap = new SparseIntArray();
@@ -209,6 +215,7 @@ public class ScanManager {
 
     public void cleanup() {
         mRegularScanClients.clear();
+        mRegularScanQueueGeneration.incrementAndGet();
         mBatchClients.clear();
         mSuspendedScanClients.clear();
         mScanNative.cleanup();
@@ -258,6 +265,14 @@ public class ScanManager {
         return mRegularScanClients;
     }
 
+    /**
+     * Returns a counter that changes every time a client is added to or removed from the regular
+     * scan queue.
+     */
+    public int getRegularScanQueueGeneration() {
+        return mRegularScanQueueGeneration.get();
+    }
+
     /**
      * Returns the suspended scan queue.
      */
@@ -313,6 +328,11 @@ public class ScanManager {
         mScanNative.callbackDone(scannerId, status);
     }
 
+    /** Called when the controller completed a scan filter enable, add or parameter command. */
+    public void scanFilterCallbackDone(int scannerId, int status) {
+        mScanNative.scanFilterCallbackDone(scannerId, status);
+    }
+
     private void sendMessage(int what, ScanClient client) {
         final ClientHandler handler = mHandler;
         if (handler == null) {
@@ -444,6 +464,7 @@ public class ScanManager {
                 updateScanModeBeforeStart(client);
                 updateScanModeConcurrency(client);
                 mRegularScanClients.add(client);
+                mRegularScanQueueGeneration.incrementAndGet();
                 mScanNative.startRegularScan(client);
                 if (!mScanNative.isOpportunisticScanClient(client)) {
                     mScanNative.configureRegularScanParams();
@@ -978,6 +999,19 @@ public class ScanManager {
         }
     }
 
+    /** A hardware filter index and the number of client filters using it. */
+    private static class FilterSlot {
+        // Contents of the filter, null if the slot is not shared between clients.
+        final String key;
+        final int filterIndex;
+        int refCount = 1;
+
+        FilterSlot(String key, int filterIndex) {
+            this.key = key;
+            this.filterIndex = filterIndex;
+        }
+    }
+
     private class ScanNative {
 
         // Delivery mode defined in bt stack.
@@ -1008,8 +1042,10 @@ public class ScanManager {
         private static final int FILTER_LOGIC_TYPE = 1;
         // Filter indices that are available to user. It's sad we need to maintain filter index.
         private final Deque<Integer> mFilterIndexStack;
-        // Map of scannerId and Filter indices used by client.
-        private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Map of scannerId and Filter slots used by client.
+        private final Map<Integer, Deque<FilterSlot>> mClientFilterSlotMap;
+        // Shareable filter slots currently programmed in the controller, keyed by their contents.
+        private final Map<String, FilterSlot> mSharedFilterSlots = new HashMap<>();
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -1021,7 +1057,7 @@ public class ScanManager {
         ScanNative() {
             mNativeInterface = GattObjectsFactory.getInstance().getScanNativeInterface();
             mFilterIndexStack = new ArrayDeque<Integer>();
-            mClientFilterIndexMap = new HashMap<Integer, Deque<Integer>>();
+            mClientFilterSlotMap = new HashMap<Integer, Deque<FilterSlot>>();
 
             mAlarmManager = mService.getSystemService(AlarmManager.class);
             Intent batchIntent = new Intent(ACTION_REFRESH_BATCHED_SCAN, null);
@@ -1061,10 +1097,34 @@ public class ScanManager {
             // TODO: add a callback for scan failure.
         }
 
+        private void scanFilterCallbackDone(int scannerId, int status) {
+            if (DBG) {
+                Log.d(TAG, "scan filter callback done for scannerId - " + scannerId
+                        + " status - " + status);
+            }
+            mNativeInterface.filterOperationDone();
+        }
+
         private void resetCountDownLatch() {
             mNativeInterface.resetCountDownLatch();
         }
 
+        // Scan filter commands are pipelined: up to MAX_PENDING_FILTER_OPERATIONS are sent to the
+        // controller before waiting for their callbacks, and the caller waits once at the end
+        // with waitForFilterOperations() instead of once per command.
+        private void beginFilterOperation() {
+            if (!mNativeInterface.beginFilterOperation(MAX_PENDING_FILTER_OPERATIONS,
+                    OPERATION_TIME_OUT_MILLIS)) {
+                Log.w(TAG, "Scan filter operation timed out");
+            }
+        }
+
+        private void waitForFilterOperations() {
+            if (!mNativeInterface.waitForFilterOperations(OPERATION_TIME_OUT_MILLIS)) {
+                Log.w(TAG, "Scan filter operations timed out");
+            }
+        }
+
         private boolean waitForCallback() {
             return mNativeInterface.waitForCallback(OPERATION_TIME_OUT_MILLIS);
         }
@@ -1131,7 +1191,7 @@ public class ScanManager {
 
         void startRegularScan(ScanClient client) {
             if (isFilteringSupported() && mFilterIndexStack.isEmpty()
-                    && mClientFilterIndexMap.isEmpty()) {
+                    && mClientFilterSlotMap.isEmpty()) {
                 initFilterIndexStack();
             }
             if (isFilteringSupported()) {
@@ -1366,6 +1426,7 @@ public class ScanManager {
                 }
             }
             mRegularScanClients.remove(client);
+            mRegularScanQueueGeneration.incrementAndGet();
             if (numRegularScanClients() == 0) {
                 if (DBG) {
                     Log.d(TAG, "stop gattClientScanNative");
@@ -1513,33 +1574,42 @@ public class ScanManager {
                 return;
             }
 
-            resetCountDownLatch();
+            beginFilterOperation();
             mNativeInterface.gattClientScanFilterEnable(scannerId, true);
-            waitForCallback();
 
             if (shouldUseAllPassFilter(client)) {
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
-                resetCountDownLatch();
+                beginFilterOperation();
                 // Don't allow Onfound/onlost with all pass
                 configureFilterParamter(scannerId, client, ALL_PASS_FILTER_SELECTION, filterIndex,
                         0);
-                waitForCallback();
             } else {
-                Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
+                Deque<FilterSlot> clientFilterSlots = new ArrayDeque<FilterSlot>();
                 for (ScanFilter filter : client.filters) {
                     ScanFilterQueue queue = new ScanFilterQueue();
                     queue.addScanFilter(filter);
+                    String slotKey = getFilterSlotKey(client, deliveryMode, queue);
+                    FilterSlot slot = (slotKey == null) ? null : mSharedFilterSlots.get(slotKey);
+                    if (slot != null) {
+                        // An identical filter is already programmed. Results are matched against
+                        // each client's own filters in GattService, so the slot can be shared.
+                        slot.refCount++;
+                        clientFilterSlots.add(slot);
+                        continue;
+                    }
                     int featureSelection = queue.getFeatureSelection();
                     int filterIndex = mFilterIndexStack.pop();
+                    slot = new FilterSlot(slotKey, filterIndex);
+                    if (slotKey != null) {
+                        mSharedFilterSlots.put(slotKey, slot);
+                    }
 
-                    resetCountDownLatch();
+                    beginFilterOperation();
                     mNativeInterface.gattClientScanFilterAdd(scannerId, queue.toArray(),
                             filterIndex);
-                    waitForCallback();
 
-                    resetCountDownLatch();
                     if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
                         trackEntries = getNumOfTrackingAdvertisements(client.settings);
                         if (!manageAllocationOfTrackingAdvertisement(trackEntries, true)) {
@@ -1554,13 +1624,15 @@ public class ScanManager {
                             }
                         }
                     }
+                    beginFilterOperation();
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
-                    waitForCallback();
-                    clientFilterIndices.add(filterIndex);
+                    clientFilterSlots.add(slot);
                 }
-                mClientFilterIndexMap.put(scannerId, clientFilterIndices);
+                mClientFilterSlotMap.put(scannerId, clientFilterSlots);
             }
+            // Report the filters as programmed only once every command has completed.
+            waitForFilterOperations();
         }
 
         // Check whether the filter should be added to controller.
@@ -1581,13 +1653,19 @@ public class ScanManager {
         }
 
         private void removeScanFilters(int scannerId) {
-            Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
-            if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
-                for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
-                    mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                    waitForCallback();
+            Deque<FilterSlot> filterSlots = mClientFilterSlotMap.remove(scannerId);
+            if (filterSlots != null) {
+                for (FilterSlot slot : filterSlots) {
+                    // Keep the filter in the controller while other clients still use it.
+                    if (--slot.refCount > 0) {
+                        continue;
+                    }
+                    if (slot.key != null) {
+                        mSharedFilterSlots.remove(slot.key);
+                    }
+                    mFilterIndexStack.add(slot.filterIndex);
+                    beginFilterOperation();
+                    mNativeInterface.gattClientScanFilterParamDelete(scannerId, slot.filterIndex);
                 }
             }
             // Remove if ALL_PASS filters are used.
@@ -1595,6 +1673,7 @@ public class ScanManager {
                     ALL_PASS_FILTER_INDEX_REGULAR_SCAN);
             removeFilterIfExisits(mAllPassBatchClients, scannerId,
                     ALL_PASS_FILTER_INDEX_BATCH_SCAN);
+            waitForFilterOperations();
         }
 
         private void removeFilterIfExisits(Set<Integer> clients, int scannerId, int filterIndex) {
@@ -1604,9 +1683,8 @@ public class ScanManager {
             clients.remove(scannerId);
             // Remove ALL_PASS filter iff no app is using it.
             if (clients.isEmpty()) {
-                resetCountDownLatch();
+                beginFilterOperation();
                 mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                waitForCallback();
             }
         }
 
@@ -1643,13 +1721,43 @@ public class ScanManager {
             if (client.filters == null || client.filters.isEmpty()) {
                 return true;
             }
-            if (client.filters.size() > mFilterIndexStack.size()) {
+            if (getNumOfNewFilterSlots(client) > mFilterIndexStack.size()) {
                 client.stats.recordHwFilterNotAvailableCountMetrics();
                 return true;
             }
             return false;
         }
 
+        // Number of filter indices the client needs on top of the slots it can share.
+        private int getNumOfNewFilterSlots(ScanClient client) {
+            int deliveryMode = getDeliveryMode(client);
+            Set<String> newSlotKeys = new HashSet<>();
+            int numOfNewSlots = 0;
+            for (ScanFilter filter : client.filters) {
+                ScanFilterQueue queue = new ScanFilterQueue();
+                queue.addScanFilter(filter);
+                String slotKey = getFilterSlotKey(client, deliveryMode, queue);
+                if (slotKey == null
+                        || (!mSharedFilterSlots.containsKey(slotKey) && newSlotKeys.add(slotKey))) {
+                    numOfNewSlots++;
+                }
+            }
+            return numOfNewSlots;
+        }
+
+        // Key identifying filters that program the controller identically, or null if the filter
+        // cannot be shared. Onfound/onlost events are reported to the scannerId that added the
+        // filter, so those filters are never shared.
+        private String getFilterSlotKey(ScanClient client, int deliveryMode,
+                ScanFilterQueue queue) {
+            if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
+                return null;
+            }
+            // The remaining filter parameters only depend on the delivery and match mode.
+            int matchMode = (client.settings == null) ? 0 : client.settings.getMatchMode();
+            return deliveryMode + "/" + matchMode + "/" + queue.getKey();
+        }
+
         private void initFilterIndexStack() {
             int maxFiltersSupported =
                     AdapterService.getAdapterService().getNumOfOffloadedScanFilterSupported();
@@ -16,7 +16,11 @@
 
 package com.android.bluetooth.le_scan;
 
+import android.os.SystemClock;
+import android.util.Log;
+
 import com.android.bluetooth.gatt.FilterParams;
+import com.android.internal.annotations.GuardedBy;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +36,11 @@ public class ScanNativeInterface {
 
     private CountDownLatch mLatch;
 
+    // Scan filter commands sent to the controller whose callback has not arrived yet.
+    private final Object mFilterOperationLock = new Object();
+    @GuardedBy("mFilterOperationLock")
+    private int mPendingFilterOperations;
+
     private ScanNativeInterface() {}
 
     /**
@@ -194,4 +203,60 @@ public class ScanNativeInterface {
             return false;
         }
     }
+
+    /**
+     * Reserves a slot for a new scan filter command, waiting while {@code maxPending} commands
+     * are already in flight.
+     *
+     * <p>Returns false if no callback arrived within {@code timeoutMs}. The outstanding commands
+     * are then considered lost and the slot is reserved anyway.
+     */
+    boolean beginFilterOperation(int maxPending, int timeoutMs) {
+        synchronized (mFilterOperationLock) {
+            boolean completed = waitForPendingFilterOperations(maxPending - 1, timeoutMs);
+            mPendingFilterOperations++;
+            return completed;
+        }
+    }
+
+    /** Called when the controller completed a scan filter command, successfully or not. */
+    void filterOperationDone() {
+        synchronized (mFilterOperationLock) {
+            if (mPendingFilterOperations > 0) {
+                mPendingFilterOperations--;
+            }
+            mFilterOperationLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for all in-flight scan filter commands to complete. Returns false on timeout, in
+     * which case the outstanding commands are considered lost.
+     */
+    boolean waitForFilterOperations(int timeoutMs) {
+        synchronized (mFilterOperationLock) {
+            return waitForPendingFilterOperations(0, timeoutMs);
+        }
+    }
+
+    @GuardedBy("mFilterOperationLock")
+    private boolean waitForPendingFilterOperations(int maxPending, int timeoutMs) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        while (mPendingFilterOperations > maxPending) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                Log.w(TAG, "Timed out waiting for " + mPendingFilterOperations
+                        + " scan filter operation(s)");
+                mPendingFilterOperations = 0;
+                return false;
+            }
+            try {
+                mFilterOperationLock.wait(remaining);
+            } catch (InterruptedException e) {
+                mPendingFilterOperations = 0;
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -36,6 +36,7 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
@@ -48,6 +49,7 @@ import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.flags.Flags;
+import com.android.bluetooth.gatt.GattServerNotificationScheduler;
 import com.android.bluetooth.hearingaid.HearingAidService;
 import com.android.bluetooth.le_audio.LeAudioService;
 import com.android.internal.annotations.VisibleForTesting;
@@ -159,6 +161,12 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
     private static final int LOG_NB_EVENTS = 200;
     private final BluetoothEventLogger mEventLogger;
 
+    // Track position moves continuously while seeking, there is no point in notifying every step
+    private static final int TRACK_POSITION_NOTIFY_INTERVAL_MS = 500;
+
+    private final GattServerNotificationScheduler mNotificationScheduler =
+            new GattServerNotificationScheduler(Looper.getMainLooper(), this::sendNotification);
+
     private static String mcsUuidToString(UUID uuid) {
         if (uuid.equals(UUID_PLAYER_NAME)) {
             return "PLAYER_NAME";
@@ -841,9 +849,16 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             }
             if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 ClearUnauthorizedGattOperations(device);
+                mNotificationScheduler.onDeviceDisconnected(device);
             }
         }
 
+        @Override
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            super.onNotificationSent(device, status);
+            mNotificationScheduler.onNotificationSent(device);
+        }
+
         @Override
         public void onServiceAdded(int status, BluetoothGattService service) {
             super.onServiceAdded(status, service);
@@ -1093,6 +1108,13 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                     device, characteristic, confirm);
         }
 
+        public boolean notifyCharacteristicChanged(BluetoothDevice device,
+                BluetoothGattCharacteristic characteristic, boolean confirm, byte[] value) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(
+                            device, characteristic, confirm, value)
+                    == BluetoothStatusCodes.SUCCESS;
+        }
+
         public List<BluetoothDevice> getConnectedDevices() {
             return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
         }
@@ -1133,6 +1155,9 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
         mEventLogger.add("Initializing");
 
+        mNotificationScheduler.setMinInterval(
+                UUID_TRACK_POSITION, TRACK_POSITION_NOTIFY_INTERVAL_MS);
+
         // Init attribute database
         return initGattService(scvUuid);
     }
@@ -1656,6 +1681,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             }
         }
 
+        mNotificationScheduler.clear();
         mBluetoothGattServer.close();
     }
 
@@ -1701,8 +1727,24 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         }
         if (!Arrays.equals(ccc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) return;
 
-        if (VDBG) Log.d(TAG, "notifyCharacteristic: sending notification");
-        mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+        if (VDBG) Log.d(TAG, "notifyCharacteristic: scheduling notification");
+        UUID uuid = characteristic.getUuid();
+        if (uuid.equals(UUID_MEDIA_CONTROL_POINT) || uuid.equals(UUID_SEARCH_CONTROL_POINT)) {
+            // Every request result must reach the client
+            mNotificationScheduler.scheduleUncoalesced(device, characteristic, null);
+        } else {
+            mNotificationScheduler.schedule(device, characteristic, null);
+        }
+    }
+
+    private boolean sendNotification(BluetoothDevice device,
+            BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (mBluetoothGattServer == null) return false;
+        if (value == null) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+        }
+        return mBluetoothGattServer.notifyCharacteristicChanged(
+                device, characteristic, false, value);
     }
 
     private void notifyCharacteristic(
@@ -2291,6 +2333,8 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             }
         }
 
+        mNotificationScheduler.dump(sb);
+
         sb.append("\n\n");
         mEventLogger.dump(sb);
     }
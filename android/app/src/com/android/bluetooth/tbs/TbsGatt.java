@@ -27,6 +27,7 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
@@ -36,6 +37,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothEventLogger;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.gatt.GattServerNotificationScheduler;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -151,6 +153,8 @@ public class TbsGatt {
     private Map<BluetoothDevice, List<GattOpContext>> mPendingGattOperations = new HashMap<>();
     private BluetoothGattServerProxy mBluetoothGattServer;
     private Handler mHandler;
+    private final GattServerNotificationScheduler mNotificationScheduler =
+            new GattServerNotificationScheduler(Looper.getMainLooper(), this::sendNotification);
     private Callback mCallback;
     private AdapterService mAdapterService;
     private HashMap<BluetoothDevice, HashMap<UUID, Short>> mCccDescriptorValues;
@@ -370,10 +374,21 @@ public class TbsGatt {
         if (mBluetoothGattServer == null) {
             return;
         }
+        mNotificationScheduler.clear();
         mBluetoothGattServer.close();
         mBluetoothGattServer = null;
     }
 
+    private boolean sendNotification(BluetoothDevice device,
+            BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (mBluetoothGattServer == null) return false;
+        if (value == null) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+        }
+        return mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false,
+                value) == BluetoothStatusCodes.SUCCESS;
+    }
+
     public Context getContext() {
         return mContext;
     }
@@ -476,18 +491,18 @@ public class TbsGatt {
                 BluetoothGattCharacteristic characteristic, byte[] value) {
             if (getDeviceAuthorization(device) != BluetoothDevice.ACCESS_ALLOWED) return;
             if (value == null) return;
-            if (mBluetoothGattServer != null) {
-                mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false,
-                                                                 value);
-            }
+            mNotificationScheduler.schedule(device, characteristic, value);
         }
 
         private void notifyCharacteristicChanged(BluetoothDevice device,
                 BluetoothGattCharacteristic characteristic) {
             if (getDeviceAuthorization(device) != BluetoothDevice.ACCESS_ALLOWED) return;
 
-            if (mBluetoothGattServer != null) {
-                mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+            if (characteristic.getUuid().equals(UUID_CALL_CONTROL_POINT)) {
+                // Every request result must reach the client
+                mNotificationScheduler.scheduleUncoalesced(device, characteristic, null);
+            } else {
+                mNotificationScheduler.schedule(device, characteristic, null);
             }
         }
 
@@ -1438,9 +1453,16 @@ public class TbsGatt {
             }
             if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 clearUnauthorizedGattOperationss(device);
+                mNotificationScheduler.onDeviceDisconnected(device);
             }
         }
 
+        @Override
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            super.onNotificationSent(device, status);
+            mNotificationScheduler.onNotificationSent(device);
+        }
+
         @Override
         public void onServiceAdded(int status, BluetoothGattService service) {
             if (DBG) {
@@ -1586,6 +1608,7 @@ public class TbsGatt {
 
     public void dump(StringBuilder sb) {
         sb.append("\n\tSilent mode: " + mSilentMode);
+        mNotificationScheduler.dump(sb);
 
         for (Map.Entry<BluetoothDevice, HashMap<UUID, Short>> deviceEntry
                 : mCccDescriptorValues.entrySet()) {
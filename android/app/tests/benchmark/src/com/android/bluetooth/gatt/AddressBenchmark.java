@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.PackedAddress;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the conversions of device addresses between bytes and strings done per scan result, as
+ * {@link PackedAddress} does them and as they were done before it.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class AddressBenchmark {
+
+    private static final byte[] ADDRESS_BYTES = {0x00, 0x11, 0x22, 0x33, (byte) 0xAA, (byte) 0xBB};
+    private static final String ADDRESS = "00:11:22:33:AA:BB";
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void format_legacy() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            String.format("%02X:%02X:%02X:%02X:%02X:%02X", ADDRESS_BYTES[0], ADDRESS_BYTES[1],
+                    ADDRESS_BYTES[2], ADDRESS_BYTES[3], ADDRESS_BYTES[4], ADDRESS_BYTES[5]);
+        }
+    }
+
+    @Test
+    public void format_packed() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            PackedAddress.toString(PackedAddress.fromBytes(ADDRESS_BYTES));
+        }
+    }
+
+    @Test
+    public void parse_legacy() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            byte[] output = new byte[6];
+            for (int i = 0, j = 0; i < ADDRESS.length(); i++) {
+                if (ADDRESS.charAt(i) != ':') {
+                    output[j++] = (byte) Integer.parseInt(ADDRESS.substring(i, i + 2), 16);
+                    i++;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parse_packed() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            PackedAddress.fromString(ADDRESS);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.bluetooth.le_scan.ScanClient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Measures the cost of splitting one batch scan flush of {@code numRecords} results between
+ * {@code numClients} full batch scan clients.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class BatchScanDispatcherBenchmark {
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumClients;
+
+    @Parameterized.Parameter(1)
+    public int mNumRecords;
+
+    private final List<ScanClient> mClients = new ArrayList<>();
+    private final Set<ScanResult> mResults = new HashSet<>();
+
+    @Parameterized.Parameters(name = "clients={0}, records={1}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (int clients : new int[] {1, 8, 32, 64}) {
+            for (int records : new int[] {16, 128, 512}) {
+                params.add(new Object[] {clients, records});
+            }
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < mNumClients; i++) {
+            List<ScanFilter> filters = new ArrayList<>();
+            switch (i % 4) {
+                case 0:
+                    // Unfiltered client.
+                    break;
+                case 1:
+                    filters.add(new ScanFilter.Builder()
+                            .setServiceUuid(ParcelUuid.fromString(String.format(Locale.ROOT,
+                                    "0000%04X-0000-1000-8000-00805F9B34FB", 0xFE00 + i % 16)))
+                            .build());
+                    break;
+                case 2:
+                    filters.add(new ScanFilter.Builder()
+                            .setManufacturerData(0x004C, new byte[] {0x02, 0x15})
+                            .build());
+                    break;
+                default:
+                    filters.add(new ScanFilter.Builder().setDeviceName("device" + i).build());
+                    break;
+            }
+            ScanClient client =
+                    new ScanClient(i, new ScanSettings.Builder().build(), filters, 1000 + i);
+            client.associatedDevices = Arrays.asList(address(i));
+            mClients.add(client);
+        }
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        for (int i = 0; i < mNumRecords; i++) {
+            byte[] advData;
+            if (i % 2 == 0) {
+                // iBeacon
+                advData = new byte[] {0x02, 0x01, 0x06, 0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02,
+                        0x15, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 0, 1, 0, 2,
+                        (byte) 0xC5};
+            } else {
+                advData = new byte[] {0x02, 0x01, 0x06, 0x03, 0x03, (byte) (i % 16), (byte) 0xFE};
+            }
+            mResults.add(new ScanResult(adapter.getRemoteDevice(address(i)),
+                    ScanRecord.parseFromBytesLazily(advData), -60, i));
+        }
+    }
+
+    @Test
+    public void dispatch() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            // Every fourth client only sees results of its associated device.
+            BatchScanDispatcher.dispatch(mClients, mResults, client -> client.scannerId % 4 != 3);
+        }
+    }
+
+    private static String address(int i) {
+        return String.format(Locale.ROOT, "00:11:22:33:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures the cost of decoding a full batch scan report of {@code numRecords} records.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class BatchScanReportDecoderBenchmark {
+
+    private static final long NOW_NANOS = 1_000_000_000_000L;
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumRecords;
+
+    private byte[] mBatchRecord;
+
+    @Parameterized.Parameters(name = "records={0}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (int records : new int[] {16, 128, 512}) {
+            params.add(new Object[] {records});
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        List<byte[]> advertisements =
+                ScanBenchmarkCorpus.advertisements(ScanBenchmarkCorpus.Kind.MIXED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < mNumRecords; i++) {
+            // Address in little endian order.
+            out.write(new byte[] {(byte) i, (byte) (i >> 8), 0x33, 0x22, 0x11, 0x00}, 0, 6);
+            out.write(0); // address type
+            out.write(0); // tx power
+            out.write(-60); // rssi
+            out.write(i); // timestamp
+            out.write(0);
+            byte[] advertisement = advertisements.get(i % advertisements.size());
+            out.write(advertisement.length);
+            out.write(advertisement, 0, advertisement.length);
+            out.write(0); // no scan response
+        }
+        mBatchRecord = out.toByteArray();
+    }
+
+    @Test
+    public void decodeFull() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            BatchScanReportDecoder.decodeFull(mNumRecords, mBatchRecord, NOW_NANOS);
+        }
+    }
+}
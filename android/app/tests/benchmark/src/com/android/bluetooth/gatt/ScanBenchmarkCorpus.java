@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import com.android.bluetooth.le_scan.ScanClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Advertisements and scanner populations shared by the scan path benchmarks.
+ *
+ * <p>The corpus mixes the advertisements most commonly seen in the field: iBeacon, Eddystone,
+ * Fast Pair and LE Audio broadcast sources.
+ */
+public final class ScanBenchmarkCorpus {
+    /** Kind of advertisement a benchmark runs over. */
+    public enum Kind {
+        IBEACON,
+        EDDYSTONE,
+        FAST_PAIR,
+        LE_AUDIO_BROADCAST,
+        MIXED,
+    }
+
+    public static final ParcelUuid EDDYSTONE_UUID =
+            ParcelUuid.fromString("0000FEAA-0000-1000-8000-00805F9B34FB");
+    public static final ParcelUuid FAST_PAIR_UUID =
+            ParcelUuid.fromString("0000FE2C-0000-1000-8000-00805F9B34FB");
+    public static final ParcelUuid BROADCAST_AUDIO_ANNOUNCEMENT_UUID =
+            ParcelUuid.fromString("00001852-0000-1000-8000-00805F9B34FB");
+    public static final int APPLE_COMPANY_ID = 0x004C;
+    public static final String BROADCAST_NAME = "Lounge TV";
+
+    private static final byte[] IBEACON = new byte[] {
+            0x02, 0x01, 0x06, // flags
+            0x1A, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15, // Apple, iBeacon
+            0x74, 0x27, 0x8B, (byte) 0xDA, (byte) 0xB6, 0x44, 0x45, 0x20, // proximity UUID
+            (byte) 0x8F, 0x0C, 0x72, 0x0E, (byte) 0xAF, 0x05, (byte) 0x99, 0x35,
+            0x00, 0x01, // major
+            0x00, 0x02, // minor
+            (byte) 0xC5}; // measured power
+
+    private static final byte[] EDDYSTONE_UID = new byte[] {
+            0x02, 0x01, 0x06, // flags
+            0x03, 0x03, (byte) 0xAA, (byte) 0xFE, // complete 16-bit UUIDs
+            0x17, 0x16, (byte) 0xAA, (byte) 0xFE, // service data
+            0x00, (byte) 0xEE, // UID frame, tx power
+            0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A, // namespace
+            0x0B, 0x0C, 0x0D, 0x0E, 0x0F, 0x10, // instance
+            0x00, 0x00}; // reserved
+
+    private static final byte[] EDDYSTONE_URL = new byte[] {
+            0x02, 0x01, 0x06, // flags
+            0x03, 0x03, (byte) 0xAA, (byte) 0xFE, // complete 16-bit UUIDs
+            0x0E, 0x16, (byte) 0xAA, (byte) 0xFE, // service data
+            0x10, (byte) 0xEE, 0x03, // URL frame, tx power, https://
+            'a', 'n', 'd', 'r', 'o', 'i', 'd', 0x07}; // android.com
+
+    private static final byte[] FAST_PAIR = new byte[] {
+            0x02, 0x01, 0x06, // flags
+            0x03, 0x03, 0x2C, (byte) 0xFE, // complete 16-bit UUIDs
+            0x06, 0x16, 0x2C, (byte) 0xFE, 0x00, (byte) 0xB7, 0x27, // model id
+            0x02, 0x0A, (byte) 0xF6}; // tx power
+
+    private static final byte[] LE_AUDIO_BROADCAST = new byte[] {
+            0x02, 0x01, 0x06, // flags
+            0x06, 0x16, 0x52, 0x18, 0x11, 0x22, 0x33, // broadcast audio announcement
+            0x05, 0x16, 0x56, 0x18, 0x02, 0x00, // public broadcast announcement
+            0x0A, 0x30, 'L', 'o', 'u', 'n', 'g', 'e', ' ', 'T', 'V'}; // broadcast name
+
+    private ScanBenchmarkCorpus() {}
+
+    /** Returns the advertising data of the given kind. */
+    public static List<byte[]> advertisements(Kind kind) {
+        switch (kind) {
+            case IBEACON:
+                return Arrays.asList(IBEACON);
+            case EDDYSTONE:
+                return Arrays.asList(EDDYSTONE_UID, EDDYSTONE_URL);
+            case FAST_PAIR:
+                return Arrays.asList(FAST_PAIR);
+            case LE_AUDIO_BROADCAST:
+                return Arrays.asList(LE_AUDIO_BROADCAST);
+            default:
+                return Arrays.asList(
+                        IBEACON, EDDYSTONE_UID, FAST_PAIR, EDDYSTONE_URL, LE_AUDIO_BROADCAST);
+        }
+    }
+
+    /** Returns {@code count} scan results from distinct devices, cycling through the corpus. */
+    public static List<ScanResult> scanResults(Kind kind, int count) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        List<byte[]> advertisements = advertisements(kind);
+        List<ScanResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new ScanResult(adapter.getRemoteDevice(address(i)),
+                    ScanRecord.parseFromBytes(advertisements.get(i % advertisements.size())),
+                    -60 - i % 30, i));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the filter typically registered by the {@code i}th scanner of a population, or
+     * {@code null} for an unfiltered scanner.
+     */
+    public static ScanFilter filter(int i) {
+        switch (i % 6) {
+            case 0:
+                return new ScanFilter.Builder()
+                        .setManufacturerData(APPLE_COMPANY_ID, new byte[] {0x02, 0x15})
+                        .build();
+            case 1:
+                return new ScanFilter.Builder().setServiceUuid(EDDYSTONE_UUID).build();
+            case 2:
+                return new ScanFilter.Builder()
+                        .setServiceData(FAST_PAIR_UUID, new byte[0])
+                        .build();
+            case 3:
+                return new ScanFilter.Builder()
+                        .setServiceData(BROADCAST_AUDIO_ANNOUNCEMENT_UUID, new byte[0])
+                        .build();
+            case 4:
+                return new ScanFilter.Builder().setDeviceAddress(address(i)).build();
+            default:
+                return null;
+        }
+    }
+
+    /** Returns a population of {@code count} regular scanners using {@link #filter(int)}. */
+    public static List<ScanClient> scanClients(int count) {
+        List<ScanClient> clients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<ScanFilter> filters = new ArrayList<>();
+            ScanFilter filter = filter(i);
+            if (filter != null) {
+                filters.add(filter);
+            }
+            clients.add(new ScanClient(i, new ScanSettings.Builder().build(), filters, 1000 + i));
+        }
+        return clients;
+    }
+
+    /** Returns the address of the {@code i}th device. */
+    public static String address(int i) {
+        return String.format(Locale.ROOT, "00:11:22:33:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF);
+    }
+}
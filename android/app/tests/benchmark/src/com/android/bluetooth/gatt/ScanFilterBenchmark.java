@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures the cost of matching one advertisement against one {@link ScanFilter}.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanFilterBenchmark {
+
+    private static final int NUM_RESULTS = 64;
+    // One filter of each kind registered by ScanBenchmarkCorpus.scanClients().
+    private static final int NUM_FILTER_KINDS = 5;
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mFilterKind;
+
+    private ScanFilter mFilter;
+    private ScanResult[] mResults;
+
+    @Parameterized.Parameters(name = "filter={0}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (int i = 0; i < NUM_FILTER_KINDS; i++) {
+            params.add(new Object[] {i});
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        mFilter = ScanBenchmarkCorpus.filter(mFilterKind);
+        mResults = ScanBenchmarkCorpus.scanResults(ScanBenchmarkCorpus.Kind.MIXED, NUM_RESULTS)
+                .toArray(new ScanResult[0]);
+    }
+
+    @Test
+    public void matches() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mFilter.matches(mResults[i++ % mResults.length]);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanRecord;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures the cost of parsing the advertising data of one advertisement.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanRecordBenchmark {
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public ScanBenchmarkCorpus.Kind mKind;
+
+    private byte[][] mAdvertisements;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (ScanBenchmarkCorpus.Kind kind : ScanBenchmarkCorpus.Kind.values()) {
+            params.add(new Object[] {kind});
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        mAdvertisements = ScanBenchmarkCorpus.advertisements(mKind).toArray(new byte[0][]);
+    }
+
+    @Test
+    public void parseFromBytes() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            ScanRecord.parseFromBytes(mAdvertisements[i++ % mAdvertisements.length]);
+        }
+    }
+
+    @Test
+    public void parseFromBytesLazily() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            ScanRecord.parseFromBytesLazily(mAdvertisements[i++ % mAdvertisements.length]);
+        }
+    }
+
+    @Test
+    public void parseFromBytesLazily_getServiceData() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            ScanRecord.parseFromBytesLazily(mAdvertisements[i++ % mAdvertisements.length])
+                    .getServiceData();
+        }
+    }
+}
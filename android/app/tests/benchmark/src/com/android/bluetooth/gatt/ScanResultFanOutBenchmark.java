@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.bluetooth.le_scan.ScanClient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures the cost of finding the scanners one advertisement must be delivered to, as done by
+ * {@link GattService#onScanResultInternal} for every advertisement.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanResultFanOutBenchmark {
+
+    private static final int NUM_RESULTS = 64;
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumClients;
+
+    @Parameterized.Parameter(1)
+    public ScanBenchmarkCorpus.Kind mKind;
+
+    private List<ScanClient> mClients;
+    private ScanResult[] mResults;
+
+    @Parameterized.Parameters(name = "clients={0}, kind={1}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (int clients : new int[] {1, 8, 32, 64}) {
+            for (ScanBenchmarkCorpus.Kind kind : ScanBenchmarkCorpus.Kind.values()) {
+                params.add(new Object[] {clients, kind});
+            }
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        mClients = ScanBenchmarkCorpus.scanClients(mNumClients);
+        mResults = ScanBenchmarkCorpus.scanResults(mKind, NUM_RESULTS).toArray(new ScanResult[0]);
+    }
+
+    /** Every scanner's filters are evaluated separately, as before ScanFilterIndex. */
+    @Test
+    public void matchPerClient() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            ScanResult result = mResults[i++ % mResults.length];
+            for (ScanClient client : mClients) {
+                matchesFilters(client, result);
+            }
+        }
+    }
+
+    @Test
+    public void matchFilterIndex() {
+        ScanFilterIndex filterIndex = ScanFilterIndex.build(0, mClients);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            filterIndex.match(mResults[i++ % mResults.length], null);
+        }
+    }
+
+    private static boolean matchesFilters(ScanClient client, ScanResult result) {
+        if (client.filters == null || client.filters.isEmpty()) {
+            return true;
+        }
+        for (ScanFilter filter : client.filters) {
+            if (filter.matches(result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.le_scan;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.BatteryStatsManager;
+import android.os.WorkSource;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.gatt.GattService;
+import com.android.internal.app.IBatteryStats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures the cost of accounting one delivered scan result in {@link AppScanStats} while
+ * {@code numScanners} scanners of the same app are running.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class AppScanStatsBenchmark {
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumScanners;
+
+    private AdapterService mAdapterService;
+    private AppScanStats mAppScanStats;
+
+    @Parameterized.Parameters(name = "scanners={0}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (int scanners : new int[] {1, 8, 32, 64}) {
+            params.add(new Object[] {scanners});
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        mAdapterService = mock(AdapterService.class);
+        AdapterService.setAdapterService(mAdapterService);
+        GattService gattService = mock(GattService.class);
+        // BatteryStatsManager is final, mock the underlying binder calls instead.
+        doReturn(new BatteryStatsManager(mock(IBatteryStats.class)))
+                .when(gattService)
+                .getSystemService(Context.BATTERY_STATS_SERVICE);
+        doReturn(Context.BATTERY_STATS_SERVICE)
+                .when(gattService)
+                .getSystemServiceName(BatteryStatsManager.class);
+
+        mAppScanStats = new AppScanStats("benchmark", new WorkSource(), null, gattService);
+        ScanSettings settings = new ScanSettings.Builder().build();
+        for (int i = 0; i < mNumScanners; i++) {
+            mAppScanStats.recordScanStart(settings, new ArrayList<>(), false, true, i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        AdapterService.clearAdapterService(mAdapterService);
+    }
+
+    @Test
+    public void addResult() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mAppScanStats.addResult(i++ % mNumScanners);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test cases for {@link PackedAddress}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PackedAddressTest {
+
+    private static final String ADDRESS = "00:11:22:AA:BB:FF";
+    private static final long PACKED = 0x001122AABBFFL;
+    private static final byte[] BYTES = {0x00, 0x11, 0x22, (byte) 0xAA, (byte) 0xBB, (byte) 0xFF};
+
+    @Test
+    public void fromString_upperAndLowerCase() {
+        assertThat(PackedAddress.fromString(ADDRESS)).isEqualTo(PACKED);
+        assertThat(PackedAddress.fromString("00:11:22:aa:bb:ff")).isEqualTo(PACKED);
+    }
+
+    @Test
+    public void fromString_malformed_returnsInvalid() {
+        assertThat(PackedAddress.fromString(null)).isEqualTo(PackedAddress.INVALID);
+        assertThat(PackedAddress.fromString("00:11:22:AA:BB")).isEqualTo(PackedAddress.INVALID);
+        assertThat(PackedAddress.fromString("00-11-22-AA-BB-FF")).isEqualTo(PackedAddress.INVALID);
+        assertThat(PackedAddress.fromString("00:11:22:AA:BB:FG")).isEqualTo(PackedAddress.INVALID);
+    }
+
+    @Test
+    public void fromBytes_matchesString() {
+        assertThat(PackedAddress.fromBytes(BYTES)).isEqualTo(PACKED);
+        assertThat(PackedAddress.fromBytes(new byte[] {1, 2})).isEqualTo(PackedAddress.INVALID);
+        assertThat(PackedAddress.fromBytes(null)).isEqualTo(PackedAddress.INVALID);
+    }
+
+    @Test
+    public void fromReversedBytes_readsLittleEndianAtOffset() {
+        byte[] data = {0x7F, (byte) 0xFF, (byte) 0xBB, (byte) 0xAA, 0x22, 0x11, 0x00};
+
+        assertThat(PackedAddress.fromReversedBytes(data, 1)).isEqualTo(PACKED);
+    }
+
+    @Test
+    public void toStringAndToBytes_roundTrip() {
+        assertThat(PackedAddress.toString(PACKED)).isEqualTo(ADDRESS);
+        assertThat(PackedAddress.toBytes(PACKED)).isEqualTo(BYTES);
+        assertThat(PackedAddress.toString(PackedAddress.INVALID)).isNull();
+        assertThat(PackedAddress.toBytes(PackedAddress.INVALID)).isNull();
+    }
+
+    @Test
+    public void utils_matchLegacyConversions() {
+        assertThat(Utils.getAddressStringFromByte(BYTES)).isEqualTo(ADDRESS);
+        assertThat(Utils.getBytesFromAddress(ADDRESS)).isEqualTo(BYTES);
+        assertThat(Utils.getBytesFromAddress("001122AABBFF")).isEqualTo(BYTES);
+    }
+}
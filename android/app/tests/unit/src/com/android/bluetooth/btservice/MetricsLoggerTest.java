@@ -177,6 +177,22 @@ public class MetricsLoggerTest {
                 1L, mTestableMetricsLogger.mTestableCounters.get(3).longValue());
     }
 
+    @Test
+    public void testDrainRunsCounterFlushers() {
+        mTestableMetricsLogger.init(mMockAdapterService);
+        Runnable flusher = () -> mTestableMetricsLogger.cacheCount(1, 4);
+        mTestableMetricsLogger.addCounterFlusher(flusher);
+        mTestableMetricsLogger.addCounterFlusher(flusher);
+
+        mTestableMetricsLogger.drainBufferedCounters();
+        Assert.assertEquals(4L, mTestableMetricsLogger.mTestableCounters.get(1).longValue());
+
+        mTestableMetricsLogger.removeCounterFlusher(flusher);
+        mTestableMetricsLogger.mTestableCounters.clear();
+        mTestableMetricsLogger.drainBufferedCounters();
+        Assert.assertFalse(mTestableMetricsLogger.mTestableCounters.containsKey(1));
+    }
+
     @Test
     public void testAddAndSendCountersCornerCases() {
         mTestableMetricsLogger.init(mMockAdapterService);
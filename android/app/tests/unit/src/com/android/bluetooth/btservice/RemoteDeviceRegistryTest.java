@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/** Test cases for {@link RemoteDeviceRegistry}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RemoteDeviceRegistryTest {
+
+    private static final int CAPACITY = 3;
+
+    private final Set<String> mPinned = new HashSet<>();
+    private final RemoteDeviceRegistry<String> mRegistry =
+            new RemoteDeviceRegistry<>(mPinned::contains, () -> CAPACITY);
+
+    @Test
+    public void put_beyondCapacity_evictsOldestUnused() {
+        add(1, 2, 3);
+        mRegistry.get(1L);
+
+        add(4);
+
+        assertThat(mRegistry.size()).isEqualTo(CAPACITY);
+        assertThat(mRegistry.get(1L)).isEqualTo("1");
+        assertThat(mRegistry.get(2L)).isNull();
+        assertThat(mRegistry.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_beyondCapacity_keepsPinnedDevices() {
+        mPinned.add("1");
+        mPinned.add("2");
+        add(1, 2, 3, 4);
+
+        assertThat(mRegistry.get(1L)).isEqualTo("1");
+        assertThat(mRegistry.get(2L)).isEqualTo("2");
+        assertThat(mRegistry.get(3L)).isNull();
+    }
+
+    @Test
+    public void put_onlyPinnedDevices_exceedsCapacity() {
+        mPinned.add("1");
+        mPinned.add("2");
+        mPinned.add("3");
+        mPinned.add("4");
+        add(1, 2, 3, 4);
+
+        assertThat(mRegistry.size()).isEqualTo(4);
+        assertThat(mRegistry.getEvictionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void remove_thenPut_doesNotEvictNewDevice() {
+        add(1, 2, 3);
+        mRegistry.remove(1L);
+        mRegistry.put(1L, "1");
+
+        add(4);
+
+        assertThat(mRegistry.get(1L)).isEqualTo("1");
+        assertThat(mRegistry.get(2L)).isNull();
+    }
+
+    @Test
+    public void put_pinnedDevicesBeyondCapacity_doesNotRescanThemOnEveryPut() {
+        int[] pinnedTests = new int[1];
+        RemoteDeviceRegistry<String> registry =
+                new RemoteDeviceRegistry<>(
+                        value -> {
+                            pinnedTests[0]++;
+                            return mPinned.contains(value);
+                        },
+                        () -> CAPACITY);
+        int pinnedCount = 10 * CAPACITY;
+        for (long address = 0; address < pinnedCount; address++) {
+            mPinned.add(Long.toString(address));
+            registry.put(address, Long.toString(address));
+        }
+
+        pinnedTests[0] = 0;
+        int newCount = 10 * pinnedCount;
+        for (long address = pinnedCount; address < pinnedCount + newCount; address++) {
+            registry.put(address, Long.toString(address));
+        }
+
+        // One test of the new device, plus each pinned device once per pinnedCount additions.
+        assertThat(pinnedTests[0]).isAtMost(3 * newCount);
+        assertThat(registry.size()).isEqualTo(pinnedCount);
+        assertThat(registry.get(0L)).isEqualTo("0");
+    }
+
+    @Test
+    public void put_unpinnedAfterBeingSetAside_isEvictedLater() {
+        mPinned.add("1");
+        add(1, 2, 3, 4);
+        mPinned.remove("1");
+
+        add(5, 6, 7, 8);
+
+        assertThat(mRegistry.get(1L)).isNull();
+        assertThat(mRegistry.size()).isEqualTo(CAPACITY);
+    }
+
+    private void add(long... addresses) {
+        for (long address : addresses) {
+            mRegistry.put(address, Long.toString(address));
+        }
+    }
+}
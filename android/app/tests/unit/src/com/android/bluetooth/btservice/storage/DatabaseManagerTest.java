@@ -118,6 +118,8 @@ public final class DatabaseManagerTest {
                 InstrumentationRegistry.getTargetContext().getPackageManager());
 
         mDatabaseManager = new DatabaseManager(mAdapterService);
+        // Write changes right away, so that tests only need to wait for the handler.
+        mDatabaseManager.setWriteBehindDelayMs(0);
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
@@ -1511,6 +1513,100 @@ public final class DatabaseManagerTest {
                 CoreMatchers.is(data));
     }
 
+    @Test
+    public void testUpdateDatabase_coalescesWritesOfSameDevice() {
+        mDatabaseManager.setWriteBehindDelayMs(60000);
+
+        mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY);
+        mDatabaseManager.setCustomMeta(mTestDevice, 1, TEST_BYTE_ARRAY);
+        mDatabaseManager.setCustomMeta(mTestDevice2, 0, TEST_BYTE_ARRAY);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Nothing written before the write-behind delay
+        Assert.assertEquals(2, mDatabaseManager.getPendingWriteCount());
+        Assert.assertEquals(0, mDatabase.load().size());
+
+        mDatabaseManager.flushPendingWrites();
+
+        Assert.assertEquals(0, mDatabaseManager.getPendingWriteCount());
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(2, list.size());
+        for (Metadata data : list) {
+            Assert.assertArrayEquals(TEST_BYTE_ARRAY, data.getCustomizedMeta(0));
+        }
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
+    @Test
+    public void testDeleteDatabase_dropsPendingWrite() {
+        mDatabaseManager.setWriteBehindDelayMs(60000);
+
+        mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY);
+        mDatabaseManager.deleteDatabase(mDatabaseManager.mMetadataCache.get(TEST_BT_ADDR));
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        Assert.assertEquals(0, mDatabaseManager.getPendingWriteCount());
+        mDatabaseManager.flushPendingWrites();
+        Assert.assertEquals(0, mDatabase.load().size());
+
+        mDatabaseManager.mMetadataCache.clear();
+    }
+
+    @Test
+    public void testFactoryReset_flushesPendingWritesFirst() {
+        mDatabaseManager.setWriteBehindDelayMs(60000);
+
+        mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY);
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        Assert.assertEquals(0, mDatabaseManager.getPendingWriteCount());
+        Assert.assertEquals(0, mDatabase.load().size());
+    }
+
+    @Test
+    public void testLoadDatabase_loadsRecentAndActiveDevicesFirst() {
+        // The least recent device is the active A2DP device, the next one is not needed for
+        // auto-connect.
+        int count = DatabaseManager.RECENT_DEVICES_LOAD_COUNT + 2;
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String address = String.format("00:01:02:03:04:%02X", i);
+            Metadata data = new Metadata(address);
+            data.last_active_time = i;
+            data.is_active_a2dp_device = i == 0;
+            mDatabase.insert(data);
+            addresses.add(0, address);
+        }
+
+        restartDatabaseManagerHelper();
+
+        List<String> recent = new ArrayList<>();
+        for (Metadata data : mDatabase.loadRecent(DatabaseManager.RECENT_DEVICES_LOAD_COUNT)) {
+            recent.add(data.getAddress());
+        }
+        Truth.assertThat(recent).contains(addresses.get(count - 1));
+        Truth.assertThat(recent).doesNotContain(addresses.get(count - 2));
+        Truth.assertThat(recent).hasSize(DatabaseManager.RECENT_DEVICES_LOAD_COUNT + 1);
+
+        // All the devices are cached once loaded, most recent first.
+        List<String> cached = new ArrayList<>();
+        for (BluetoothDevice device : mDatabaseManager.getMostRecentlyConnectedDevices()) {
+            cached.add(device.getAddress());
+        }
+        Truth.assertThat(cached).containsExactlyElementsIn(addresses).inOrder();
+        Assert.assertEquals(MetadataCache.LOADED, mDatabaseManager.mMetadataCache.getLoadState());
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     void restartDatabaseManagerHelper() {
         Metadata data = new Metadata(LOCAL_STORAGE);
         data.migrated = true;
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test cases for {@link MetadataCache}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MetadataCacheTest {
+
+    private static final String ADDRESS_1 = "00:01:02:03:04:05";
+    private static final String ADDRESS_2 = "00:01:02:03:04:06";
+    private static final String ADDRESS_3 = "00:01:02:03:04:07";
+
+    private final MetadataCache mCache = new MetadataCache();
+
+    @Test
+    public void get_unknownOrNullAddress_returnsNull() {
+        assertThat(mCache.get(ADDRESS_1)).isNull();
+        assertThat(mCache.get(null)).isNull();
+        assertThat(mCache.containsKey(null)).isFalse();
+    }
+
+    @Test
+    public void getMostRecent_orderedByLastActiveTime() {
+        Metadata data1 = metadata(ADDRESS_1, 3);
+        Metadata data2 = metadata(ADDRESS_2, 7);
+        Metadata data3 = metadata(ADDRESS_3, 5);
+        mCache.put(ADDRESS_1, data1);
+        mCache.put(ADDRESS_2, data2);
+        mCache.put(ADDRESS_3, data3);
+
+        assertThat(mCache.getMostRecent()).containsExactly(data2, data3, data1).inOrder();
+        assertThat(mCache.getMostRecent(2)).containsExactly(data2, data3).inOrder();
+    }
+
+    @Test
+    public void updateLastActiveTime_movesDevice() {
+        Metadata data1 = metadata(ADDRESS_1, 1);
+        Metadata data2 = metadata(ADDRESS_2, 2);
+        mCache.put(ADDRESS_1, data1);
+        mCache.put(ADDRESS_2, data2);
+
+        data1.last_active_time = 3;
+        mCache.updateLastActiveTime(data1);
+
+        assertThat(mCache.getMostRecent()).containsExactly(data1, data2).inOrder();
+    }
+
+    @Test
+    public void updateLastActiveTime_unchanged_keepsDevice() {
+        Metadata data1 = metadata(ADDRESS_1, 1);
+        mCache.put(ADDRESS_1, data1);
+
+        mCache.updateLastActiveTime(data1);
+
+        assertThat(mCache.getMostRecent()).containsExactly(data1);
+    }
+
+    @Test
+    public void getMostRecent_whileReindexing_alwaysReturnsEveryDevice() throws Exception {
+        Metadata data1 = metadata(ADDRESS_1, 1);
+        Metadata data2 = metadata(ADDRESS_2, 2);
+        mCache.put(ADDRESS_1, data1);
+        mCache.put(ADDRESS_2, data2);
+
+        Thread writer =
+                new Thread(
+                        () -> {
+                            for (int i = 3; i < 10_000; i++) {
+                                synchronized (mCache) {
+                                    data1.last_active_time = i;
+                                    mCache.updateLastActiveTime(data1);
+                                }
+                            }
+                        });
+        writer.start();
+        while (writer.isAlive()) {
+            assertThat(mCache.getMostRecent()).containsExactly(data1, data2);
+        }
+        writer.join();
+    }
+
+    @Test
+    public void putAndRemove_maintainIndex() {
+        Metadata data1 = metadata(ADDRESS_1, 1);
+        Metadata replacement = metadata(ADDRESS_1, 4);
+        Metadata data2 = metadata(ADDRESS_2, 2);
+        mCache.put(ADDRESS_1, data1);
+        mCache.put(ADDRESS_2, data2);
+
+        mCache.put(ADDRESS_1, replacement);
+        assertThat(mCache.getMostRecent()).containsExactly(replacement, data2).inOrder();
+
+        mCache.remove(ADDRESS_1);
+        assertThat(mCache.getMostRecent()).containsExactly(data2);
+        assertThat(mCache.size()).isEqualTo(1);
+
+        mCache.clear();
+        assertThat(mCache.getMostRecent()).isEmpty();
+    }
+
+    @Test
+    public void await_whileLoading_returnsRowOnceLoaded() throws Exception {
+        Metadata data = metadata(ADDRESS_1, 1);
+        mCache.startLoading();
+        mCache.finishLoadingRecent();
+
+        Thread loader = new Thread(() -> mCache.putLoaded(data));
+        loader.start();
+
+        assertThat(mCache.await(ADDRESS_1, 10000)).isSameInstanceAs(data);
+        loader.join();
+    }
+
+    @Test
+    public void await_afterLoading_returnsNullForUnknownDevice() {
+        mCache.startLoading();
+        mCache.finishLoading();
+
+        assertThat(mCache.await(ADDRESS_1, 10000)).isNull();
+    }
+
+    @Test
+    public void putLoaded_keepsRowAddedDuringLoad() {
+        Metadata added = metadata(ADDRESS_1, 2);
+        mCache.startLoading();
+        mCache.put(ADDRESS_1, added);
+
+        mCache.putLoaded(metadata(ADDRESS_1, 1));
+        mCache.finishLoading();
+
+        assertThat(mCache.get(ADDRESS_1)).isSameInstanceAs(added);
+    }
+
+    private static Metadata metadata(String address, long lastActiveTime) {
+        Metadata data = new Metadata(address);
+        data.last_active_time = lastActiveTime;
+        return data;
+    }
+}
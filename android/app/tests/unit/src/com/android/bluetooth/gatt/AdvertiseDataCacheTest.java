@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.AdvertiseData;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+/** Test cases for {@link AdvertiseDataCache}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdvertiseDataCacheTest {
+
+    private static final ParcelUuid SERVICE_UUID = new ParcelUuid(UUID.randomUUID());
+
+    private final AdvertiseDataCache mCache = new AdvertiseDataCache();
+
+    @Test
+    public void get_sameContent_returnsCachedPayload() {
+        byte[] first = mCache.get(buildData(new byte[] {1, 2}, false), "name");
+        byte[] second = mCache.get(buildData(new byte[] {1, 2}, false), "other name");
+
+        assertThat(second).isSameInstanceAs(first);
+        assertThat(first)
+                .isEqualTo(
+                        AdvertiseHelper.advertiseDataToBytes(
+                                buildData(new byte[] {1, 2}, false), "name"));
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_differentContent_encodesAgain() {
+        byte[] first = mCache.get(buildData(new byte[] {1, 2}, false), "name");
+        byte[] second = mCache.get(buildData(new byte[] {1, 3}, false), "name");
+
+        assertThat(second).isNotEqualTo(first);
+        assertThat(mCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void get_includesDeviceName_keyedByName() {
+        byte[] first = mCache.get(buildData(new byte[] {1}, true), "name");
+        byte[] second = mCache.get(buildData(new byte[] {1}, true), "other name");
+
+        assertThat(second).isNotEqualTo(first);
+        assertThat(mCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void get_nullData_returnsEmptyPayload() {
+        assertThat(mCache.get(null, "name")).isEmpty();
+    }
+
+    @Test
+    public void get_beyondCapacity_evictsLeastRecentlyUsed() {
+        for (int i = 0; i <= AdvertiseDataCache.MAX_ENTRIES; i++) {
+            mCache.get(buildData(new byte[] {(byte) i}, false), "name");
+        }
+
+        mCache.get(buildData(new byte[] {(byte) AdvertiseDataCache.MAX_ENTRIES}, false), "name");
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        mCache.get(buildData(new byte[] {0}, false), "name");
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    private static AdvertiseData buildData(byte[] serviceData, boolean includeDeviceName) {
+        return new AdvertiseData.Builder()
+                .addServiceData(SERVICE_UUID, serviceData)
+                .setIncludeDeviceName(includeDeviceName)
+                .build();
+    }
+}
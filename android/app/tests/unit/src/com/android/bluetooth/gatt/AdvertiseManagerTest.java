@@ -16,11 +16,14 @@
 
 package com.android.bluetooth.gatt;
 
+import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import android.bluetooth.le.AdvertiseData;
@@ -158,4 +161,35 @@ public class AdvertiseManagerTest {
 
         verify(mAdvertiserMap).setPeriodicAdvertisingData(mAdvertiserId, periodicData);
     }
+
+    @Test
+    public void advertisingSetStarted_advertiserFoundByNewId() throws Exception {
+        int advertiserId = 7;
+
+        mAdvertiseManager.onAdvertisingSetStarted(mAdvertiserId, advertiserId, 0, 0);
+
+        verify(mCallback).onAdvertisingSetStarted(any(), eq(advertiserId), eq(0), eq(0));
+        assertThat(mAdvertiseManager.findAdvertiser(mAdvertiserId)).isNull();
+        assertThat(mAdvertiseManager.findAdvertiser(advertiserId).callback).isEqualTo(mCallback);
+    }
+
+    @Test
+    public void advertisingDataBulk() {
+        AdvertiseData advertiseData = new AdvertiseData.Builder()
+                .addManufacturerData(1, new byte[] {0x01, 0x02})
+                .build();
+        AdvertiseData scanResponse = new AdvertiseData.Builder().setIncludeTxPowerLevel(true)
+                .build();
+        int unknownAdvertiserId = 100;
+
+        mAdvertiseManager.setAdvertisingDataBulk(
+                new int[] {mAdvertiserId, unknownAdvertiserId},
+                new AdvertiseData[] {advertiseData, advertiseData},
+                new AdvertiseData[] {null, scanResponse});
+
+        verify(mNativeInterface).setAdvertisingData(eq(mAdvertiserId), any());
+        verify(mAdvertiserMap).setAdvertisingData(mAdvertiserId, advertiseData);
+        verify(mNativeInterface, never()).setAdvertisingData(eq(unknownAdvertiserId), any());
+        verify(mNativeInterface, never()).setScanResponseData(anyInt(), any());
+    }
 }
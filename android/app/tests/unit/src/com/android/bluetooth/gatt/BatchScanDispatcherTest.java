@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.le_scan.ScanClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases for {@link BatchScanDispatcher}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BatchScanDispatcherTest {
+
+    private static final String ADDRESS_1 = "00:01:02:03:04:05";
+    private static final String ADDRESS_2 = "00:01:02:03:04:06";
+
+    private final ScanResult mResult1 = result(ADDRESS_1);
+    private final ScanResult mResult2 = result(ADDRESS_2);
+    private final List<ScanResult> mResults = Arrays.asList(mResult1, mResult2);
+
+    @Test
+    public void dispatch_unfilteredClient_receivesResultsOnce() {
+        ScanClient client = client(1, null);
+
+        Map<ScanClient, ArrayList<ScanResult>> dispatched =
+                BatchScanDispatcher.dispatch(Collections.singletonList(client), mResults,
+                        c -> true);
+
+        assertThat(dispatched).hasSize(1);
+        assertThat(dispatched.get(client)).containsExactly(mResult1, mResult2);
+    }
+
+    @Test
+    public void dispatch_appliesFiltersPerClient() {
+        ScanClient filtered =
+                client(1, new ScanFilter.Builder().setDeviceAddress(ADDRESS_2).build());
+        ScanClient unfiltered = client(2, null);
+
+        Map<ScanClient, ArrayList<ScanResult>> dispatched =
+                BatchScanDispatcher.dispatch(Arrays.asList(filtered, unfiltered), mResults,
+                        c -> true);
+
+        assertThat(dispatched.get(filtered)).containsExactly(mResult2);
+        assertThat(dispatched.get(unfiltered)).containsExactly(mResult1, mResult2);
+    }
+
+    @Test
+    public void dispatch_withoutPermission_onlyAssociatedDevices() {
+        ScanClient associated = client(1, null);
+        associated.associatedDevices = Collections.singletonList(ADDRESS_1.toLowerCase());
+        ScanClient notAssociated = client(2, null);
+        notAssociated.associatedDevices = Collections.singletonList("00:00:00:00:00:01");
+        ScanClient noAssociation = client(3, null);
+        noAssociation.associatedDevices = Collections.emptyList();
+
+        Map<ScanClient, ArrayList<ScanResult>> dispatched =
+                BatchScanDispatcher.dispatch(
+                        Arrays.asList(associated, notAssociated, noAssociation), mResults,
+                        c -> false);
+
+        assertThat(dispatched).hasSize(1);
+        assertThat(dispatched.get(associated)).containsExactly(mResult1);
+    }
+
+    private static ScanClient client(int scannerId, ScanFilter filter) {
+        List<ScanFilter> filters = null;
+        if (filter != null) {
+            filters = new ArrayList<>();
+            filters.add(filter);
+        }
+        return new ScanClient(scannerId, new ScanSettings.Builder().build(), filters, 0);
+    }
+
+    private static ScanResult result(String address) {
+        return new ScanResult(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address),
+                ScanRecord.parseFromBytes(new byte[0]), 0, 0);
+    }
+}
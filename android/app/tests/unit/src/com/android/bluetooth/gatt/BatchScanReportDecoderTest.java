@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+
+/**
+ * Test cases for {@link BatchScanReportDecoder}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BatchScanReportDecoderTest {
+
+    private static final long NOW_NANOS = 1_000_000_000_000L;
+
+    @Test
+    public void formatReversedAddress() {
+        byte[] data = new byte[] {0x00, 0x06, 0x05, 0x04, 0x03, 0x02, (byte) 0xA1};
+
+        assertThat(BatchScanReportDecoder.formatReversedAddress(data, 1))
+                .isEqualTo("A1:02:03:04:05:06");
+    }
+
+    @Test
+    public void parseTimestampNanos() {
+        byte[] data = new byte[] {0x00, -54, 7};
+
+        assertThat(BatchScanReportDecoder.parseTimestampNanos(data, 1)).isEqualTo(99700000000L);
+    }
+
+    @Test
+    public void decodeTruncated() {
+        byte[] batchRecord = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, -60, 0x01, 0x00,
+                0x16, 0x15, 0x14, 0x13, 0x12, 0x11, 0x00, 0x00, -70, 0x02, 0x00};
+
+        Set<ScanResult> results = BatchScanReportDecoder.decodeTruncated(2, batchRecord,
+                NOW_NANOS);
+
+        assertThat(results).hasSize(2);
+        for (ScanResult result : results) {
+            if (result.getDevice().getAddress().equals("01:02:03:04:05:06")) {
+                assertThat(result.getRssi()).isEqualTo(-60);
+                assertThat(result.getTimestampNanos()).isEqualTo(NOW_NANOS - 50_000_000L);
+            } else {
+                assertThat(result.getDevice().getAddress()).isEqualTo("11:12:13:14:15:16");
+                assertThat(result.getRssi()).isEqualTo(-70);
+                assertThat(result.getTimestampNanos()).isEqualTo(NOW_NANOS - 100_000_000L);
+            }
+            assertThat(result.getScanRecord().getBytes()).isEmpty();
+        }
+    }
+
+    @Test
+    public void decodeTruncated_identicalRecords_keepsEveryResult() {
+        byte[] batchRecord = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, -60, 0x01, 0x00,
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, 0x00, 0x00, -60, 0x01, 0x00};
+
+        Set<ScanResult> results = BatchScanReportDecoder.decodeTruncated(2, batchRecord,
+                NOW_NANOS);
+
+        assertThat(results).hasSize(2);
+    }
+
+    @Test
+    public void decodeFull_combinesAdvertisementAndScanResponse() {
+        byte[] batchRecord = new byte[] {
+                0x06, 0x05, 0x04, 0x03, 0x02, 0x01, // address
+                0x00, // address type
+                0x00, // tx power
+                -60, // rssi
+                0x01, 0x00, // timestamp
+                0x03, 0x02, 0x01, 0x06, // advertisement
+                0x04, 0x03, 0x09, 0x41, 0x42}; // scan response
+
+        Set<ScanResult> results = BatchScanReportDecoder.decodeFull(1, batchRecord, NOW_NANOS);
+
+        assertThat(results).hasSize(1);
+        ScanResult result = results.iterator().next();
+        assertThat(result.getDevice().getAddress()).isEqualTo("01:02:03:04:05:06");
+        assertThat(result.getRssi()).isEqualTo(-60);
+        assertThat(result.getTimestampNanos()).isEqualTo(NOW_NANOS - 50_000_000L);
+        assertThat(result.getScanRecord().getBytes())
+                .isEqualTo(new byte[] {0x02, 0x01, 0x06, 0x03, 0x09, 0x41, 0x42});
+        assertThat(result.getScanRecord().getAdvertiseFlags()).isEqualTo(0x06);
+        assertThat(result.getScanRecord().getDeviceName()).isEqualTo("AB");
+    }
+}
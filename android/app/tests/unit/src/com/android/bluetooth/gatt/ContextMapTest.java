@@ -45,6 +45,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -180,4 +181,121 @@ public class ContextMapTest {
 
         contextMap.dumpAdvertiser(sb);
     }
+
+    @Test
+    public void setId_updatesLookupById() {
+        ContextMap contextMap = new ContextMap<>();
+        UUID uuid = UUID.randomUUID();
+        ContextMap.App app = contextMap.add(uuid, null, null, null, mMockGatt);
+
+        app.setId(7);
+
+        assertThat(contextMap.getById(7)).isSameInstanceAs(app);
+        assertThat(contextMap.getByUuid(uuid)).isSameInstanceAs(app);
+
+        app.setId(8);
+
+        assertThat(contextMap.getById(7)).isNull();
+        assertThat(contextMap.getById(8)).isSameInstanceAs(app);
+
+        contextMap.remove(8);
+
+        assertThat(contextMap.getById(8)).isNull();
+        assertThat(contextMap.getByUuid(uuid)).isNull();
+    }
+
+    @Test
+    public void connectionLookups() {
+        ContextMap contextMap = new ContextMap<>();
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        app.setId(1);
+        String address = "00:01:02:03:04:05";
+        int connId = 3;
+
+        contextMap.addConnection(1, connId, address);
+
+        assertThat(contextMap.getByConnId(connId)).isSameInstanceAs(app);
+        assertThat(contextMap.addressByConnId(connId)).isEqualTo(address);
+        assertThat(contextMap.connIdByAddress(1, address.toLowerCase())).isEqualTo(connId);
+        assertThat(contextMap.getConnectionByApp(1)).hasSize(1);
+
+        contextMap.removeConnection(1, connId);
+
+        assertThat(contextMap.getByConnId(connId)).isNull();
+        assertThat(contextMap.addressByConnId(connId)).isNull();
+        assertThat(contextMap.connIdByAddress(1, address)).isNull();
+        assertThat(contextMap.getConnectionByApp(1)).isEmpty();
+    }
+
+    @Test
+    public void removeApp_removesItsConnections() {
+        ContextMap contextMap = new ContextMap<>();
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        app.setId(1);
+        contextMap.addConnection(1, 3, "00:01:02:03:04:05");
+        contextMap.addConnection(1, 4, "00:01:02:03:04:06");
+
+        contextMap.remove(1);
+
+        assertThat(contextMap.getByConnId(3)).isNull();
+        assertThat(contextMap.addressByConnId(4)).isNull();
+        assertThat(contextMap.getConnectedDevices()).isEmpty();
+    }
+
+    @Test
+    public void removeConnectionsByAppId_sameDeviceTwice_removesBoth() {
+        ContextMap contextMap = new ContextMap<>();
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        app.setId(1);
+        contextMap.addConnection(1, 3, "00:01:02:03:04:05");
+        contextMap.addConnection(1, 4, "00:01:02:03:04:05");
+        assertThat(contextMap.getConnectionByApp(1)).hasSize(2);
+
+        contextMap.removeConnectionsByAppId(1);
+
+        assertThat(contextMap.addressByConnId(3)).isNull();
+        assertThat(contextMap.addressByConnId(4)).isNull();
+        assertThat(contextMap.getConnectedDevices()).isEmpty();
+    }
+
+    @Test
+    public void congestionQueue_drainsInOrderAndInBatches() {
+        ContextMap contextMap = new ContextMap<>();
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        int count = ContextMap.CONGESTION_DRAIN_BATCH_SIZE + 1;
+        for (int i = 0; i < count; i++) {
+            assertThat(app.queueCallback(callbackInfo(i))).isNull();
+        }
+
+        List<CallbackInfo> first = app.drainQueuedCallbacks();
+        List<CallbackInfo> second = app.drainQueuedCallbacks();
+
+        assertThat(first).hasSize(ContextMap.CONGESTION_DRAIN_BATCH_SIZE);
+        assertThat(first.get(0).handle).isEqualTo(0);
+        assertThat(first.get(first.size() - 1).handle).isEqualTo(count - 2);
+        assertThat(second).hasSize(1);
+        assertThat(second.get(0).handle).isEqualTo(count - 1);
+        assertThat(app.drainQueuedCallbacks()).isEmpty();
+    }
+
+    @Test
+    public void congestionQueue_full_returnsOldestCallback() {
+        ContextMap contextMap = new ContextMap<>();
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mMockGatt);
+        for (int i = 0; i < ContextMap.CONGESTION_QUEUE_CAPACITY; i++) {
+            app.queueCallback(callbackInfo(i));
+        }
+
+        CallbackInfo overflow =
+                app.queueCallback(callbackInfo(ContextMap.CONGESTION_QUEUE_CAPACITY));
+
+        assertThat(overflow.handle).isEqualTo(0);
+        assertThat(app.getQueuedCallbackCount()).isEqualTo(ContextMap.CONGESTION_QUEUE_CAPACITY);
+        assertThat(app.getCongestionQueueOverflowCount()).isEqualTo(1);
+        assertThat(app.drainQueuedCallbacks().get(0).handle).isEqualTo(1);
+    }
+
+    private static CallbackInfo callbackInfo(int handle) {
+        return new CallbackInfo.Builder("00:01:02:03:04:05", 0).setHandle(handle).build();
+    }
 }
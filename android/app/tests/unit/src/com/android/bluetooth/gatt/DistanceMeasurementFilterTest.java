@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test cases for {@link DistanceMeasurementFilter}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DistanceMeasurementFilterTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void none_passesDistancesThrough() {
+        DistanceMeasurementFilter filter =
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_NONE);
+
+        assertThat(filter.filter(1.0, 0.5)).isEqualTo(1.0);
+        assertThat(filter.filter(7.0, 0.5)).isEqualTo(7.0);
+        assertThat(filter.getErrorMeters(0.5)).isEqualTo(0.5);
+    }
+
+    @Test
+    public void movingMedian_rejectsOutlier() {
+        DistanceMeasurementFilter filter =
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_MOVING_MEDIAN);
+
+        assertThat(filter.filter(2.0, 0)).isEqualTo(2.0);
+        assertThat(filter.filter(3.0, 0)).isEqualTo(2.5);
+        assertThat(filter.filter(2.0, 0)).isEqualTo(2.0);
+        assertThat(filter.filter(20.0, 0)).isEqualTo(2.5);
+        assertThat(filter.filter(3.0, 0)).isEqualTo(3.0);
+    }
+
+    @Test
+    public void movingMedian_forgetsOldestDistance() {
+        DistanceMeasurementFilter filter =
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_MOVING_MEDIAN);
+
+        for (int i = 0; i < DistanceMeasurementFilter.MEDIAN_WINDOW; i++) {
+            filter.filter(1.0, 0);
+        }
+        double median = 0;
+        for (int i = 0; i < DistanceMeasurementFilter.MEDIAN_WINDOW / 2 + 1; i++) {
+            median = filter.filter(5.0, 0);
+        }
+
+        assertThat(median).isEqualTo(5.0);
+    }
+
+    @Test
+    public void exponential_movesTowardsNewDistance() {
+        DistanceMeasurementFilter filter =
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_EXPONENTIAL);
+
+        assertThat(filter.filter(1.0, 0)).isEqualTo(1.0);
+        assertThat(filter.filter(2.0, 0))
+                .isWithin(TOLERANCE)
+                .of(1.0 + DistanceMeasurementFilter.EXPONENTIAL_ALPHA);
+    }
+
+    @Test
+    public void kalman_trustsPreciseMeasurementsMore() {
+        DistanceMeasurementFilter precise =
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_KALMAN);
+        DistanceMeasurementFilter noisy =
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_KALMAN);
+        precise.filter(1.0, 1.0);
+        noisy.filter(1.0, 1.0);
+
+        double preciseDistance = precise.filter(3.0, 0.1);
+        double noisyDistance = noisy.filter(3.0, 5.0);
+
+        assertThat(preciseDistance).isGreaterThan(noisyDistance);
+        assertThat(preciseDistance).isLessThan(3.0);
+        assertThat(noisyDistance).isGreaterThan(1.0);
+        assertThat(precise.getErrorMeters(0.1)).isLessThan(1.0);
+    }
+}
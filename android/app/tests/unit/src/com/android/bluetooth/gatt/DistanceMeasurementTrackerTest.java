@@ -26,6 +26,7 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.DistanceMeasurementMethod;
 import android.bluetooth.le.DistanceMeasurementParams;
+import android.bluetooth.le.DistanceMeasurementResult;
 import android.bluetooth.le.IDistanceMeasurementCallback;
 import android.os.HandlerThread;
 
@@ -39,6 +40,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -109,4 +111,58 @@ public class DistanceMeasurementTrackerTest {
                 mDistanceMeasurementManager, mParams, IDENTITY_ADDRESS, mUuid, 1000, mCallback);
         assertThat(mTracker.hashCode()).isEqualTo(tracker.hashCode());
     }
+
+    @Test
+    public void testProcessResult_noPipeline_deliversEachResult() {
+        DistanceMeasurementResult measured = new DistanceMeasurementResult.Builder(1.0, 0.5)
+                .build();
+
+        assertThat(mTracker.processResult(measured, 0)).containsExactly(measured);
+        assertThat(mTracker.processResult(measured, 0)).containsExactly(measured);
+    }
+
+    @Test
+    public void testProcessResult_belowMinChange_heldBack() {
+        DistanceMeasurementTracker tracker = createTracker(0.5, 0, 1);
+
+        assertThat(tracker.processResult(result(1.0), 0)).hasSize(1);
+        assertThat(tracker.processResult(result(1.2), 1000)).isNull();
+        List<DistanceMeasurementResult> results = tracker.processResult(result(1.6), 2000);
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getResultMeters()).isEqualTo(1.6);
+    }
+
+    @Test
+    public void testProcessResult_withinMinReportInterval_heldBack() {
+        DistanceMeasurementTracker tracker = createTracker(0, 1000, 1);
+
+        assertThat(tracker.processResult(result(1.0), 0)).hasSize(1);
+        assertThat(tracker.processResult(result(2.0), 500)).isNull();
+        assertThat(tracker.processResult(result(3.0), 1000)).hasSize(1);
+    }
+
+    @Test
+    public void testProcessResult_batchesResults() {
+        DistanceMeasurementTracker tracker = createTracker(0, 0, 3);
+
+        assertThat(tracker.processResult(result(1.0), 0)).isNull();
+        assertThat(tracker.processResult(result(2.0), 0)).isNull();
+        assertThat(tracker.processResult(result(3.0), 0)).hasSize(3);
+        assertThat(tracker.processResult(result(4.0), 0)).isNull();
+        assertThat(tracker.flushResults()).hasSize(1);
+        assertThat(tracker.flushResults()).isNull();
+    }
+
+    private DistanceMeasurementTracker createTracker(
+            double minChangeMeters, int minReportIntervalMs, int batchSize) {
+        return new DistanceMeasurementTracker(mDistanceMeasurementManager, mParams,
+                IDENTITY_ADDRESS, mUuid, 1000, mCallback,
+                DistanceMeasurementFilter.create(DistanceMeasurementFilter.TYPE_NONE),
+                minChangeMeters, minReportIntervalMs, batchSize);
+    }
+
+    private static DistanceMeasurementResult result(double meters) {
+        return new DistanceMeasurementResult.Builder(meters, 0.5).build();
+    }
 }
\ No newline at end of file
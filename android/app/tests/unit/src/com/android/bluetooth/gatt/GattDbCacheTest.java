@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothGattService;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Test cases for {@link GattDbCache}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattDbCacheTest {
+
+    private static final UUID SERVICE_UUID =
+            UUID.fromString("0000180F-0000-1000-8000-00805F9B34FB");
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("00002A19-0000-1000-8000-00805F9B34FB");
+
+    private final GattDbCache mCache = new GattDbCache();
+    private final AtomicInteger mMaterializations = new AtomicInteger();
+
+    @Test
+    public void computeKey_identicalDatabases_sameKey() {
+        assertThat(GattDbCache.computeKey(db(1, 0x12)))
+                .isEqualTo(GattDbCache.computeKey(db(1, 0x12)));
+    }
+
+    @Test
+    public void computeKey_differentDatabases_differentKey() {
+        assertThat(GattDbCache.computeKey(db(1, 0x12)))
+                .isNotEqualTo(GattDbCache.computeKey(db(1, 0x02)));
+        assertThat(GattDbCache.computeKey(db(1, 0x12)))
+                .isNotEqualTo(GattDbCache.computeKey(db(5, 0x12)));
+    }
+
+    @Test
+    public void get_identicalDatabase_sharesEntry() {
+        GattDbCache.Entry first = mCache.get(db(1, 0x12), this::materialize);
+        GattDbCache.Entry second = mCache.get(db(1, 0x12), this::materialize);
+
+        assertThat(second).isSameInstanceAs(first);
+        assertThat(mMaterializations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_evictsLeastRecentlyUsed() {
+        for (int i = 0; i <= GattDbCache.MAX_ENTRIES; i++) {
+            mCache.get(db(i, 0x12), this::materialize);
+            // Keep the first database in use.
+            mCache.get(db(0, 0x12), this::materialize);
+        }
+        assertThat(mMaterializations.get()).isEqualTo(GattDbCache.MAX_ENTRIES + 1);
+
+        mCache.get(db(0, 0x12), this::materialize);
+        assertThat(mMaterializations.get()).isEqualTo(GattDbCache.MAX_ENTRIES + 1);
+
+        mCache.get(db(1, 0x12), this::materialize);
+        assertThat(mMaterializations.get()).isEqualTo(GattDbCache.MAX_ENTRIES + 2);
+    }
+
+    private GattDbCache.Entry materialize(List<GattDbElement> db) {
+        mMaterializations.incrementAndGet();
+        List<BluetoothGattService> services = new ArrayList<>();
+        services.add(new BluetoothGattService(SERVICE_UUID, db.get(0).id, 0));
+        return new GattDbCache.Entry(services, Collections.emptySet());
+    }
+
+    private static List<GattDbElement> db(int serviceId, int properties) {
+        GattDbElement service = GattDbElement.createPrimaryService(SERVICE_UUID);
+        service.id = serviceId;
+        GattDbElement characteristic =
+                GattDbElement.createCharacteristic(CHARACTERISTIC_UUID, properties, 0);
+        characteristic.id = serviceId + 1;
+
+        List<GattDbElement> db = new ArrayList<>();
+        db.add(service);
+        db.add(characteristic);
+        return db;
+    }
+}
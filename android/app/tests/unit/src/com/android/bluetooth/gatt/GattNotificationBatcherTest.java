@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.IBluetoothGattCallback;
+import android.os.Handler;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+/** Test cases for {@link GattNotificationBatcher}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattNotificationBatcherTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final int MAX_DELAY_MS = 20;
+    private static final int MAX_BYTES = 8;
+
+    @Rule public final MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock private IBluetoothGattCallback mCallback;
+
+    private TestLooper mTestLooper;
+    private GattNotificationBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mTestLooper = new TestLooper();
+        mBatcher =
+                new GattNotificationBatcher(
+                        ADDRESS,
+                        mCallback,
+                        new Handler(mTestLooper.getLooper()),
+                        MAX_DELAY_MS,
+                        MAX_BYTES);
+    }
+
+    @Test
+    public void add_deliversBatchWhenFull() throws Exception {
+        assertThat(mBatcher.add(1, new byte[] {1, 2, 3, 4})).isTrue();
+        verify(mCallback, never()).onNotifyBatch(anyString(), any(), any(), any());
+
+        assertThat(mBatcher.add(2, new byte[] {5, 6, 7, 8})).isTrue();
+
+        verify(mCallback)
+                .onNotifyBatch(
+                        ADDRESS,
+                        new int[] {1, 2},
+                        new int[] {4, 4},
+                        new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    @Test
+    public void add_deliversBatchAfterDelay() throws Exception {
+        mBatcher.add(3, new byte[] {1});
+        mBatcher.add(3, new byte[] {2});
+
+        mTestLooper.moveTimeForward(MAX_DELAY_MS - 1);
+        mTestLooper.dispatchAll();
+        verify(mCallback, never()).onNotifyBatch(anyString(), any(), any(), any());
+
+        mTestLooper.moveTimeForward(1);
+        mTestLooper.dispatchAll();
+        verify(mCallback)
+                .onNotifyBatch(ADDRESS, new int[] {3, 3}, new int[] {1, 1}, new byte[] {1, 2});
+    }
+
+    @Test
+    public void add_withoutDelay_deliversImmediately() throws Exception {
+        mBatcher.setLimits(0, MAX_BYTES);
+
+        mBatcher.add(1, new byte[] {1});
+
+        verify(mCallback).onNotifyBatch(ADDRESS, new int[] {1}, new int[] {1}, new byte[] {1});
+    }
+
+    @Test
+    public void batchesAreDeliveredInOrder() throws Exception {
+        mBatcher.add(1, new byte[] {1});
+        mBatcher.flush();
+        mBatcher.add(2, new byte[] {2});
+        mBatcher.flush();
+
+        InOrder order = inOrder(mCallback);
+        order.verify(mCallback)
+                .onNotifyBatch(ADDRESS, new int[] {1}, new int[] {1}, new byte[] {1});
+        order.verify(mCallback)
+                .onNotifyBatch(ADDRESS, new int[] {2}, new int[] {1}, new byte[] {2});
+    }
+
+    @Test
+    public void close_deliversPendingAndRejectsNewNotifications() throws Exception {
+        mBatcher.add(1, new byte[] {1});
+
+        mBatcher.close();
+
+        verify(mCallback).onNotifyBatch(ADDRESS, new int[] {1}, new int[] {1}, new byte[] {1});
+        assertThat(mBatcher.add(2, new byte[] {2})).isFalse();
+    }
+
+    @Test
+    public void discard_dropsPendingNotifications() throws Exception {
+        mBatcher.add(1, new byte[] {1});
+
+        mBatcher.discard();
+        mTestLooper.moveTimeForward(MAX_DELAY_MS);
+        mTestLooper.dispatchAll();
+
+        verify(mCallback, never()).onNotifyBatch(anyString(), any(), any(), any());
+        assertThat(mBatcher.add(2, new byte[] {2})).isFalse();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.UUID;
+
+/** Test cases for {@link GattServerNotificationScheduler}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattServerNotificationSchedulerTest {
+
+    @Rule public final MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock private GattServerNotificationScheduler.Sender mSender;
+
+    private final BluetoothDevice mDevice =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+    private final BluetoothGattCharacteristic mState =
+            new BluetoothGattCharacteristic(
+                    UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+    private final BluetoothGattCharacteristic mControlPoint =
+            new BluetoothGattCharacteristic(
+                    UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+
+    private GattServerNotificationScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        doReturn(true).when(mSender).send(any(), any(), any());
+        mScheduler = new GattServerNotificationScheduler(new TestLooper().getLooper(), mSender);
+    }
+
+    @Test
+    public void schedule_linkNotCongested_sendsRightAway() {
+        byte[] value = new byte[] {1};
+
+        mScheduler.schedule(mDevice, mState, value);
+
+        verify(mSender).send(mDevice, mState, value);
+        assertThat(mScheduler.getSentCount()).isEqualTo(1);
+        assertThat(mScheduler.getSuppressedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void schedule_linkCongested_sendsLatestValueOnceFreed() {
+        congestLink();
+
+        for (byte i = 0; i < 5; i++) {
+            mScheduler.schedule(mDevice, mState, new byte[] {i});
+        }
+        verify(mSender, never()).send(eq(mDevice), eq(mState), any());
+
+        mScheduler.onNotificationSent(mDevice);
+
+        verify(mSender).send(mDevice, mState, new byte[] {4});
+        verify(mSender, times(1)).send(eq(mDevice), eq(mState), any());
+        assertThat(mScheduler.getSuppressedCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void scheduleUncoalesced_linkCongested_sendsEveryValueInOrder() {
+        congestLink();
+
+        mControlPoint.setValue(new byte[] {1});
+        mScheduler.scheduleUncoalesced(mDevice, mControlPoint, null);
+        mControlPoint.setValue(new byte[] {2});
+        mScheduler.scheduleUncoalesced(mDevice, mControlPoint, null);
+
+        mScheduler.onNotificationSent(mDevice);
+        mScheduler.onNotificationSent(mDevice);
+
+        InOrder order = inOrder(mSender);
+        order.verify(mSender).send(mDevice, mControlPoint, new byte[] {1});
+        order.verify(mSender).send(mDevice, mControlPoint, new byte[] {2});
+        assertThat(mScheduler.getSuppressedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void schedule_sendFails_doesNotCongestLink() {
+        doReturn(false).when(mSender).send(any(), any(), any());
+
+        for (int i = 0; i <= GattServerNotificationScheduler.MAX_IN_FLIGHT; i++) {
+            mScheduler.schedule(mDevice, mState, null);
+        }
+
+        verify(mSender, times(GattServerNotificationScheduler.MAX_IN_FLIGHT + 1))
+                .send(eq(mDevice), eq(mState), isNull());
+        assertThat(mScheduler.getSentCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void onDeviceDisconnected_dropsPendingNotifications() {
+        congestLink();
+        mScheduler.schedule(mDevice, mState, new byte[] {1});
+
+        mScheduler.onDeviceDisconnected(mDevice);
+        mScheduler.onNotificationSent(mDevice);
+
+        verify(mSender, never()).send(eq(mDevice), eq(mState), any());
+    }
+
+    private void congestLink() {
+        for (int i = 0; i < GattServerNotificationScheduler.MAX_IN_FLIGHT; i++) {
+            mScheduler.scheduleUncoalesced(mDevice, mControlPoint, new byte[] {0});
+        }
+    }
+}
@@ -654,6 +654,20 @@ public class GattServiceBinderTest {
         verify(mService).setScanResponseData(advertiserId, data, mAttributionSource);
     }
 
+    @Test
+    public void setAdvertisingDataBulk() throws Exception {
+        int[] advertiserIds = new int[] {1, 2};
+        AdvertiseData data = new AdvertiseData.Builder().build();
+        AdvertiseData[] advertiseData = new AdvertiseData[] {data, data};
+        AdvertiseData[] scanResponses = new AdvertiseData[] {null, data};
+
+        mBinder.setAdvertisingDataBulk(advertiserIds, advertiseData, scanResponses,
+                mAttributionSource, SynchronousResultReceiver.get());
+
+        verify(mService).setAdvertisingDataBulk(advertiserIds, advertiseData, scanResponses,
+                mAttributionSource);
+    }
+
     @Test
     public void setAdvertisingParameters() throws Exception {
         int advertiserId = 1;
@@ -25,6 +25,8 @@ import static org.mockito.Mockito.verify;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothStatusCodes;
 import android.bluetooth.IBluetoothGattCallback;
@@ -69,6 +71,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -558,6 +561,49 @@ public class GattServiceTest {
         verify(appScanStats).recordScanStop(scannerId);
     }
 
+    @Test
+    public void onScanResult_multipleClients_shareParsedResult() throws Exception {
+        int eventType = 0;
+        int addressType = 0;
+        String address = "02:00:00:00:00:00";
+        byte[] advData = new byte[] {0x02, 0x01, 0x06};
+
+        Set<ScanClient> scanClientSet = new HashSet<>();
+        List<IScannerCallback> callbacks = new ArrayList<>();
+        for (int scannerId = 1; scannerId <= 2; scannerId++) {
+            ScanClient scanClient = new ScanClient(scannerId);
+            scanClient.scannerId = scannerId;
+            scanClient.hasNetworkSettingsPermission = true;
+            scanClient.settings =
+                    new ScanSettings.Builder()
+                            .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                            .setLegacy(false)
+                            .build();
+            scanClientSet.add(scanClient);
+
+            @SuppressWarnings("NonCanonicalType")
+            TransitionalScanHelper.ScannerMap.App app =
+                    mock(TransitionalScanHelper.ScannerMap.App.class);
+            IScannerCallback callback = mock(IScannerCallback.class);
+            app.callback = callback;
+            app.appScanStats = mock(AppScanStats.class);
+            callbacks.add(callback);
+            doReturn(app).when(mScannerMap).getById(scannerId);
+        }
+
+        doReturn(address).when(mAdapterService).getIdentityAddress(anyString());
+        doReturn(scanClientSet).when(mScanManager).getRegularScanQueue();
+
+        mService.onScanResult(eventType, addressType, address, 0, 0, 0, 0, 0, 0, advData,
+                address);
+
+        ArgumentCaptor<ScanResult> first = ArgumentCaptor.forClass(ScanResult.class);
+        ArgumentCaptor<ScanResult> second = ArgumentCaptor.forClass(ScanResult.class);
+        verify(callbacks.get(0)).onScanResult(first.capture());
+        verify(callbacks.get(1)).onScanResult(second.capture());
+        assertThat(first.getValue()).isSameInstanceAs(second.getValue());
+    }
+
     @Test
     public void readCharacteristic() {
         int clientIf = 1;
@@ -609,6 +655,40 @@ public class GattServiceTest {
                 .isEqualTo(BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED);
     }
 
+    @Test
+    public void writeCharacteristic_defaultDepth_refusesSecondWriteUntilFirstCompletes()
+            throws Exception {
+        String address = REMOTE_DEVICE_ADDRESS;
+        int handle = 2;
+        int writeType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        byte[] value = new byte[] {5, 6};
+        int clientIf = 1;
+        int connId = 1;
+        int otherClientIf = 2;
+        int otherConnId = 2;
+        doReturn(connId).when(mClientMap).connIdByAddress(clientIf, address);
+        doReturn(otherConnId).when(mClientMap).connIdByAddress(otherClientIf, address);
+        doReturn(address).when(mClientMap).addressByConnId(connId);
+        mService.onConnected(clientIf, connId, BluetoothGatt.GATT_SUCCESS, address);
+
+        assertThat(mService.writeCharacteristic(clientIf, address, handle, writeType, 0, value,
+                mAttributionSource)).isEqualTo(BluetoothStatusCodes.SUCCESS);
+        // Even the connection holding the permit waits for its write to complete.
+        assertThat(mService.writeCharacteristic(clientIf, address, handle, writeType, 0, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+        assertThat(mService.writeCharacteristic(otherClientIf, address, handle, writeType, 0,
+                value, mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+
+        mService.onWriteCharacteristic(connId, BluetoothGatt.GATT_SUCCESS, handle, value);
+        assertThat(mService.writeCharacteristic(otherClientIf, address, handle, writeType, 0,
+                value, mAttributionSource)).isEqualTo(BluetoothStatusCodes.SUCCESS);
+        verify(mNativeInterface, times(2))
+                .gattClientWriteCharacteristic(anyInt(), eq(handle), eq(writeType), eq(0),
+                        eq(value));
+    }
+
     @Test
     public void readDescriptor() throws Exception {
         int clientIf = 1;
@@ -891,6 +971,44 @@ public class GattServiceTest {
                         BluetoothProfile.STATE_CONNECTED);
     }
 
+    @Test
+    public void onGetGattDb_identicalDatabases_shareMaterializedDatabase() throws Exception {
+        @SuppressWarnings("NonCanonicalType")
+        GattService.ClientMap.App app = mock(GattService.ClientMap.App.class);
+        IBluetoothGattCallback callback = mock(IBluetoothGattCallback.class);
+        app.callback = callback;
+        doReturn(app).when(mClientMap).getByConnId(anyInt());
+        doReturn(REMOTE_DEVICE_ADDRESS).when(mClientMap).addressByConnId(anyInt());
+
+        mService.onGetGattDb(1, fidoDb());
+        mService.onGetGattDb(2, fidoDb());
+
+        ArgumentCaptor<List<BluetoothGattService>> services = ArgumentCaptor.forClass(List.class);
+        verify(callback, times(2))
+                .onSearchComplete(eq(REMOTE_DEVICE_ADDRESS), services.capture(), eq(0));
+        assertThat(services.getAllValues().get(1))
+                .isSameInstanceAs(services.getAllValues().get(0));
+        assertThat(mService.mRestrictedHandles.get(2))
+                .isSameInstanceAs(mService.mRestrictedHandles.get(1));
+        assertThat(mService.mRestrictedHandles.get(1)).containsExactly(1, 2);
+    }
+
+    private static ArrayList<GattDbElement> fidoDb() {
+        GattDbElement fidoService =
+                GattDbElement.createPrimaryService(
+                        UUID.fromString("0000FFFD-0000-1000-8000-00805F9B34FB"));
+        fidoService.id = 1;
+        GattDbElement fidoChar =
+                GattDbElement.createCharacteristic(
+                        UUID.fromString("F1D0FFF1-DEAA-ECEE-B42F-C9BA7ED623BB"), 0, 0);
+        fidoChar.id = 2;
+
+        ArrayList<GattDbElement> db = new ArrayList<>();
+        db.add(fidoService);
+        db.add(fidoChar);
+        return db;
+    }
+
     @Test
     public void restrictedHandles() throws Exception {
         mSetFlagsRule.enableFlags(Flags.FLAG_GATT_CLEANUP_RESTRICTED_HANDLES);
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test cases for {@link GattWritePermit}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattWritePermitTest {
+
+    private static final int CONN_ID = 1;
+    private static final int OTHER_CONN_ID = 2;
+
+    @Test
+    public void acquire_ownerPipelinesUpToDepth() {
+        GattWritePermit permit = new GattWritePermit(2);
+
+        assertThat(permit.acquire(CONN_ID)).isTrue();
+        assertThat(permit.acquire(CONN_ID)).isTrue();
+        assertThat(permit.acquire(CONN_ID)).isFalse();
+        assertThat(permit.acquire(OTHER_CONN_ID)).isFalse();
+
+        assertThat(permit.getOwner()).isEqualTo(CONN_ID);
+        assertThat(permit.getHolds()).isEqualTo(2);
+        assertThat(permit.getBusyCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void release_freesPermitAfterLastWrite() {
+        GattWritePermit permit = new GattWritePermit(GattWritePermit.MAX_DEPTH);
+        permit.acquire(CONN_ID);
+        permit.acquire(CONN_ID);
+
+        permit.release(CONN_ID);
+        assertThat(permit.acquire(OTHER_CONN_ID)).isFalse();
+
+        permit.release(CONN_ID);
+        assertThat(permit.getOwner()).isEqualTo(GattWritePermit.NO_OWNER);
+        assertThat(permit.acquire(OTHER_CONN_ID)).isTrue();
+        assertThat(permit.getOwner()).isEqualTo(OTHER_CONN_ID);
+    }
+
+    @Test
+    public void acquire_depthAboveMax_isClamped() {
+        GattWritePermit permit = new GattWritePermit(Integer.MAX_VALUE);
+        for (int i = 0; i < GattWritePermit.MAX_DEPTH; i++) {
+            assertThat(permit.acquire(CONN_ID)).isTrue();
+        }
+
+        assertThat(permit.acquire(CONN_ID)).isFalse();
+        assertThat(permit.getHolds()).isEqualTo(GattWritePermit.MAX_DEPTH);
+    }
+
+    @Test
+    public void release_byOtherConnection_isIgnored() {
+        GattWritePermit permit = new GattWritePermit(1);
+        permit.acquire(CONN_ID);
+
+        permit.release(OTHER_CONN_ID);
+        permit.releaseAll(OTHER_CONN_ID);
+
+        assertThat(permit.getOwner()).isEqualTo(CONN_ID);
+        assertThat(permit.getHolds()).isEqualTo(1);
+    }
+
+    @Test
+    public void releaseAll_freesPermitWithWritesInFlight() {
+        GattWritePermit permit = new GattWritePermit(GattWritePermit.MAX_DEPTH);
+        permit.acquire(CONN_ID);
+        permit.acquire(CONN_ID);
+
+        permit.releaseAll(CONN_ID);
+
+        assertThat(permit.getOwner()).isEqualTo(GattWritePermit.NO_OWNER);
+        assertThat(permit.getHolds()).isEqualTo(0);
+    }
+
+    @Test
+    public void acquire_afterBusy_recordsWaitTime() throws Exception {
+        GattWritePermit permit = new GattWritePermit(1);
+        permit.acquire(CONN_ID);
+        assertThat(permit.acquire(OTHER_CONN_ID)).isFalse();
+
+        Thread.sleep(10);
+        permit.release(CONN_ID);
+        assertThat(permit.acquire(OTHER_CONN_ID)).isTrue();
+
+        assertThat(permit.getMaxWaitMs()).isAtLeast(10);
+    }
+}
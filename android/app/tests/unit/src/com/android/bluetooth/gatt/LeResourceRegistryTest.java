@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+/** Test cases for {@link LeResourceRegistry}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LeResourceRegistryTest {
+
+    private static final int UID = 10001;
+    private static final int OTHER_UID = 10002;
+    private static final String PACKAGE_NAME = "com.example";
+
+    @Rule public final MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock private IBinder mBinder;
+    @Mock private IBinder mOtherBinder;
+    @Mock private Runnable mOnScannerDied;
+    @Mock private Runnable mOnClientDied;
+    @Mock private Runnable mOnOtherDied;
+
+    private final LeResourceRegistry mRegistry = new LeResourceRegistry();
+
+    @Test
+    public void register_linksEachBinderOnce() throws Exception {
+        register(LeResourceRegistry.TYPE_SCANNER, 1, UID, mBinder, mOnScannerDied);
+        register(LeResourceRegistry.TYPE_CLIENT, 1, UID, mBinder, mOnClientDied);
+
+        verify(mBinder, times(1)).linkToDeath(any(), anyInt());
+        assertThat(mRegistry.getCount(UID, LeResourceRegistry.TYPE_SCANNER)).isEqualTo(1);
+        assertThat(mRegistry.getCount(UID, LeResourceRegistry.TYPE_CLIENT)).isEqualTo(1);
+    }
+
+    @Test
+    public void register_deadBinder_returnsFalse() throws Exception {
+        doThrow(new RemoteException()).when(mBinder).linkToDeath(any(), anyInt());
+
+        assertThat(register(LeResourceRegistry.TYPE_SCANNER, 1, UID, mBinder, mOnScannerDied))
+                .isFalse();
+        assertThat(mRegistry.contains(LeResourceRegistry.TYPE_SCANNER, 1)).isFalse();
+        assertThat(mRegistry.getCount(UID, LeResourceRegistry.TYPE_SCANNER)).isEqualTo(0);
+    }
+
+    @Test
+    public void unregister_lastResource_unlinksBinder() throws Exception {
+        register(LeResourceRegistry.TYPE_SCANNER, 1, UID, mBinder, mOnScannerDied);
+        register(LeResourceRegistry.TYPE_CLIENT, 1, UID, mBinder, mOnClientDied);
+
+        assertThat(mRegistry.unregister(LeResourceRegistry.TYPE_SCANNER, 1)).isTrue();
+        verify(mBinder, never()).unlinkToDeath(any(), anyInt());
+
+        assertThat(mRegistry.unregister(LeResourceRegistry.TYPE_CLIENT, 1)).isTrue();
+        verify(mBinder).unlinkToDeath(any(), anyInt());
+        assertThat(mRegistry.getCount(UID, LeResourceRegistry.TYPE_CLIENT)).isEqualTo(0);
+        assertThat(mRegistry.unregister(LeResourceRegistry.TYPE_CLIENT, 1)).isFalse();
+    }
+
+    @Test
+    public void binderDied_releasesAllResourcesOfBinder() throws Exception {
+        register(LeResourceRegistry.TYPE_SCANNER, 1, UID, mBinder, mOnScannerDied);
+        register(LeResourceRegistry.TYPE_CLIENT, 2, UID, mBinder, mOnClientDied);
+        register(LeResourceRegistry.TYPE_SCANNER, 3, OTHER_UID, mOtherBinder, mOnOtherDied);
+
+        ArgumentCaptor<IBinder.DeathRecipient> deathRecipient =
+                ArgumentCaptor.forClass(IBinder.DeathRecipient.class);
+        verify(mBinder).linkToDeath(deathRecipient.capture(), anyInt());
+        deathRecipient.getValue().binderDied();
+
+        verify(mOnScannerDied).run();
+        verify(mOnClientDied).run();
+        verify(mOnOtherDied, never()).run();
+        assertThat(mRegistry.contains(LeResourceRegistry.TYPE_SCANNER, 1)).isFalse();
+        assertThat(mRegistry.contains(LeResourceRegistry.TYPE_CLIENT, 2)).isFalse();
+        assertThat(mRegistry.getCount(UID, LeResourceRegistry.TYPE_SCANNER)).isEqualTo(0);
+        assertThat(mRegistry.getCount(OTHER_UID, LeResourceRegistry.TYPE_SCANNER)).isEqualTo(1);
+    }
+
+    @Test
+    public void binderDied_afterUnregister_releasesNothing() throws Exception {
+        register(LeResourceRegistry.TYPE_SCANNER, 1, UID, mBinder, mOnScannerDied);
+        ArgumentCaptor<IBinder.DeathRecipient> deathRecipient =
+                ArgumentCaptor.forClass(IBinder.DeathRecipient.class);
+        verify(mBinder).linkToDeath(deathRecipient.capture(), anyInt());
+
+        mRegistry.unregister(LeResourceRegistry.TYPE_SCANNER, 1);
+        deathRecipient.getValue().binderDied();
+
+        verify(mOnScannerDied, never()).run();
+    }
+
+    @Test
+    public void updateId_movesResource() throws Exception {
+        register(LeResourceRegistry.TYPE_ADVERTISER, -1, UID, mBinder, mOnOtherDied);
+
+        mRegistry.updateId(LeResourceRegistry.TYPE_ADVERTISER, -1, 4);
+
+        assertThat(mRegistry.contains(LeResourceRegistry.TYPE_ADVERTISER, -1)).isFalse();
+        assertThat(mRegistry.contains(LeResourceRegistry.TYPE_ADVERTISER, 4)).isTrue();
+        assertThat(mRegistry.unregister(LeResourceRegistry.TYPE_ADVERTISER, 4)).isTrue();
+        assertThat(mRegistry.getCount(UID, LeResourceRegistry.TYPE_ADVERTISER)).isEqualTo(0);
+    }
+
+    @Test
+    public void dump_reportsCountsByUid() throws Exception {
+        register(LeResourceRegistry.TYPE_SCANNER, 1, UID, mBinder, mOnScannerDied);
+        register(LeResourceRegistry.TYPE_SCANNER, 2, UID, mOtherBinder, mOnOtherDied);
+
+        StringBuilder sb = new StringBuilder();
+        mRegistry.dump(sb);
+
+        assertThat(sb.toString()).contains("UID " + UID + " (" + PACKAGE_NAME + "): scanners=2");
+    }
+
+    private boolean register(int type, int id, int uid, IBinder binder, Runnable onBinderDied) {
+        return mRegistry.register(type, id, uid, PACKAGE_NAME, binder, onBinderDied);
+    }
+}
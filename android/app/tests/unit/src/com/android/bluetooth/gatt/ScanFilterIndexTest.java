@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.le_scan.ScanClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+
+    // Flags, 16-bit service UUID 0x180D and manufacturer data for company 0x004C.
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0x0D, 0x18,
+            0x05, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15};
+
+    @Test
+    public void match_returnsScannersWithMatchingFilters() {
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(client(1, new ScanFilter.Builder().setDeviceAddress(ADDRESS).build()));
+        clients.add(client(2, new ScanFilter.Builder()
+                .setServiceUuid(ParcelUuid.fromString("0000180D-0000-1000-8000-00805F9B34FB"))
+                .build()));
+        clients.add(client(3, new ScanFilter.Builder()
+                .setManufacturerData(0x004C, new byte[] {0x02, 0x15})
+                .build()));
+        clients.add(client(4, new ScanFilter.Builder()
+                .setManufacturerData(0x0006, new byte[] {0x01})
+                .build()));
+        clients.add(client(5, new ScanFilter.Builder().setDeviceName("name").build()));
+        clients.add(client(6, new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build()));
+        clients.add(new ScanClient(7, new ScanSettings.Builder().build(), null, 0));
+
+        ScanFilterIndex index = ScanFilterIndex.build(0, clients);
+
+        assertThat(index.match(result(ADDRESS), null)).containsExactly(1, 2, 3, 7);
+    }
+
+    @Test
+    public void match_originalAddress() {
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(client(1, new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build()));
+
+        ScanFilterIndex index = ScanFilterIndex.build(0, clients);
+
+        assertThat(index.match(result(ADDRESS), null)).isEmpty();
+        assertThat(index.match(result(ADDRESS), OTHER_ADDRESS.toLowerCase())).containsExactly(1);
+    }
+
+    @Test
+    public void covers_detectsStaleClients() {
+        ScanClient indexed = client(1, new ScanFilter.Builder().build());
+        List<ScanClient> clients = new ArrayList<>();
+        clients.add(indexed);
+
+        ScanFilterIndex index = ScanFilterIndex.build(3, clients);
+
+        assertThat(index.getGeneration()).isEqualTo(3);
+        assertThat(index.covers(indexed)).isTrue();
+        assertThat(index.covers(client(2, new ScanFilter.Builder().build()))).isFalse();
+        indexed.filters = new ArrayList<>();
+        assertThat(index.covers(indexed)).isFalse();
+    }
+
+    private static ScanClient client(int scannerId, ScanFilter filter) {
+        List<ScanFilter> filters = new ArrayList<>();
+        filters.add(filter);
+        return new ScanClient(scannerId, new ScanSettings.Builder().build(), filters, 0);
+    }
+
+    private static ScanResult result(String address) {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        return new ScanResult(device, 0, 0, 0, 0, 0, 0, 0, ScanRecord.parseFromBytes(ADV_DATA), 0);
+    }
+}
@@ -24,6 +24,7 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.os.BatteryStatsManager;
+import android.os.SystemClock;
 import android.os.WorkSource;
 
 import androidx.test.filters.SmallTest;
@@ -120,4 +121,38 @@ public class AppScanStatsTest {
 
         appScanStats.dumpToString(stringBuilder);
     }
+
+    @Test
+    public void addResult_countsPerScan() {
+        AppScanStats appScanStats = new AppScanStats("appName", null, map, mMockGatt);
+        ScanSettings settings = new ScanSettings.Builder().build();
+        appScanStats.recordScanStart(settings, new ArrayList<>(), false, true, 1);
+
+        appScanStats.addResult(1);
+        appScanStats.addResult(1);
+        // Results of unknown scanners only count towards the app total.
+        appScanStats.addResult(2);
+
+        assertThat(appScanStats.getScanFromScannerId(1).results.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void recordResultDelivered_recordsLatencyPerScanMode() {
+        AppScanStats appScanStats = new AppScanStats("appName", null, map, mMockGatt);
+        ScanSettings settings =
+                new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+        appScanStats.recordScanStart(settings, new ArrayList<>(), false, true, 1);
+
+        appScanStats.recordResultDelivered(1, SystemClock.elapsedRealtimeNanos());
+        appScanStats.recordResultDelivered(2, SystemClock.elapsedRealtimeNanos());
+
+        assertThat(appScanStats.getDeliveryLatencyHistogram(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .getCount()).isEqualTo(1);
+        assertThat(appScanStats.getDeliveryLatencyHistogram(ScanSettings.SCAN_MODE_LOW_POWER))
+                .isNull();
+
+        StringBuilder sb = new StringBuilder();
+        appScanStats.dumpToString(sb);
+        assertThat(sb.toString()).contains("Result delivery latency");
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_scan;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for {@link LatencyHistogram}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LatencyHistogramTest {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    @Test
+    public void record_bucketsSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(0);
+        histogram.record(NANOS_PER_MILLI);
+        histogram.record(3 * NANOS_PER_MILLI);
+        histogram.record(5_000 * NANOS_PER_MILLI);
+        histogram.record(-1);
+
+        assertThat(histogram.getCount()).isEqualTo(4);
+        assertThat(histogram.getBucketCount(0)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(1)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(2)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(LatencyHistogram.BUCKET_UPPER_BOUNDS_MS.length))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void getPercentileUpperBoundMs() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(0);
+        }
+        histogram.record(150 * NANOS_PER_MILLI);
+
+        assertThat(histogram.getPercentileUpperBoundMs(50)).isEqualTo(1);
+        assertThat(histogram.getPercentileUpperBoundMs(99)).isEqualTo(1);
+        assertThat(histogram.getPercentileUpperBoundMs(100)).isEqualTo(200);
+    }
+
+    @Test
+    public void dumpToString_emptyHistogram() {
+        StringBuilder sb = new StringBuilder();
+
+        new LatencyHistogram().dumpToString(sb);
+
+        assertThat(sb.toString()).isEmpty();
+    }
+}
@@ -24,12 +24,15 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.IPeriodicAdvertisingCallback;
+import android.bluetooth.le.PeriodicAdvertisingReport;
 import android.bluetooth.le.ScanResult;
 import android.content.Context;
 import android.os.IBinder;
@@ -64,6 +67,7 @@ public class PeriodicScanManagerTest {
     private Context mTargetContext;
 
     private static final String REMOTE_DEVICE_ADDRESS = "00:01:02:03:04:05";
+    private static final int SYNC_HANDLE = 1;
 
     @Before
     public void setUp() throws Exception {
@@ -118,4 +122,108 @@ public class PeriodicScanManagerTest {
                 0);
         verify(mCallback).onSyncEstablished(anyInt(), eq(mTestDevice), eq(0), eq(0), eq(0), eq(0));
     }
+
+    @Test
+    public void testOnSyncReport_reassemblesFragments() throws Exception {
+        establishSync();
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicScanManager.DATA_INCOMPLETE_MORE, new byte[] {1, 2});
+        verify(mCallback, never()).onPeriodicAdvertisingReport(any());
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {3});
+        ArgumentCaptor<PeriodicAdvertisingReport> report =
+                ArgumentCaptor.forClass(PeriodicAdvertisingReport.class);
+        verify(mCallback).onPeriodicAdvertisingReport(report.capture());
+        assertThat(report.getValue().getDataStatus())
+                .isEqualTo(PeriodicAdvertisingReport.DATA_COMPLETE);
+        assertThat(report.getValue().getData().getBytes()).isEqualTo(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void testOnSyncReport_truncatedFragment_reportsTruncated() throws Exception {
+        establishSync();
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicScanManager.DATA_INCOMPLETE_MORE, new byte[] {1});
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE,
+                0,
+                0,
+                PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED,
+                new byte[] {2});
+
+        ArgumentCaptor<PeriodicAdvertisingReport> report =
+                ArgumentCaptor.forClass(PeriodicAdvertisingReport.class);
+        verify(mCallback).onPeriodicAdvertisingReport(report.capture());
+        assertThat(report.getValue().getDataStatus())
+                .isEqualTo(PeriodicAdvertisingReport.DATA_INCOMPLETE_TRUNCATED);
+        assertThat(report.getValue().getData().getBytes()).isEqualTo(new byte[] {1, 2});
+    }
+
+    @Test
+    public void testOnSyncReport_reportChangesOnly_skipsUnchangedReports() throws Exception {
+        establishSync();
+        mPeriodicScanManager.setReportChangesOnly(true);
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {1});
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {1});
+        verify(mCallback, times(1)).onPeriodicAdvertisingReport(any());
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {2});
+        verify(mCallback, times(2)).onPeriodicAdvertisingReport(any());
+    }
+
+    @Test
+    public void testOnSyncReport_reportChangesOnly_joiningCallbackGetsUnchangedReport()
+            throws Exception {
+        establishSync();
+        mPeriodicScanManager.setReportChangesOnly(true);
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {1});
+
+        IPeriodicAdvertisingCallback callback = mock(IPeriodicAdvertisingCallback.class);
+        IBinder binder = mock(IBinder.class);
+        doReturn(binder).when(callback).asBinder();
+        mPeriodicScanManager.startSync(mScanResult, 0, 0, callback);
+        verify(callback).onSyncEstablished(eq(SYNC_HANDLE), any(), anyInt(), anyInt(), anyInt(),
+                anyInt());
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {1});
+        verify(callback).onPeriodicAdvertisingReport(any());
+    }
+
+    @Test
+    public void testOnSyncLost_removesSync() throws Exception {
+        establishSync();
+
+        mPeriodicScanManager.onSyncLost(SYNC_HANDLE);
+        verify(mCallback).onSyncLost(SYNC_HANDLE);
+        assertThat(mPeriodicScanManager.mSyncs).isEmpty();
+
+        mPeriodicScanManager.onSyncReport(
+                SYNC_HANDLE, 0, 0, PeriodicAdvertisingReport.DATA_COMPLETE, new byte[] {1});
+        verify(mCallback, never()).onPeriodicAdvertisingReport(any());
+    }
+
+    private void establishSync() throws Exception {
+        mPeriodicScanManager.startSync(mScanResult, 0, 0, mCallback);
+        ArgumentCaptor<Integer> regId = ArgumentCaptor.forClass(Integer.class);
+        verify(mPeriodicScanNativeInterface)
+                .startSync(eq(0), eq(REMOTE_DEVICE_ADDRESS), eq(0), eq(0), regId.capture());
+        mPeriodicScanManager.onSyncStarted(
+                regId.getValue(),
+                SYNC_HANDLE,
+                0,
+                BluetoothDevice.ADDRESS_TYPE_RANDOM,
+                REMOTE_DEVICE_ADDRESS,
+                0,
+                100,
+                0);
+    }
 }
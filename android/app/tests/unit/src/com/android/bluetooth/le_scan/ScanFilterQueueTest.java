@@ -196,4 +196,42 @@ public class ScanFilterQueueTest {
         int numOfEntries = 7;
         assertThat(queue.toArray().length).isEqualTo(numOfEntries);
     }
+
+    @Test
+    public void getKey_identicalFilters_sameKey() {
+        ParcelUuid serviceUuid = ParcelUuid.fromString(UUID.randomUUID().toString());
+        ScanFilterQueue queue1 = new ScanFilterQueue();
+        queue1.addScanFilter(new ScanFilter.Builder()
+                .setDeviceName("name")
+                .setServiceUuid(serviceUuid)
+                .setManufacturerData(1, new byte[] {0x01, 0x02})
+                .build());
+        ScanFilterQueue queue2 = new ScanFilterQueue();
+        queue2.addScanFilter(new ScanFilter.Builder()
+                .setManufacturerData(1, new byte[] {0x01, 0x02})
+                .setServiceUuid(serviceUuid)
+                .setDeviceName("name")
+                .build());
+
+        assertThat(queue1.getKey()).isEqualTo(queue2.getKey());
+    }
+
+    @Test
+    public void getKey_differentFilters_differentKey() {
+        ScanFilterQueue queue1 = new ScanFilterQueue();
+        queue1.addScanFilter(new ScanFilter.Builder()
+                .setManufacturerData(1, new byte[] {0x01, 0x02})
+                .build());
+        ScanFilterQueue queue2 = new ScanFilterQueue();
+        queue2.addScanFilter(new ScanFilter.Builder()
+                .setManufacturerData(1, new byte[] {0x01, 0x03})
+                .build());
+        ScanFilterQueue queue3 = new ScanFilterQueue();
+        queue3.addScanFilter(new ScanFilter.Builder()
+                .setManufacturerData(1, new byte[] {0x01, 0x02}, new byte[] {0x01, 0x00})
+                .build());
+
+        assertThat(queue1.getKey()).isNotEqualTo(queue2.getKey());
+        assertThat(queue1.getKey()).isNotEqualTo(queue3.getKey());
+    }
 }
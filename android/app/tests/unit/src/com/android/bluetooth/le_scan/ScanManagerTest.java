@@ -27,6 +27,7 @@ import static android.bluetooth.le.ScanSettings.SCAN_MODE_SCREEN_OFF_BALANCED;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.atMost;
@@ -1514,4 +1515,21 @@ public class ScanManagerTest {
         TestUtils.waitForLooperToFinishScheduledTask(mHandler.getLooper());
         assertThat(mScanManager.mProfilesConnecting).isEqualTo(3);
     }
+
+    @Test
+    public void identicalFilters_shareHardwareFilterSlot() {
+        ScanClient client1 = createScanClient(1, true, SCAN_MODE_LOW_LATENCY);
+        ScanClient client2 = createScanClient(2, true, SCAN_MODE_LOW_LATENCY);
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client1));
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client2));
+        // The second client's filter is identical, so it's only programmed once.
+        verify(mScanNativeInterface, times(1)).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(false, client1));
+        verify(mScanNativeInterface, never()).gattClientScanFilterParamDelete(anyInt(), anyInt());
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(false, client2));
+        verify(mScanNativeInterface, times(1)).gattClientScanFilterParamDelete(anyInt(), anyInt());
+    }
 }
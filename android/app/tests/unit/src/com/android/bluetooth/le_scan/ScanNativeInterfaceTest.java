@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_scan;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test cases for the scan filter operation pipeline of {@link ScanNativeInterface}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanNativeInterfaceTest {
+
+    private static final int MAX_PENDING = 2;
+    private static final int SHORT_TIMEOUT_MS = 10;
+    private static final int LONG_TIMEOUT_MS = 5_000;
+
+    private ScanNativeInterface mNativeInterface;
+
+    @Before
+    public void setUp() {
+        mNativeInterface = ScanNativeInterface.getInstance();
+        mNativeInterface.waitForFilterOperations(0);
+    }
+
+    @After
+    public void tearDown() {
+        mNativeInterface.waitForFilterOperations(0);
+    }
+
+    @Test
+    public void beginFilterOperation_doesNotWaitBelowLimit() {
+        assertThat(mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS)).isTrue();
+        assertThat(mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS)).isTrue();
+        assertThat(mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS)).isFalse();
+    }
+
+    @Test
+    public void beginFilterOperation_resumesWhenOperationCompletes() {
+        mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS);
+        mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS);
+
+        new Thread(() -> mNativeInterface.filterOperationDone()).start();
+
+        assertThat(mNativeInterface.beginFilterOperation(MAX_PENDING, LONG_TIMEOUT_MS)).isTrue();
+    }
+
+    @Test
+    public void waitForFilterOperations() {
+        assertThat(mNativeInterface.waitForFilterOperations(SHORT_TIMEOUT_MS)).isTrue();
+
+        mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS);
+        mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS);
+        assertThat(mNativeInterface.waitForFilterOperations(SHORT_TIMEOUT_MS)).isFalse();
+
+        mNativeInterface.beginFilterOperation(MAX_PENDING, SHORT_TIMEOUT_MS);
+        mNativeInterface.filterOperationDone();
+        assertThat(mNativeInterface.waitForFilterOperations(SHORT_TIMEOUT_MS)).isTrue();
+    }
+}
@@ -79,6 +79,11 @@ public final class BluetoothGatt implements BluetoothProfile {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Boolean mDeviceBusy = false;
 
+    // Operations sent to the stack whose callback hasn't been invoked yet, and how many of them
+    // may be outstanding at once. Guarded by mDeviceBusyLock.
+    private int mPendingOperations;
+    private int mOperationQueueDepth = 1;
+
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private int mTransport;
 
@@ -96,6 +101,7 @@ public final class BluetoothGatt implements BluetoothProfile {
 
     private static final int WRITE_CHARACTERISTIC_MAX_RETRIES = 5;
     private static final int WRITE_CHARACTERISTIC_TIME_TO_WAIT = 10; // milliseconds
+    private static final int MAX_OPERATION_QUEUE_DEPTH = 32;
     // Max length of an attribute value, defined in gatt_api.h
     private static final int GATT_MAX_ATTR_LEN = 512;
 
@@ -405,9 +411,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                         }
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
+                    releaseAllOperationSlots();
                 }
 
                 /**
@@ -488,10 +492,6 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
-
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                                     || status == GATT_INSUFFICIENT_ENCRYPTION)
                             && (mAuthRetryState != AUTH_RETRY_STATE_MITM)) {
@@ -504,6 +504,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             mService.readCharacteristic(
                                     mClientIf, address, handle, authReq, mAttributionSource, recv);
                             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                            // The retry keeps the slot of the failed operation.
                             mAuthRetryState++;
                             return;
                         } catch (RemoteException | TimeoutException e) {
@@ -511,6 +512,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                         }
                     }
 
+                    releaseOperationSlot();
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
 
                     BluetoothGattCharacteristic characteristic =
@@ -557,13 +559,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
-
                     BluetoothGattCharacteristic characteristic =
                             getCharacteristicById(mDevice, handle);
-                    if (characteristic == null) return;
+                    if (characteristic == null) {
+                        releaseOperationSlot();
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                                     || status == GATT_INSUFFICIENT_ENCRYPTION)
@@ -601,13 +602,17 @@ public final class BluetoothGatt implements BluetoothProfile {
                                     Log.e(TAG, "", e);
                                 }
                             }
-                            mAuthRetryState++;
-                            return;
+                            if (requestStatus == BluetoothStatusCodes.SUCCESS) {
+                                // The retry keeps the slot of the failed write.
+                                mAuthRetryState++;
+                                return;
+                            }
                         } catch (RemoteException | TimeoutException e) {
                             Log.e(TAG, "", e);
                         }
                     }
 
+                    releaseOperationSlot();
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
                     runOrQueueCallback(
                             new Runnable() {
@@ -653,6 +658,62 @@ public final class BluetoothGatt implements BluetoothProfile {
                             });
                 }
 
+                /**
+                 * A batch of remote characteristic notifications has been received. Updates the
+                 * internal values.
+                 *
+                 * @hide
+                 */
+                @Override
+                public void onNotifyBatch(
+                        String address, int[] handles, int[] lengths, byte[] values) {
+                    if (VDBG) {
+                        Log.d(TAG, "onNotifyBatch() - Device=" + address
+                                + " count=" + handles.length);
+                    }
+
+                    if (!address.equals(mDevice.getAddress())) {
+                        return;
+                    }
+
+                    final List<BluetoothGattCharacteristic> characteristics =
+                            new ArrayList<>(handles.length);
+                    final List<byte[]> characteristicValues = new ArrayList<>(handles.length);
+                    int offset = 0;
+                    for (int i = 0; i < handles.length; i++) {
+                        byte[] value = new byte[lengths[i]];
+                        System.arraycopy(values, offset, value, 0, lengths[i]);
+                        offset += lengths[i];
+
+                        BluetoothGattCharacteristic characteristic =
+                                getCharacteristicById(mDevice, handles[i]);
+                        if (characteristic == null) continue;
+                        characteristics.add(characteristic);
+                        characteristicValues.add(value);
+                    }
+                    if (characteristics.isEmpty()) return;
+
+                    runOrQueueCallback(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    final BluetoothGattCallback callback = mCallback;
+                                    if (callback != null) {
+                                        // Leaves each characteristic with its last value. The
+                                        // default callback sets each notified value in turn.
+                                        for (int i = 0; i < characteristics.size(); i++) {
+                                            characteristics.get(i)
+                                                    .setValue(characteristicValues.get(i));
+                                        }
+                                        callback.onCharacteristicsChanged(
+                                                BluetoothGatt.this,
+                                                characteristics,
+                                                characteristicValues);
+                                    }
+                                }
+                            });
+                }
+
                 /**
                  * Descriptor has been read.
                  *
@@ -669,12 +730,11 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
-
                     BluetoothGattDescriptor descriptor = getDescriptorById(mDevice, handle);
-                    if (descriptor == null) return;
+                    if (descriptor == null) {
+                        releaseOperationSlot();
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                                     || status == GATT_INSUFFICIENT_ENCRYPTION)
@@ -688,6 +748,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             mService.readDescriptor(
                                     mClientIf, address, handle, authReq, mAttributionSource, recv);
                             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                            // The retry keeps the slot of the failed operation.
                             mAuthRetryState++;
                             return;
                         } catch (RemoteException | TimeoutException e) {
@@ -695,6 +756,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                         }
                     }
 
+                    releaseOperationSlot();
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
 
                     runOrQueueCallback(
@@ -728,12 +790,11 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
-
                     BluetoothGattDescriptor descriptor = getDescriptorById(mDevice, handle);
-                    if (descriptor == null) return;
+                    if (descriptor == null) {
+                        releaseOperationSlot();
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                                     || status == GATT_INSUFFICIENT_ENCRYPTION)
@@ -753,6 +814,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                                     mAttributionSource,
                                     recv);
                             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                            // The retry keeps the slot of the failed operation.
                             mAuthRetryState++;
                             return;
                         } catch (RemoteException | TimeoutException e) {
@@ -760,6 +822,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                         }
                     }
 
+                    releaseOperationSlot();
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
 
                     runOrQueueCallback(
@@ -789,9 +852,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
+                    releaseOperationSlot();
 
                     runOrQueueCallback(
                             new Runnable() {
@@ -1079,6 +1140,34 @@ public final class BluetoothGatt implements BluetoothProfile {
         return null;
     }
 
+    /** Takes one of the operation slots, returning false if all of them are in use. */
+    private boolean acquireOperationSlot() {
+        synchronized (mDeviceBusyLock) {
+            // Apps targeting R or lower may clear mDeviceBusy through reflection to recover from
+            // a lost callback, which releases every slot.
+            if (!mDeviceBusy) mPendingOperations = 0;
+            if (mPendingOperations >= mOperationQueueDepth) return false;
+            mPendingOperations++;
+            mDeviceBusy = true;
+            return true;
+        }
+    }
+
+    /** Returns the slot of an operation that completed or failed to start. */
+    private void releaseOperationSlot() {
+        synchronized (mDeviceBusyLock) {
+            if (mPendingOperations > 0) mPendingOperations--;
+            mDeviceBusy = mPendingOperations > 0;
+        }
+    }
+
+    private void releaseAllOperationSlots() {
+        synchronized (mDeviceBusyLock) {
+            mPendingOperations = 0;
+            mDeviceBusy = false;
+        }
+    }
+
     /**
      * Queue the runnable on a {@link Handler} provided by the user, or execute the runnable
      * immediately if no Handler was provided.
@@ -1477,10 +1566,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         BluetoothDevice device = service.getDevice();
         if (device == null) return false;
 
-        synchronized (mDeviceBusyLock) {
-            if (mDeviceBusy) return false;
-            mDeviceBusy = true;
-        }
+        if (!acquireOperationSlot()) return false;
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1494,9 +1580,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
             return false;
         }
 
@@ -1521,10 +1605,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (VDBG) Log.d(TAG, "readUsingCharacteristicUuid() - uuid: " + uuid);
         if (mService == null || mClientIf == 0) return false;
 
-        synchronized (mDeviceBusyLock) {
-            if (mDeviceBusy) return false;
-            mDeviceBusy = true;
-        }
+        if (!acquireOperationSlot()) return false;
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1540,9 +1621,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
             return false;
         }
 
@@ -1643,14 +1722,12 @@ public final class BluetoothGatt implements BluetoothProfile {
             throw new IllegalArgumentException("Service must have a non-null device");
         }
 
-        synchronized (mDeviceBusyLock) {
-            if (mDeviceBusy) {
-                return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
-            }
-            mDeviceBusy = true;
+        if (!acquireOperationSlot()) {
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
         }
 
         int requestStatus = BluetoothStatusCodes.ERROR_UNKNOWN;
+        boolean timedOut = false;
         try {
             for (int i = 0; i < WRITE_CHARACTERISTIC_MAX_RETRIES; i++) {
                 final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
@@ -1677,21 +1754,17 @@ public final class BluetoothGatt implements BluetoothProfile {
             }
         } catch (TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            timedOut = true;
+            releaseOperationSlot();
         } catch (RemoteException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
             throw e.rethrowAsRuntimeException();
         }
-        if (Flags.gattFixDeviceBusy()) {
+        // A timed out request already released its slot above.
+        if (Flags.gattFixDeviceBusy() && !timedOut) {
             if (requestStatus != BluetoothStatusCodes.SUCCESS) {
-                synchronized (mDeviceBusyLock) {
-                    mDeviceBusy = false;
-                }
+                releaseOperationSlot();
             }
         }
 
@@ -1724,10 +1797,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         BluetoothDevice device = service.getDevice();
         if (device == null) return false;
 
-        synchronized (mDeviceBusyLock) {
-            if (mDeviceBusy) return false;
-            mDeviceBusy = true;
-        }
+        if (!acquireOperationSlot()) return false;
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1741,9 +1811,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
             return false;
         }
 
@@ -1816,10 +1884,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             throw new IllegalArgumentException("Service must have a non-null device");
         }
 
-        synchronized (mDeviceBusyLock) {
-            if (mDeviceBusy) return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
-            mDeviceBusy = true;
-        }
+        if (!acquireOperationSlot()) return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
 
         try {
             final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
@@ -1835,21 +1900,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                     .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
         } catch (TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
         } catch (RemoteException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
             throw e.rethrowAsRuntimeException();
         }
-        if (Flags.gattFixDeviceBusy()) {
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
-        }
         return BluetoothStatusCodes.ERROR_UNKNOWN;
     }
 
@@ -1907,10 +1963,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (VDBG) Log.d(TAG, "executeReliableWrite() - device: " + mDevice);
         if (mService == null || mClientIf == 0) return false;
 
-        synchronized (mDeviceBusyLock) {
-            if (mDeviceBusy) return false;
-            mDeviceBusy = true;
-        }
+        if (!acquireOperationSlot()) return false;
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1919,9 +1972,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            releaseOperationSlot();
             return false;
         }
 
@@ -2136,6 +2187,79 @@ public final class BluetoothGatt implements BluetoothProfile {
         return true;
     }
 
+    /**
+     * Sets how many read and write operations may be outstanding at once.
+     *
+     * <p>By default an operation can only be started once the callback of the previous one has
+     * been invoked; {@link #readCharacteristic}, {@link #writeCharacteristic} and the descriptor
+     * variants report the device as busy otherwise. With a larger depth, operations are sent to
+     * the Bluetooth stack right away, which executes them one after another. Their callbacks are
+     * invoked in the order the operations were started.
+     *
+     * <p>Writes without response complete as soon as the stack sent them, so the depth acts as
+     * the number of credits for such writes: a bulk transfer keeps up to {@code depth} packets
+     * queued in the stack instead of waiting one round trip per packet.
+     *
+     * @param depth number of operations that may be outstanding, between 1 and 32
+     * @throws IllegalArgumentException if depth is outside of that range
+     * @hide
+     */
+    @RequiresNoPermission
+    public void setOperationQueueDepth(int depth) {
+        if (depth < 1 || depth > MAX_OPERATION_QUEUE_DEPTH) {
+            throw new IllegalArgumentException("depth not within valid range");
+        }
+        if (DBG) Log.d(TAG, "setOperationQueueDepth() - depth: " + depth);
+        synchronized (mDeviceBusyLock) {
+            mOperationQueueDepth = depth;
+        }
+    }
+
+    /**
+     * Enable or disable batched delivery of remote characteristic notifications.
+     *
+     * <p>While enabled, notifications from the remote device are collected by the Bluetooth stack
+     * and delivered together through {@link BluetoothGattCallback#onCharacteristicsChanged} once
+     * {@code maxDelayMillis} elapsed since the first pending notification or {@code maxBytes} of
+     * values are pending, whichever comes first. Notifications keep the order they were received
+     * in. Batching only applies to the current connection and is disabled on disconnection.
+     *
+     * @param maxDelayMillis maximum time a notification may be held back, or 0 to disable batching
+     * @param maxBytes maximum number of value bytes held back before the batch is delivered
+     * @return true, if the request is send to the Bluetooth stack.
+     * @hide
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public boolean setNotificationBatching(int maxDelayMillis, int maxBytes) {
+        if (maxDelayMillis < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("batching limits must not be negative");
+        }
+
+        if (DBG) {
+            Log.d(TAG, "setNotificationBatching() - maxDelayMillis: " + maxDelayMillis
+                    + " maxBytes: " + maxBytes);
+        }
+        if (mService == null || mClientIf == 0) return false;
+
+        try {
+            final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+            mService.setNotificationBatching(
+                    mClientIf,
+                    mDevice.getAddress(),
+                    maxDelayMillis,
+                    maxBytes,
+                    mAttributionSource,
+                    recv);
+            recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+        } catch (RemoteException | TimeoutException e) {
+            Log.e(TAG, "", e);
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Request an LE connection parameter update.
      *
@@ -18,6 +18,8 @@ package android.bluetooth;
 
 import android.annotation.NonNull;
 
+import java.util.List;
+
 /** This abstract class is used to implement {@link BluetoothGatt} callbacks. */
 public abstract class BluetoothGattCallback {
 
@@ -150,6 +152,34 @@ public abstract class BluetoothGattCallback {
         onCharacteristicChanged(gatt, characteristic);
     }
 
+    /**
+     * Callback triggered when the remote characteristic notifications collected while
+     * notification batching is enabled are delivered together.
+     *
+     * <p>The notifications are reported in the order they were received. The default
+     * implementation calls {@link #onCharacteristicChanged(BluetoothGatt,
+     * BluetoothGattCharacteristic, byte[])} once per notification, with the value of the
+     * characteristic set to the notified one.
+     *
+     * @param gatt GATT client the characteristics are associated with
+     * @param characteristics Characteristics that have been updated, one entry per notification.
+     * @param values notified characteristic values, in the same order as {@code characteristics}
+     * @see BluetoothGatt#setNotificationBatching(int, int)
+     * @hide
+     */
+    public void onCharacteristicsChanged(
+            @NonNull BluetoothGatt gatt,
+            @NonNull List<BluetoothGattCharacteristic> characteristics,
+            @NonNull List<byte[]> values) {
+        for (int i = 0; i < characteristics.size(); i++) {
+            BluetoothGattCharacteristic characteristic = characteristics.get(i);
+            // A characteristic can be notified several times in a batch, so restore the value of
+            // this notification for callbacks reading it from the characteristic.
+            characteristic.setValue(values.get(i));
+            onCharacteristicChanged(gatt, characteristic, values.get(i));
+        }
+    }
+
     /**
      * Callback reporting the result of a descriptor read operation.
      *
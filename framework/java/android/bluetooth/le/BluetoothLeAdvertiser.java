@@ -43,6 +43,7 @@ import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeoutException;
@@ -640,6 +641,51 @@ public final class BluetoothLeAdvertiser {
         }
     }
 
+    /**
+     * Updates the advertising data and scan response of several advertising sets in a single call,
+     * e.g. to rotate the payloads of many sets at once. The operation status of each set is
+     * delivered through its {@code callback.onAdvertisingDataSet()} and {@code
+     * callback.onScanResponseDataSet()}.
+     *
+     * @param advertisingSets the advertising sets to update
+     * @param advertiseData advertisement data of each set, or null entries to leave it unchanged
+     * @param scanResponses scan response of each set, or null entries to leave it unchanged
+     * @throws IllegalArgumentException if the lists don't have the same size
+     * @hide
+     */
+    @RequiresBluetoothAdvertisePermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_ADVERTISE)
+    public void setAdvertisingData(@NonNull List<AdvertisingSet> advertisingSets,
+            @NonNull List<AdvertiseData> advertiseData,
+            @NonNull List<AdvertiseData> scanResponses) {
+        int count = advertisingSets.size();
+        if (advertiseData.size() != count || scanResponses.size() != count) {
+            throw new IllegalArgumentException("advertisingSets and data sizes differ");
+        }
+
+        IBluetoothGatt gatt = mBluetoothAdapter.getBluetoothGatt();
+        if (gatt == null) {
+            Log.e(TAG, "Bluetooth GATT is null");
+            return;
+        }
+        int[] advertiserIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            advertiserIds[i] = advertisingSets.get(i).getAdvertiserId();
+        }
+        try {
+            final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+            gatt.setAdvertisingDataBulk(
+                    advertiserIds,
+                    advertiseData.toArray(new AdvertiseData[count]),
+                    scanResponses.toArray(new AdvertiseData[count]),
+                    mAttributionSource,
+                    recv);
+            recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+        } catch (TimeoutException | RemoteException e) {
+            Log.e(TAG, "Failed to set advertising data - ", e);
+        }
+    }
+
     /**
      * Cleans up advertisers. Should be called when bluetooth is down.
      *
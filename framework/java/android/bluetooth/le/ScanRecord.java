@@ -28,6 +28,8 @@ import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
+import com.android.internal.annotations.GuardedBy;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -335,26 +337,44 @@ public final class ScanRecord {
      */
     public static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
 
+    // Fields of a lazily parsed record that are decoded from mStructures on first access.
+    private static final int FIELD_SERVICE_UUIDS = 1 << 0;
+    private static final int FIELD_SERVICE_SOLICITATION_UUIDS = 1 << 1;
+    private static final int FIELD_MANUFACTURER_SPECIFIC_DATA = 1 << 2;
+    private static final int FIELD_SERVICE_DATA = 1 << 3;
+    private static final int FIELD_DEVICE_NAME = 1 << 4;
+    private static final int FIELD_ADVERTISING_DATA_MAP = 1 << 5;
+
     // Flags of the advertising data.
     private final int mAdvertiseFlags;
 
-    @Nullable private final List<ParcelUuid> mServiceUuids;
-    @Nullable private final List<ParcelUuid> mServiceSolicitationUuids;
+    @Nullable private List<ParcelUuid> mServiceUuids;
+    @Nullable private List<ParcelUuid> mServiceSolicitationUuids;
 
-    private final SparseArray<byte[]> mManufacturerSpecificData;
+    private SparseArray<byte[]> mManufacturerSpecificData;
 
-    private final Map<ParcelUuid, byte[]> mServiceData;
+    private Map<ParcelUuid, byte[]> mServiceData;
 
     // Transmission power level(in dB).
     private final int mTxPowerLevel;
 
     // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
+    private String mDeviceName;
 
     // Raw bytes of scan record.
     private final byte[] mBytes;
 
-    private final Map<Integer, byte[]> mAdvertisingDataMap;
+    private Map<Integer, byte[]> mAdvertisingDataMap;
+
+    // Offsets of the AD structures in mBytes for a lazily parsed record, null otherwise. Each
+    // structure takes two entries: the position of its data and the length of its data. The
+    // field type is the byte right before the data.
+    @Nullable private final int[] mStructures;
+    private final int mStructureCount;
+
+    // FIELD_* bits that have not been decoded from mStructures yet.
+    @GuardedBy("this")
+    private int mPendingFields;
 
     // Transport Discovery data.
     private final TransportDiscoveryData mTransportDiscoveryData;
@@ -372,6 +392,7 @@ public final class ScanRecord {
      * bluetooth GATT services.
      */
     public List<ParcelUuid> getServiceUuids() {
+        materialize(FIELD_SERVICE_UUIDS);
         return mServiceUuids;
     }
 
@@ -381,6 +402,7 @@ public final class ScanRecord {
      */
     @NonNull
     public List<ParcelUuid> getServiceSolicitationUuids() {
+        materialize(FIELD_SERVICE_SOLICITATION_UUIDS);
         return mServiceSolicitationUuids;
     }
 
@@ -389,6 +411,7 @@ public final class ScanRecord {
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
+        materialize(FIELD_MANUFACTURER_SPECIFIC_DATA);
         return mManufacturerSpecificData;
     }
 
@@ -398,14 +421,16 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        if (mManufacturerSpecificData == null) {
+        SparseArray<byte[]> manufacturerSpecificData = getManufacturerSpecificData();
+        if (manufacturerSpecificData == null) {
             return null;
         }
-        return mManufacturerSpecificData.get(manufacturerId);
+        return manufacturerSpecificData.get(manufacturerId);
     }
 
     /** Returns a map of service UUID and its corresponding service data. */
     public Map<ParcelUuid, byte[]> getServiceData() {
+        materialize(FIELD_SERVICE_DATA);
         return mServiceData;
     }
 
@@ -415,10 +440,14 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getServiceData(ParcelUuid serviceDataUuid) {
-        if (serviceDataUuid == null || mServiceData == null) {
+        if (serviceDataUuid == null) {
             return null;
         }
-        return mServiceData.get(serviceDataUuid);
+        Map<ParcelUuid, byte[]> serviceData = getServiceData();
+        if (serviceData == null) {
+            return null;
+        }
+        return serviceData.get(serviceDataUuid);
     }
 
     /**
@@ -435,6 +464,7 @@ public final class ScanRecord {
     /** Returns the local name of the BLE device. This is a UTF-8 encoded string. */
     @Nullable
     public String getDeviceName() {
+        materialize(FIELD_DEVICE_NAME);
         return mDeviceName;
     }
 
@@ -444,6 +474,7 @@ public final class ScanRecord {
      * (https://www.bluetooth.com/specifications/assigned-numbers/)
      */
     public @NonNull Map<Integer, byte[]> getAdvertisingDataMap() {
+        materialize(FIELD_ADVERTISING_DATA_MAP);
         return mAdvertisingDataMap;
     }
 
@@ -504,6 +535,39 @@ public final class ScanRecord {
         mAdvertisingDataMap = advertisingDataMap;
         mTransportDiscoveryData = transportDiscoveryData;
         mBytes = bytes;
+        mStructures = null;
+        mStructureCount = 0;
+    }
+
+    private ScanRecord(
+            byte[] bytes,
+            int[] structures,
+            int structureCount,
+            boolean valid,
+            int advertiseFlags,
+            int txPowerLevel,
+            TransportDiscoveryData transportDiscoveryData) {
+        mBytes = bytes;
+        mStructures = structures;
+        mStructureCount = structureCount;
+        if (valid) {
+            mAdvertiseFlags = advertiseFlags;
+            mTxPowerLevel = txPowerLevel;
+            mTransportDiscoveryData = transportDiscoveryData;
+            mPendingFields =
+                    FIELD_SERVICE_UUIDS
+                            | FIELD_SERVICE_SOLICITATION_UUIDS
+                            | FIELD_MANUFACTURER_SPECIFIC_DATA
+                            | FIELD_SERVICE_DATA
+                            | FIELD_DEVICE_NAME
+                            | FIELD_ADVERTISING_DATA_MAP;
+        } else {
+            // Same as parseFromBytes: an invalid record only keeps its raw advertising data.
+            mAdvertiseFlags = -1;
+            mTxPowerLevel = Integer.MIN_VALUE;
+            mTransportDiscoveryData = null;
+            mPendingFields = FIELD_ADVERTISING_DATA_MAP;
+        }
     }
 
     /**
@@ -689,22 +753,316 @@ public final class ScanRecord {
         }
     }
 
+    /**
+     * Parse scan record bytes to a {@link ScanRecord} that decodes its fields on first access.
+     *
+     * <p>Only the offsets of the AD structures are recorded up front, over the original {@code
+     * scanRecord} array. Service UUIDs, service data, manufacturer specific data, the local name
+     * and the advertising data map are each materialized the first time their accessor is called,
+     * so a consumer that only looks at one field does not pay for decoding the others. The result
+     * is otherwise identical to {@link #parseFromBytes}.
+     *
+     * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response. The
+     *     array must not be modified after this call.
+     * @hide
+     */
+    public static ScanRecord parseFromBytesLazily(byte[] scanRecord) {
+        if (scanRecord == null) {
+            return null;
+        }
+
+        int currentPos = 0;
+        int advertiseFlag = -1;
+        int txPowerLevel = Integer.MIN_VALUE;
+        TransportDiscoveryData transportDiscoveryData = null;
+        int[] structures = new int[16];
+        int structureCount = 0;
+
+        try {
+            while (currentPos < scanRecord.length) {
+                // length is unsigned int.
+                int length = scanRecord[currentPos++] & 0xFF;
+                if (length == 0) {
+                    break;
+                }
+                // Note the length includes the length of the field type itself.
+                int dataLength = length - 1;
+                // fieldType is unsigned int.
+                int fieldType = scanRecord[currentPos++] & 0xFF;
+                // The checks below throw on the same malformed input parseFromBytes does, so that
+                // both parsers agree on which records are invalid.
+                checkRange(scanRecord, currentPos, dataLength);
+                if (structureCount * 2 == structures.length) {
+                    structures = Arrays.copyOf(structures, structures.length * 2);
+                }
+                structures[structureCount * 2] = currentPos;
+                structures[structureCount * 2 + 1] = dataLength;
+                structureCount++;
+                switch (fieldType) {
+                    case DATA_TYPE_FLAGS:
+                        advertiseFlag = scanRecord[currentPos] & 0xFF;
+                        break;
+                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                        checkUuids(
+                                scanRecord,
+                                currentPos,
+                                dataLength,
+                                BluetoothUuid.UUID_BYTES_16_BIT);
+                        break;
+                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                        checkUuids(
+                                scanRecord,
+                                currentPos,
+                                dataLength,
+                                BluetoothUuid.UUID_BYTES_32_BIT);
+                        break;
+                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                        checkUuids(
+                                scanRecord,
+                                currentPos,
+                                dataLength,
+                                BluetoothUuid.UUID_BYTES_128_BIT);
+                        break;
+                    case DATA_TYPE_TX_POWER_LEVEL:
+                        txPowerLevel = scanRecord[currentPos];
+                        break;
+                    case DATA_TYPE_SERVICE_DATA_16_BIT:
+                    case DATA_TYPE_SERVICE_DATA_32_BIT:
+                    case DATA_TYPE_SERVICE_DATA_128_BIT:
+                        int serviceUuidLength = getServiceDataUuidLength(fieldType);
+                        checkRange(scanRecord, currentPos, serviceUuidLength);
+                        checkRange(
+                                scanRecord,
+                                currentPos + serviceUuidLength,
+                                dataLength - serviceUuidLength);
+                        break;
+                    case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                        checkRange(scanRecord, currentPos, 2);
+                        checkRange(scanRecord, currentPos + 2, dataLength - 2);
+                        break;
+                    case DATA_TYPE_TRANSPORT_DISCOVERY_DATA:
+                        // Rare enough to be decoded eagerly.
+                        // -1 / +1 to include the type in the extract
+                        byte[] transportDiscoveryDataBytes =
+                                extractBytes(scanRecord, currentPos - 1, dataLength + 1);
+                        transportDiscoveryData =
+                                new TransportDiscoveryData(transportDiscoveryDataBytes);
+                        break;
+
+                    default:
+                        // Just ignore, we don't handle such data type.
+                        break;
+                }
+                currentPos += dataLength;
+            }
+            return new ScanRecord(
+                    scanRecord,
+                    structures,
+                    structureCount,
+                    true,
+                    advertiseFlag,
+                    txPowerLevel,
+                    transportDiscoveryData);
+        } catch (Exception e) {
+            Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord));
+            return new ScanRecord(
+                    scanRecord, structures, structureCount, false, -1, Integer.MIN_VALUE, null);
+        }
+    }
+
+    // Decodes a field of a lazily parsed record from the recorded AD structure offsets.
+    private void materialize(int field) {
+        if (mStructures == null) {
+            return;
+        }
+        synchronized (this) {
+            if ((mPendingFields & field) == 0) {
+                return;
+            }
+            switch (field) {
+                case FIELD_SERVICE_UUIDS:
+                    List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
+                    for (int i = 0; i < mStructureCount; i++) {
+                        int uuidLength = getServiceUuidLength(getStructureType(i));
+                        if (uuidLength > 0) {
+                            parseServiceUuid(
+                                    mBytes,
+                                    mStructures[i * 2],
+                                    mStructures[i * 2 + 1],
+                                    uuidLength,
+                                    serviceUuids);
+                        }
+                    }
+                    mServiceUuids = serviceUuids.isEmpty() ? null : serviceUuids;
+                    break;
+                case FIELD_SERVICE_SOLICITATION_UUIDS:
+                    List<ParcelUuid> serviceSolicitationUuids = new ArrayList<ParcelUuid>();
+                    for (int i = 0; i < mStructureCount; i++) {
+                        int uuidLength = getServiceSolicitationUuidLength(getStructureType(i));
+                        if (uuidLength > 0) {
+                            parseServiceSolicitationUuid(
+                                    mBytes,
+                                    mStructures[i * 2],
+                                    mStructures[i * 2 + 1],
+                                    uuidLength,
+                                    serviceSolicitationUuids);
+                        }
+                    }
+                    mServiceSolicitationUuids = serviceSolicitationUuids;
+                    break;
+                case FIELD_MANUFACTURER_SPECIFIC_DATA:
+                    SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
+                    for (int i = 0; i < mStructureCount; i++) {
+                        if (getStructureType(i) != DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                            continue;
+                        }
+                        int pos = mStructures[i * 2];
+                        // The first two bytes of the manufacturer specific data are
+                        // manufacturer ids in little endian.
+                        int manufacturerId =
+                                ((mBytes[pos + 1] & 0xFF) << 8) + (mBytes[pos] & 0xFF);
+                        manufacturerData.put(
+                                manufacturerId,
+                                extractBytes(mBytes, pos + 2, mStructures[i * 2 + 1] - 2));
+                    }
+                    mManufacturerSpecificData = manufacturerData;
+                    break;
+                case FIELD_SERVICE_DATA:
+                    Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
+                    for (int i = 0; i < mStructureCount; i++) {
+                        int serviceUuidLength = getServiceDataUuidLength(getStructureType(i));
+                        if (serviceUuidLength == 0) {
+                            continue;
+                        }
+                        int pos = mStructures[i * 2];
+                        ParcelUuid serviceDataUuid =
+                                BluetoothUuid.parseUuidFrom(
+                                        extractBytes(mBytes, pos, serviceUuidLength));
+                        serviceData.put(
+                                serviceDataUuid,
+                                extractBytes(
+                                        mBytes,
+                                        pos + serviceUuidLength,
+                                        mStructures[i * 2 + 1] - serviceUuidLength));
+                    }
+                    mServiceData = serviceData;
+                    break;
+                case FIELD_DEVICE_NAME:
+                    for (int i = 0; i < mStructureCount; i++) {
+                        int fieldType = getStructureType(i);
+                        if (fieldType == DATA_TYPE_LOCAL_NAME_SHORT
+                                || fieldType == DATA_TYPE_LOCAL_NAME_COMPLETE) {
+                            mDeviceName =
+                                    new String(
+                                            extractBytes(
+                                                    mBytes,
+                                                    mStructures[i * 2],
+                                                    mStructures[i * 2 + 1]));
+                        }
+                    }
+                    break;
+                case FIELD_ADVERTISING_DATA_MAP:
+                    HashMap<Integer, byte[]> advertisingDataMap = new HashMap<Integer, byte[]>();
+                    for (int i = 0; i < mStructureCount; i++) {
+                        advertisingDataMap.put(
+                                getStructureType(i),
+                                extractBytes(mBytes, mStructures[i * 2], mStructures[i * 2 + 1]));
+                    }
+                    mAdvertisingDataMap = advertisingDataMap;
+                    break;
+                default:
+                    break;
+            }
+            mPendingFields &= ~field;
+        }
+    }
+
+    private int getStructureType(int index) {
+        return mBytes[mStructures[index * 2] - 1] & 0xFF;
+    }
+
+    private static int getServiceUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    private static int getServiceSolicitationUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    private static int getServiceDataUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_DATA_16_BIT:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_DATA_32_BIT:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_DATA_128_BIT:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    // Throws if extractBytes(scanRecord, start, length) would.
+    private static void checkRange(byte[] scanRecord, int start, int length) {
+        if (length < 0 || start < 0 || start + length > scanRecord.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "start=" + start + ", length=" + length + ", size=" + scanRecord.length);
+        }
+    }
+
+    // Throws if parseServiceUuid or parseServiceSolicitationUuid would.
+    private static void checkUuids(
+            byte[] scanRecord, int currentPos, int dataLength, int uuidLength) {
+        while (dataLength > 0) {
+            checkRange(scanRecord, currentPos, uuidLength);
+            dataLength -= uuidLength;
+            currentPos += uuidLength;
+        }
+    }
+
     @Override
     public String toString() {
         return "ScanRecord [mAdvertiseFlags="
                 + mAdvertiseFlags
                 + ", mServiceUuids="
-                + mServiceUuids
+                + getServiceUuids()
                 + ", mServiceSolicitationUuids="
-                + mServiceSolicitationUuids
+                + getServiceSolicitationUuids()
                 + ", mManufacturerSpecificData="
-                + BluetoothLeUtils.toString(mManufacturerSpecificData)
+                + BluetoothLeUtils.toString(getManufacturerSpecificData())
                 + ", mServiceData="
-                + BluetoothLeUtils.toString(mServiceData)
+                + BluetoothLeUtils.toString(getServiceData())
                 + ", mTxPowerLevel="
                 + mTxPowerLevel
                 + ", mDeviceName="
-                + mDeviceName
+                + getDeviceName()
                 + ", mTransportDiscoveryData="
                 + mTransportDiscoveryData
                 + "]";
@@ -179,6 +179,54 @@ public class ScanRecordTest extends TestCase {
         assertArrayEquals(new byte[] {0x50, 0x64}, data.getServiceData().get(uuid2));
     }
 
+    @SmallTest
+    public void testLazyParser_matchesEagerParser() {
+        for (String record :
+                Arrays.asList(
+                        RECORD_URL, RECORD_UUID, RECORD_TLM, RECORD_IBEACON, RECORD_E2EE_EID)) {
+            byte[] bytes = HexDump.hexStringToByteArray(record);
+            assertSameRecord(ScanRecord.parseFromBytes(bytes),
+                    ScanRecord.parseFromBytesLazily(bytes));
+        }
+    }
+
+    @SmallTest
+    public void testLazyParser_malformedRecord() {
+        byte[] scanRecord =
+                new byte[] {
+                    0x02,
+                    0x01,
+                    0x1a, // advertising flags
+                    0x02,
+                    (byte) 0xff,
+                    (byte) 0xe0, // manufacturer specific data without the second id byte
+                };
+        ScanRecord eager = ScanRecord.parseFromBytes(scanRecord);
+        ScanRecord lazy = ScanRecord.parseFromBytesLazily(scanRecord);
+        assertEquals(-1, lazy.getAdvertiseFlags());
+        assertNull(lazy.getManufacturerSpecificData());
+        assertSameRecord(eager, lazy);
+    }
+
+    private static void assertSameRecord(ScanRecord expected, ScanRecord actual) {
+        assertEquals(expected.getAdvertiseFlags(), actual.getAdvertiseFlags());
+        assertEquals(expected.getTxPowerLevel(), actual.getTxPowerLevel());
+        assertEquals(expected.getDeviceName(), actual.getDeviceName());
+        assertEquals(expected.getServiceUuids(), actual.getServiceUuids());
+        assertEquals(
+                expected.getServiceSolicitationUuids(), actual.getServiceSolicitationUuids());
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(
+                expected.getAdvertisingDataMap().keySet(),
+                actual.getAdvertisingDataMap().keySet());
+        for (Integer type : expected.getAdvertisingDataMap().keySet()) {
+            assertArrayEquals(
+                    expected.getAdvertisingDataMap().get(type),
+                    actual.getAdvertisingDataMap().get(type));
+        }
+        assertSame(expected.getBytes(), actual.getBytes());
+    }
+
     // Assert two byte arrays are equal.
     private static void assertArrayEquals(byte[] expected, byte[] actual) {
         if (!Arrays.equals(expected, actual)) {